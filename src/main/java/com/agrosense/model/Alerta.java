@@ -1,26 +1,75 @@
 package com.agrosense.model;
 
 import java.time.LocalDateTime;
+import java.util.UUID;
 
+/**
+ * Alerta inmutable. Una misma condición que se repite se agrupa en una sola
+ * alerta (incidente) con la cantidad de ocurrencias y la fecha de la última;
+ * cada ocurrencia nueva produce una copia con el mismo ID.
+ */
 public class Alerta {
     public enum Nivel {
         INFO, WARNING, CRITICAL
     }
 
-    private String mensaje;
-    private Nivel nivel;
-    private LocalDateTime fechaHora;
-    private String loteId;
+    /**
+     * Origen de la alerta: una condición del cultivo (valores fuera de rango)
+     * o un comportamiento del sensor que sugiere una falla del equipo.
+     */
+    public enum Categoria {
+        CONDICION, FALLA_SENSOR
+    }
+
+    private final String id;
+    private final String mensaje;
+    private final Nivel nivel;
+    private final Categoria categoria;
+    private final LocalDateTime fechaHora; // primera ocurrencia
+    private final String loteId;
+    private final String sensorId;
+    private final int ocurrencias;
+    private final LocalDateTime ultimaVez;
 
     public Alerta(String mensaje, Nivel nivel, String loteId) {
         this(mensaje, nivel, loteId, LocalDateTime.now());
     }
 
     public Alerta(String mensaje, Nivel nivel, String loteId, LocalDateTime fechaHora) {
+        this(UUID.randomUUID().toString(), mensaje, nivel, loteId, null, fechaHora, fechaHora, 1);
+    }
+
+    public Alerta(String id, String mensaje, Nivel nivel, String loteId, String sensorId, LocalDateTime fechaHora,
+            LocalDateTime ultimaVez, int ocurrencias) {
+        this(id, mensaje, nivel, Categoria.CONDICION, loteId, sensorId, fechaHora, ultimaVez, ocurrencias);
+    }
+
+    public Alerta(String id, String mensaje, Nivel nivel, Categoria categoria, String loteId, String sensorId,
+            LocalDateTime fechaHora, LocalDateTime ultimaVez, int ocurrencias) {
+        if (ocurrencias < 1) {
+            throw new IllegalArgumentException("Las ocurrencias deben ser al menos 1");
+        }
+        this.id = id;
         this.mensaje = mensaje;
         this.nivel = nivel;
+        this.categoria = categoria != null ? categoria : Categoria.CONDICION;
         this.loteId = loteId;
+        this.sensorId = sensorId;
         this.fechaHora = fechaHora;
+        this.ultimaVez = ultimaVez != null ? ultimaVez : fechaHora;
+        this.ocurrencias = ocurrencias;
+    }
+
+    /**
+     * Copia de esta alerta con una ocurrencia más registrada en la fecha dada.
+     */
+    public Alerta conOcurrencia(LocalDateTime fecha) {
+        LocalDateTime ultima = fecha.isAfter(ultimaVez) ? fecha : ultimaVez;
+        return new Alerta(id, mensaje, nivel, categoria, loteId, sensorId, fechaHora, ultima, ocurrencias + 1);
+    }
+
+    public String getId() {
+        return id;
     }
 
     public String getMensaje() {
@@ -31,6 +80,10 @@ public class Alerta {
         return nivel;
     }
 
+    public Categoria getCategoria() {
+        return categoria;
+    }
+
     public LocalDateTime getFechaHora() {
         return fechaHora;
     }
@@ -39,8 +92,24 @@ public class Alerta {
         return loteId;
     }
 
+    public String getSensorId() {
+        return sensorId;
+    }
+
+    public int getOcurrencias() {
+        return ocurrencias;
+    }
+
+    public LocalDateTime getUltimaVez() {
+        return ultimaVez;
+    }
+
     @Override
     public String toString() {
-        return String.format("[%s] %s - Lote: %s - %s", nivel, fechaHora, loteId, mensaje);
+        String texto = String.format("[%s] %s - Lote: %s - %s", nivel, fechaHora, loteId, mensaje);
+        if (ocurrencias > 1) {
+            texto += String.format(" (x%d, última: %s)", ocurrencias, ultimaVez);
+        }
+        return texto;
     }
 }
@@ -2,20 +2,28 @@ package com.agrosense.model;
 
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Lote {
+    // Fuente de versiones: cada modificación de cualquier lote toma una nueva
+    private static final AtomicLong VERSIONES = new AtomicLong();
+
     private String id;
     private String nombre;
     private String tipoCultivo;
     private double area; // en hectáreas o m2
-    private List<Sensor> sensores;
+    // Copy-on-write: se puede recorrer desde otros hilos mientras se modifica
+    private final List<Sensor> sensores;
 
     // Nuevos campos para gestión agrícola
-    private LocalDate fechaSiembra;
-    private String etapaCrecimiento; // "GERMINACION", "PLANTULA", "VEGETATIVO", "FLORACION", "FRUCTIFICACION"
-    private String notas;
+    private volatile LocalDate fechaSiembra;
+    private volatile String etapaCrecimiento; // "GERMINACION", "PLANTULA", "VEGETATIVO", "FLORACION", "FRUCTIFICACION"
+    private volatile String notas;
+    // Cambia con cada modificación; la persistencia solo reescribe los lotes cuya versión cambió
+    private volatile long version = VERSIONES.incrementAndGet();
 
     public Lote(String id, String nombre, String tipoCultivo, double area) {
         if (id == null || id.trim().isEmpty()) {
@@ -32,17 +40,52 @@ public class Lote {
         this.nombre = nombre;
         this.tipoCultivo = tipoCultivo;
         this.area = area;
-        this.sensores = new ArrayList<>();
+        this.sensores = new CopyOnWriteArrayList<>();
         this.etapaCrecimiento = "GERMINACION"; // Etapa inicial por defecto
         this.notas = "";
     }
 
     public void agregarSensor(Sensor sensor) {
         sensores.add(sensor);
+        marcarModificado();
+    }
+
+    public boolean eliminarSensor(String sensorId) {
+        boolean eliminado = sensores.removeIf(s -> s.getId().equals(sensorId));
+        if (eliminado) {
+            marcarModificado();
+        }
+        return eliminado;
+    }
+
+    /**
+     * Versión de la última modificación. Es única entre todos los lotes, así
+     * que un lote reemplazado por otro con el mismo ID también cambia de
+     * versión.
+     */
+    public long getVersion() {
+        return version;
     }
 
+    /** Última versión asignada a cualquier lote */
+    public static long getUltimaVersion() {
+        return VERSIONES.get();
+    }
+
+    /**
+     * Registra un cambio hecho fuera del lote, por ejemplo en uno de sus
+     * sensores.
+     */
+    public void marcarModificado() {
+        version = VERSIONES.incrementAndGet();
+    }
+
+    /**
+     * Vista de solo lectura de los sensores. Para modificar los sensores de un
+     * lote registrado se usa {@code GestorLotes}.
+     */
     public List<Sensor> getSensores() {
-        return sensores;
+        return Collections.unmodifiableList(sensores);
     }
 
     public String getId() {
@@ -68,6 +111,7 @@ public class Lote {
 
     public void setFechaSiembra(LocalDate fechaSiembra) {
         this.fechaSiembra = fechaSiembra;
+        marcarModificado();
     }
 
     public String getEtapaCrecimiento() {
@@ -76,6 +120,7 @@ public class Lote {
 
     public void setEtapaCrecimiento(String etapaCrecimiento) {
         this.etapaCrecimiento = etapaCrecimiento;
+        marcarModificado();
     }
 
     public String getNotas() {
@@ -84,6 +129,7 @@ public class Lote {
 
     public void setNotas(String notas) {
         this.notas = notas != null ? notas : "";
+        marcarModificado();
     }
 
     /**
@@ -9,7 +9,11 @@ public class Medicion {
     private String tipoSensor;
 
     public Medicion(double valor, String sensorId, String tipoSensor) {
-        this.fechaHora = LocalDateTime.now();
+        this(valor, sensorId, tipoSensor, LocalDateTime.now());
+    }
+
+    public Medicion(double valor, String sensorId, String tipoSensor, LocalDateTime fechaHora) {
+        this.fechaHora = fechaHora;
         this.valor = valor;
         this.sensorId = sensorId;
         this.tipoSensor = tipoSensor;
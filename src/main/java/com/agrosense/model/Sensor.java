@@ -1,9 +1,11 @@
 package com.agrosense.model;
 
 public abstract class Sensor {
-    protected String id;
+    protected volatile String id;
     protected String tipo; // HUMEDAD, TEMPERATURA
-    protected String ubicacion;
+    protected volatile String ubicacion;
+    // Índice denso que le asignó EstadisticasService al registrarlo, o -1
+    private volatile int indiceEstadisticas = -1;
 
     public Sensor(String id, String tipo, String ubicacion) {
         this.id = id;
@@ -31,6 +33,14 @@ public abstract class Sensor {
         this.id = id;
     }
 
+    public int getIndiceEstadisticas() {
+        return indiceEstadisticas;
+    }
+
+    public void setIndiceEstadisticas(int indiceEstadisticas) {
+        this.indiceEstadisticas = indiceEstadisticas;
+    }
+
     // Método abstracto para simular la lectura de datos
     public abstract double leerDato();
 
@@ -1,6 +1,6 @@
 package com.agrosense.model;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class SensorHumedad extends Sensor {
 
@@ -10,7 +10,8 @@ public class SensorHumedad extends Sensor {
 
     @Override
     public double leerDato() {
-        // Simulación interna si se usa directamente
-        return new Random().nextDouble() * 100;
+        // Simulación interna si se usa directamente; las lecturas reales pasan
+        // por SensorService y su DriverSensor
+        return ThreadLocalRandom.current().nextDouble() * 100;
     }
 }
@@ -1,6 +1,6 @@
 package com.agrosense.model;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class SensorTemperatura extends Sensor {
 
@@ -10,7 +10,8 @@ public class SensorTemperatura extends Sensor {
 
     @Override
     public double leerDato() {
-        // Simulación interna si se usa directamente
-        return 10 + (new Random().nextDouble() * 30);
+        // Simulación interna si se usa directamente; las lecturas reales pasan
+        // por SensorService y su DriverSensor
+        return 10 + (ThreadLocalRandom.current().nextDouble() * 30);
     }
 }
@@ -0,0 +1,122 @@
+package com.agrosense.service;
+
+/**
+ * Estadísticas incrementales de una serie: cantidad, promedio y varianza
+ * (algoritmo de Welford), mínimo, máximo y promedio móvil exponencial (EWMA).
+ * Cada valor se incorpora en O(1) y sin guardar el histórico.
+ */
+public class AcumuladorEstadistico {
+    private final double alfa;
+    private long cantidad;
+    private double promedio;
+    private double m2; // suma de los cuadrados de las diferencias con el promedio
+    private double minimo = Double.NaN;
+    private double maximo = Double.NaN;
+    private double ewma = Double.NaN;
+
+    /**
+     * @param alfa peso de cada valor nuevo en el EWMA, entre 0 (exclusivo) y 1
+     */
+    public AcumuladorEstadistico(double alfa) {
+        if (!(alfa > 0 && alfa <= 1)) {
+            throw new IllegalArgumentException("El factor alfa debe estar en (0, 1]");
+        }
+        this.alfa = alfa;
+    }
+
+    private AcumuladorEstadistico(AcumuladorEstadistico otro) {
+        this.alfa = otro.alfa;
+        this.cantidad = otro.cantidad;
+        this.promedio = otro.promedio;
+        this.m2 = otro.m2;
+        this.minimo = otro.minimo;
+        this.maximo = otro.maximo;
+        this.ewma = otro.ewma;
+    }
+
+    public void agregar(double valor) {
+        cantidad++;
+        double delta = valor - promedio;
+        promedio += delta / cantidad;
+        m2 += delta * (valor - promedio);
+        if (cantidad == 1) {
+            minimo = valor;
+            maximo = valor;
+            ewma = valor;
+        } else {
+            minimo = Math.min(minimo, valor);
+            maximo = Math.max(maximo, valor);
+            ewma += alfa * (valor - ewma);
+        }
+    }
+
+    /**
+     * Combina otro acumulador en este (fórmula de Chan para la varianza). El
+     * EWMA combinado es el promedio de ambos ponderado por cantidad.
+     */
+    public void fusionar(AcumuladorEstadistico otro) {
+        if (otro.cantidad == 0) {
+            return;
+        }
+        if (cantidad == 0) {
+            cantidad = otro.cantidad;
+            promedio = otro.promedio;
+            m2 = otro.m2;
+            minimo = otro.minimo;
+            maximo = otro.maximo;
+            ewma = otro.ewma;
+            return;
+        }
+        long total = cantidad + otro.cantidad;
+        double delta = otro.promedio - promedio;
+        m2 += otro.m2 + delta * delta * ((double) cantidad * otro.cantidad / total);
+        promedio += delta * otro.cantidad / total;
+        ewma = (ewma * cantidad + otro.ewma * otro.cantidad) / total;
+        minimo = Math.min(minimo, otro.minimo);
+        maximo = Math.max(maximo, otro.maximo);
+        cantidad = total;
+    }
+
+    public long getCantidad() {
+        return cantidad;
+    }
+
+    /** Promedio, o 0 si no hay valores */
+    public double getPromedio() {
+        return promedio;
+    }
+
+    /** Varianza muestral, o 0 con menos de dos valores */
+    public double getVarianza() {
+        return cantidad > 1 ? m2 / (cantidad - 1) : 0.0;
+    }
+
+    public double getDesviacion() {
+        return Math.sqrt(getVarianza());
+    }
+
+    /** Mínimo, o NaN si no hay valores */
+    public double getMinimo() {
+        return minimo;
+    }
+
+    /** Máximo, o NaN si no hay valores */
+    public double getMaximo() {
+        return maximo;
+    }
+
+    /** Promedio móvil exponencial, o NaN si no hay valores */
+    public double getEwma() {
+        return ewma;
+    }
+
+    public AcumuladorEstadistico copiar() {
+        return new AcumuladorEstadistico(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d prom=%.2f desv=%.2f min=%.2f max=%.2f ewma=%.2f", cantidad, promedio,
+                getDesviacion(), minimo, maximo, ewma);
+    }
+}
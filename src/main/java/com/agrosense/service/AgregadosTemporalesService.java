@@ -0,0 +1,538 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Medicion;
+import java.io.*;
+import java.nio.file.*;
+import java.time.ZoneId;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agregados por minuto, hora y día de las mediciones, por sensor y por lote.
+ *
+ * Cada medición actualiza el intervalo correspondiente de las tres
+ * resoluciones (cantidad, suma, mínimo, máximo y último valor). Cada
+ * resolución conserva una cantidad fija de intervalos en arreglos primitivos
+ * circulares, de modo que una consulta de semanas lee unos cientos de puntos
+ * en lugar de millones de mediciones. El histórico crudo puede depurarse con
+ * {@link SeriesTemporalesService#depurar(long)} una vez cubierto por estos
+ * agregados.
+ *
+ * Los agregados se guardan en {@code data/agregados.dat} al llamar a
+ * {@link #guardar()}, periódicamente si se llamó a
+ * {@link #iniciarGuardadoPeriodico(Duration)}, y se recuperan con
+ * {@link #cargar()}. El archivo registra hasta qué instante cubre las
+ * mediciones ({@link #getGuardadoHasta()}): el histórico crudo posterior no
+ * debe depurarse, porque tras una caída es lo único que queda de ese período.
+ * {@link #depurarHistoricoCrudo} respeta ese límite, y el guardado periódico
+ * puede encargarse de llamarlo después de cada guardado.
+ */
+public class AgregadosTemporalesService {
+
+    private static final String ARCHIVO = "data/agregados.dat";
+    private static final int MAGICO_V1 = 0x41475231; // "AGR1"
+    private static final int MAGICO = 0x41475232; // "AGR2": agrega el instante cubierto
+    public static final Duration GUARDADO_PERIODICO_POR_DEFECTO = Duration.ofMinutes(5);
+    // Máximo de puntos que se devuelven al elegir la resolución automáticamente
+    private static final int PUNTOS_POR_DEFECTO = 500;
+
+    /** Resoluciones disponibles y cuántos intervalos conserva cada una */
+    public enum Resolucion {
+        MINUTO(60_000L, 24 * 60), // 1 día
+        HORA(3_600_000L, 24 * 90), // 90 días
+        DIA(86_400_000L, 365 * 3); // 3 años
+
+        private final long duracionMs;
+        private final int retencion;
+
+        Resolucion(long duracionMs, int retencion) {
+            this.duracionMs = duracionMs;
+            this.retencion = retencion;
+        }
+
+        public long getDuracionMs() {
+            return duracionMs;
+        }
+
+        /** Inicio del intervalo que contiene el instante, en hora local */
+        long inicioIntervalo(long epochMillis, TimeZone zona) {
+            long desfase = zona.getOffset(epochMillis);
+            return Math.floorDiv(epochMillis + desfase, duracionMs) * duracionMs - desfase;
+        }
+    }
+
+    /**
+     * Recibe los intervalos de una consulta, en orden cronológico.
+     */
+    @FunctionalInterface
+    public interface ConsumidorIntervalo {
+        void aceptar(long inicio, long cantidad, double suma, double minimo, double maximo, double ultimo);
+    }
+
+    private final Path archivo;
+    private final TimeZone zona;
+    private final Map<String, Serie> series = new ConcurrentHashMap<>();
+    // Instante hasta el que el archivo guardado cubre las mediciones
+    private volatile long guardadoHasta;
+    private volatile boolean modificado;
+    // El archivo existente no se pudo leer ni apartar: no se sobrescribe
+    private volatile boolean bloqueado;
+    private ScheduledExecutorService guardadoPeriodico;
+    // Histórico crudo que se depura en cada ciclo del guardado periódico, si hay
+    private SeriesTemporalesService historicoCrudo;
+    private Duration retencionCrudo;
+
+    public AgregadosTemporalesService() {
+        this(Paths.get(ARCHIVO));
+    }
+
+    public AgregadosTemporalesService(Path archivo) {
+        this.archivo = archivo;
+        this.zona = TimeZone.getTimeZone(ZoneId.systemDefault());
+    }
+
+    /**
+     * Agrega una medición a la serie de su sensor y a la del lote para su tipo.
+     */
+    public void registrar(String loteId, Medicion medicion) {
+        long epochMillis = medicion.getFechaHora().atZone(zona.toZoneId()).toInstant().toEpochMilli();
+        registrar(claveSensor(medicion.getSensorId()), epochMillis, medicion.getValor());
+        registrar(claveLote(loteId, medicion.getTipoSensor()), epochMillis, medicion.getValor());
+    }
+
+    public void registrar(String clave, long epochMillis, double valor) {
+        series.computeIfAbsent(clave, k -> new Serie()).agregar(epochMillis, valor);
+        modificado = true;
+    }
+
+    /**
+     * Recorre los intervalos de una serie en [desde, hasta] con la resolución
+     * indicada.
+     */
+    public void consultar(String clave, Resolucion resolucion, long desde, long hasta, ConsumidorIntervalo consumidor) {
+        Serie serie = series.get(clave);
+        if (serie != null) {
+            serie.nivel(resolucion).consultar(desde, hasta, consumidor);
+        }
+    }
+
+    /**
+     * Consulta con la resolución más fina que cubra el rango sin superar
+     * {@code maxPuntos} intervalos y cuya retención alcance el inicio del rango.
+     *
+     * @return la resolución usada
+     */
+    public Resolucion consultar(String clave, long desde, long hasta, int maxPuntos, ConsumidorIntervalo consumidor) {
+        Resolucion resolucion = elegirResolucion(desde, hasta, maxPuntos, System.currentTimeMillis());
+        consultar(clave, resolucion, desde, hasta, consumidor);
+        return resolucion;
+    }
+
+    public Resolucion consultar(String clave, long desde, long hasta, ConsumidorIntervalo consumidor) {
+        return consultar(clave, desde, hasta, PUNTOS_POR_DEFECTO, consumidor);
+    }
+
+    static Resolucion elegirResolucion(long desde, long hasta, int maxPuntos, long ahora) {
+        for (Resolucion resolucion : Resolucion.values()) {
+            boolean pocosPuntos = (hasta - desde) / resolucion.duracionMs < maxPuntos;
+            boolean retenido = ahora - desde <= resolucion.duracionMs * resolucion.retencion;
+            if (pocosPuntos && retenido) {
+                return resolucion;
+            }
+        }
+        return Resolucion.DIA;
+    }
+
+    /** Clave de la serie de un sensor */
+    public static String claveSensor(String sensorId) {
+        return "S:" + sensorId;
+    }
+
+    /** Clave de la serie de un lote para un tipo de sensor */
+    public static String claveLote(String loteId, String tipoSensor) {
+        return "L:" + loteId + ":" + tipoSensor.toUpperCase();
+    }
+
+    /**
+     * Guarda todos los agregados en un archivo temporal, lo sincroniza a disco
+     * y lo renombra atómicamente.
+     */
+    public synchronized void guardar() throws IOException {
+        if (bloqueado) {
+            throw new IOException("No se guardan los agregados: " + archivo + " no se pudo leer");
+        }
+        if (archivo.getParent() != null) {
+            Files.createDirectories(archivo.getParent());
+        }
+        // Lo registrado a partir de aquí puede no entrar en este guardado
+        long hasta = System.currentTimeMillis();
+        modificado = false;
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        try (FileOutputStream salida = new FileOutputStream(temporal.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(salida))) {
+            out.writeInt(MAGICO);
+            out.writeLong(hasta);
+            out.writeInt(series.size());
+            for (Map.Entry<String, Serie> entrada : series.entrySet()) {
+                out.writeUTF(entrada.getKey());
+                entrada.getValue().escribir(out);
+            }
+            out.flush();
+            salida.getFD().sync();
+        } catch (IOException e) {
+            modificado = true;
+            throw e;
+        }
+        Files.move(temporal, archivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        sincronizarDirectorio();
+        guardadoHasta = hasta;
+    }
+
+    /**
+     * Carga los agregados guardados, si existen. Reemplaza las series en memoria.
+     * Un archivo ilegible se renombra a {@code .danado} para que el próximo
+     * guardado no lo sobrescriba; si ni eso es posible, no se vuelve a guardar.
+     */
+    public synchronized void cargar() throws IOException {
+        if (!Files.exists(archivo)) {
+            return;
+        }
+        Map<String, Serie> leidas = new HashMap<>();
+        long hasta;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(archivo)))) {
+            int magico = in.readInt();
+            if (magico == MAGICO) {
+                hasta = in.readLong();
+            } else if (magico == MAGICO_V1) {
+                hasta = Files.getLastModifiedTime(archivo).toMillis();
+            } else {
+                throw new IOException("Archivo de agregados con formato desconocido: " + archivo);
+            }
+            int cantidad = in.readInt();
+            if (cantidad < 0) {
+                throw new IOException("Cantidad de series inválida: " + cantidad);
+            }
+            for (int i = 0; i < cantidad; i++) {
+                String clave = in.readUTF();
+                Serie serie = new Serie();
+                serie.leer(in);
+                leidas.put(clave, serie);
+            }
+        } catch (IOException e) {
+            Path danado = archivo.resolveSibling(archivo.getFileName() + ".danado");
+            try {
+                Files.move(archivo, danado, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException noMovido) {
+                bloqueado = true;
+                e.addSuppressed(noMovido);
+                throw e;
+            }
+            throw new IOException("No se pudo leer " + archivo.getFileName() + " (" + e + "); se conserva como "
+                    + danado.getFileName(), e);
+        }
+        series.clear();
+        series.putAll(leidas);
+        guardadoHasta = hasta;
+    }
+
+    /**
+     * Instante (epoch ms) hasta el que el último archivo guardado o cargado
+     * cubre las mediciones, o 0 si no hay ninguno. El histórico crudo anterior
+     * a este instante ya está resumido en disco.
+     */
+    public long getGuardadoHasta() {
+        return guardadoHasta;
+    }
+
+    /**
+     * Borra del histórico crudo los segmentos anteriores a {@code retencion}
+     * que ya están resumidos en los agregados guardados.
+     *
+     * @return cantidad de segmentos borrados
+     */
+    public int depurarHistoricoCrudo(SeriesTemporalesService seriesCrudas, Duration retencion) throws IOException {
+        long limite = Math.min(System.currentTimeMillis() - retencion.toMillis(), guardadoHasta);
+        return seriesCrudas.depurar(limite);
+    }
+
+    /**
+     * Guarda cada {@code intervalo} en un hilo propio, si hubo mediciones nuevas,
+     * para acotar lo que se pierde si el proceso termina sin {@link #cerrar()}.
+     */
+    public void iniciarGuardadoPeriodico(Duration intervalo) {
+        iniciarGuardadoPeriodico(intervalo, null, null);
+    }
+
+    /**
+     * Como {@link #iniciarGuardadoPeriodico(Duration)}, y además depura en cada
+     * ciclo el histórico crudo con {@link #depurarHistoricoCrudo}, de modo que
+     * no crezca sin límite mientras el proceso sigue en marcha.
+     */
+    public synchronized void iniciarGuardadoPeriodico(Duration intervalo, SeriesTemporalesService seriesCrudas,
+            Duration retencion) {
+        if (guardadoPeriodico != null) {
+            return;
+        }
+        historicoCrudo = seriesCrudas;
+        retencionCrudo = retencion;
+        guardadoPeriodico = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "agrosense-agregados");
+            t.setDaemon(true);
+            return t;
+        });
+        long ms = intervalo.toMillis();
+        guardadoPeriodico.scheduleWithFixedDelay(this::guardarYDepurar, ms, ms, TimeUnit.MILLISECONDS);
+    }
+
+    private void guardarYDepurar() {
+        if (modificado) {
+            try {
+                guardar();
+            } catch (IOException e) {
+                System.err.println("[AGREGADOS] Error en el guardado periódico: " + e.getMessage());
+            }
+        }
+        // Aunque no haya mediciones nuevas, con el tiempo otros segmentos salen de la retención
+        if (historicoCrudo != null) {
+            try {
+                int borrados = depurarHistoricoCrudo(historicoCrudo, retencionCrudo);
+                if (borrados > 0) {
+                    System.out.println("[SERIES] " + borrados + " segmentos antiguos depurados");
+                }
+            } catch (IOException e) {
+                System.err.println("[SERIES] Error al depurar el histórico crudo: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Detiene el guardado periódico y guarda por última vez.
+     */
+    public void cerrar() throws IOException {
+        ScheduledExecutorService pendiente;
+        synchronized (this) {
+            pendiente = guardadoPeriodico;
+            guardadoPeriodico = null;
+        }
+        if (pendiente != null) {
+            pendiente.shutdown();
+            try {
+                pendiente.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        guardar();
+    }
+
+    private void sincronizarDirectorio() {
+        if (archivo.getParent() == null) {
+            return;
+        }
+        try (FileChannel canal = FileChannel.open(archivo.getParent(), StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // Algunos sistemas (Windows) no permiten sincronizar directorios
+        }
+    }
+
+    /** Series de una clave en las tres resoluciones */
+    private final class Serie {
+        private final Nivel[] niveles = new Nivel[Resolucion.values().length];
+
+        Serie() {
+            for (Resolucion resolucion : Resolucion.values()) {
+                niveles[resolucion.ordinal()] = new Nivel(resolucion);
+            }
+        }
+
+        Nivel nivel(Resolucion resolucion) {
+            return niveles[resolucion.ordinal()];
+        }
+
+        void agregar(long epochMillis, double valor) {
+            for (Nivel nivel : niveles) {
+                nivel.agregar(epochMillis, valor);
+            }
+        }
+
+        void escribir(DataOutputStream out) throws IOException {
+            for (Nivel nivel : niveles) {
+                nivel.escribir(out);
+            }
+        }
+
+        void leer(DataInputStream in) throws IOException {
+            for (Nivel nivel : niveles) {
+                nivel.leer(in);
+            }
+        }
+    }
+
+    /**
+     * Intervalos de una resolución en arreglos paralelos usados como buffer
+     * circular. Los arreglos crecen al doble hasta la retención de la
+     * resolución; a partir de ahí el intervalo nuevo reemplaza al más antiguo.
+     */
+    private final class Nivel {
+        private final Resolucion resolucion;
+        private long[] inicios = new long[8];
+        private long[] cantidades = new long[8];
+        private double[] sumas = new double[8];
+        private double[] minimos = new double[8];
+        private double[] maximos = new double[8];
+        private double[] ultimos = new double[8];
+        private int cabeza;
+        private int tamano;
+
+        Nivel(Resolucion resolucion) {
+            this.resolucion = resolucion;
+        }
+
+        private int posicion(int indice) {
+            return (cabeza + indice) % inicios.length;
+        }
+
+        synchronized void agregar(long epochMillis, double valor) {
+            long inicio = resolucion.inicioIntervalo(epochMillis, zona);
+            int indice;
+            if (tamano > 0 && inicios[posicion(tamano - 1)] == inicio) {
+                indice = tamano - 1; // caso habitual: intervalo en curso
+            } else if (tamano == 0 || inicios[posicion(tamano - 1)] < inicio) {
+                indice = nuevoIntervalo(inicio);
+            } else {
+                // Medición atrasada: se busca su intervalo entre los existentes
+                indice = buscar(inicio);
+                if (indice < 0) {
+                    return; // anterior a la retención o sin intervalo propio
+                }
+            }
+            int p = posicion(indice);
+            if (cantidades[p] == 0) {
+                minimos[p] = valor;
+                maximos[p] = valor;
+            } else {
+                minimos[p] = Math.min(minimos[p], valor);
+                maximos[p] = Math.max(maximos[p], valor);
+            }
+            cantidades[p]++;
+            sumas[p] += valor;
+            ultimos[p] = valor;
+        }
+
+        private int nuevoIntervalo(long inicio) {
+            if (tamano == inicios.length) {
+                if (inicios.length < resolucion.retencion) {
+                    crecer(Math.min(inicios.length * 2, resolucion.retencion));
+                } else {
+                    cabeza = (cabeza + 1) % inicios.length;
+                    tamano--;
+                }
+            }
+            int p = posicion(tamano);
+            inicios[p] = inicio;
+            cantidades[p] = 0;
+            sumas[p] = 0;
+            tamano++;
+            return tamano - 1;
+        }
+
+        private void crecer(int capacidad) {
+            inicios = reordenar(inicios, new long[capacidad]);
+            cantidades = reordenar(cantidades, new long[capacidad]);
+            sumas = reordenar(sumas, new double[capacidad]);
+            minimos = reordenar(minimos, new double[capacidad]);
+            maximos = reordenar(maximos, new double[capacidad]);
+            ultimos = reordenar(ultimos, new double[capacidad]);
+            cabeza = 0;
+        }
+
+        /** Copia los elementos en orden cronológico al inicio del arreglo nuevo */
+        private long[] reordenar(long[] origen, long[] destino) {
+            int primeraParte = Math.min(tamano, origen.length - cabeza);
+            System.arraycopy(origen, cabeza, destino, 0, primeraParte);
+            System.arraycopy(origen, 0, destino, primeraParte, tamano - primeraParte);
+            return destino;
+        }
+
+        private double[] reordenar(double[] origen, double[] destino) {
+            int primeraParte = Math.min(tamano, origen.length - cabeza);
+            System.arraycopy(origen, cabeza, destino, 0, primeraParte);
+            System.arraycopy(origen, 0, destino, primeraParte, tamano - primeraParte);
+            return destino;
+        }
+
+        /** Índice lógico del intervalo con ese inicio, o -1 */
+        private int buscar(long inicio) {
+            int i = primerIndiceDesde(inicio);
+            return i < tamano && inicios[posicion(i)] == inicio ? i : -1;
+        }
+
+        /** Primer índice lógico cuyo inicio es >= al valor dado */
+        private int primerIndiceDesde(long inicio) {
+            int bajo = 0;
+            int alto = tamano;
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (inicios[posicion(medio)] < inicio) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return bajo;
+        }
+
+        synchronized void consultar(long desde, long hasta, ConsumidorIntervalo consumidor) {
+            // Incluye el intervalo que contiene a 'desde'
+            for (int i = primerIndiceDesde(resolucion.inicioIntervalo(desde, zona)); i < tamano; i++) {
+                int p = posicion(i);
+                if (inicios[p] > hasta) {
+                    break;
+                }
+                consumidor.aceptar(inicios[p], cantidades[p], sumas[p], minimos[p], maximos[p], ultimos[p]);
+            }
+        }
+
+        synchronized void escribir(DataOutputStream out) throws IOException {
+            out.writeInt(tamano);
+            for (int i = 0; i < tamano; i++) {
+                int p = posicion(i);
+                out.writeLong(inicios[p]);
+                out.writeLong(cantidades[p]);
+                out.writeDouble(sumas[p]);
+                out.writeDouble(minimos[p]);
+                out.writeDouble(maximos[p]);
+                out.writeDouble(ultimos[p]);
+            }
+        }
+
+        synchronized void leer(DataInputStream in) throws IOException {
+            int cantidad = in.readInt();
+            if (cantidad < 0) {
+                throw new IOException("Cantidad de intervalos inválida: " + cantidad);
+            }
+            for (int i = 0; i < cantidad; i++) {
+                long inicio = in.readLong();
+                long n = in.readLong();
+                double suma = in.readDouble();
+                double minimo = in.readDouble();
+                double maximo = in.readDouble();
+                double ultimo = in.readDouble();
+                int p = posicion(nuevoIntervalo(inicio));
+                cantidades[p] = n;
+                sumas[p] = suma;
+                minimos[p] = minimo;
+                maximos[p] = maximo;
+                ultimos[p] = ultimo;
+            }
+        }
+    }
+}
@@ -2,55 +2,599 @@ package com.agrosense.service;
 
 import com.agrosense.model.Alerta;
 import com.agrosense.model.Medicion;
+import java.time.Duration;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
 
+/**
+ * Genera alertas a partir de las mediciones y mantiene el historial reciente.
+ *
+ * El historial en memoria es un buffer circular de capacidad fija con una
+ * retención opcional por antigüedad. Las alertas que salen del historial se
+ * envían al {@link ArchivoAlertas} configurado, de modo que la memoria usada
+ * se mantiene constante. Si el archivo falla, las alertas esperan en orden
+ * (hasta otra capacidad del historial) y se reintentan con el próximo
+ * descarte o guardado.
+ *
+ * Además del orden de llegada, el historial se indexa por fecha, por lote, por
+ * nivel y por lote y nivel, de modo que {@link #consultarAlertas} responde en
+ * O(log n + k) sin recorrer todo el historial.
+ *
+ * Las lecturas fuera de rango no generan una alerta por medición: para cada
+ * combinación (lote, sensor, variable) se mantiene un incidente abierto que
+ * acumula ocurrencias. El incidente se cierra cuando el valor vuelve al rango
+ * normal superando una banda de histéresis, y se vuelve a notificar como una
+ * alerta nueva si cambia de nivel o si pasó el intervalo de renotificación.
+ *
+ * Antes de evaluar los umbrales, cada lectura pasa por un
+ * {@link DetectorAnomalias}. Un salto brusco o una lectura congelada abren un
+ * incidente de categoría {@link Alerta.Categoria#FALLA_SENSOR}. Un salto no se
+ * usa para los umbrales del cultivo; una lectura congelada sí, porque el
+ * sensor puede haberse quedado en un valor realmente crítico.
+ *
+ * Para los guardados incrementales el servicio anota qué alertas cambiaron
+ * desde el último {@link #tomarCambios}: las nuevas o renovadas y cuántas de
+ * las ya guardadas salieron del historial.
+ */
 public class AlertaService {
-    private List<Alerta> historialAlertas;
+    public static final int CAPACIDAD_POR_DEFECTO = 10_000;
+    public static final Duration RENOTIFICACION_POR_DEFECTO = Duration.ofHours(1);
+
+    /**
+     * Variable vigilada con sus umbrales. La banda es cuánto debe volver el
+     * valor más allá del umbral para dar por terminada la condición.
+     */
+    private enum Condicion {
+        HUMEDAD(true, 50.0, 30.0, 2.0, "Humedad baja (%s%%)", "Humedad crítica baja (%s%%)"),
+        TEMPERATURA(false, 30.0, 35.0, 1.0, "Temperatura alta (%s°C)", "Temperatura crítica alta (%s°C)");
+
+        private final boolean porDebajo;
+        private final double umbralWarning;
+        private final double umbralCritico;
+        private final double banda;
+        private final String mensajeWarning;
+        private final String mensajeCritico;
+
+        Condicion(boolean porDebajo, double umbralWarning, double umbralCritico, double banda,
+                String mensajeWarning, String mensajeCritico) {
+            this.porDebajo = porDebajo;
+            this.umbralWarning = umbralWarning;
+            this.umbralCritico = umbralCritico;
+            this.banda = banda;
+            this.mensajeWarning = mensajeWarning;
+            this.mensajeCritico = mensajeCritico;
+        }
+
+        static Condicion de(String tipoSensor) {
+            if (tipoSensor.equalsIgnoreCase("HUMEDAD")) {
+                return HUMEDAD;
+            }
+            if (tipoSensor.equalsIgnoreCase("TEMPERATURA")) {
+                return TEMPERATURA;
+            }
+            return null;
+        }
+
+        /**
+         * Nivel de la condición para un valor, o null si es normal. Mientras el
+         * valor siga dentro de la banda del nivel actual, el nivel se mantiene.
+         */
+        Alerta.Nivel evaluar(double valor, Alerta.Nivel actual) {
+            Alerta.Nivel nivel = superaUmbral(valor, umbralCritico, 0) ? Alerta.Nivel.CRITICAL
+                    : superaUmbral(valor, umbralWarning, 0) ? Alerta.Nivel.WARNING : null;
+            if (actual != null && (nivel == null || nivel.compareTo(actual) < 0)) {
+                double umbralActual = actual == Alerta.Nivel.CRITICAL ? umbralCritico : umbralWarning;
+                if (superaUmbral(valor, umbralActual, banda)) {
+                    return actual;
+                }
+            }
+            return nivel;
+        }
+
+        private boolean superaUmbral(double valor, double umbral, double margen) {
+            return porDebajo ? valor < umbral + margen : valor > umbral - margen;
+        }
+
+        String mensaje(Alerta.Nivel nivel, double valor) {
+            return String.format(nivel == Alerta.Nivel.CRITICAL ? mensajeCritico : mensajeWarning,
+                    String.format("%.2f", valor));
+        }
+    }
+
+    /** Incidente abierto de una condición o de una falla del sensor */
+    private static final class Incidente {
+        final Alerta.Nivel nivel;
+        final DetectorAnomalias.Anomalia anomalia; // null en las condiciones
+        final String alertaId;
+        final LocalDateTime notificado;
+
+        Incidente(Alerta.Nivel nivel, DetectorAnomalias.Anomalia anomalia, String alertaId,
+                LocalDateTime notificado) {
+            this.nivel = nivel;
+            this.anomalia = anomalia;
+            this.alertaId = alertaId;
+            this.notificado = notificado;
+        }
+    }
+
+    private final BufferCircular<Entrada> historialAlertas;
+    // Índices ordenados por fecha; contienen las mismas entradas que el buffer
+    private final NavigableSet<Entrada> porFecha = new TreeSet<>();
+    private final Map<String, NavigableSet<Entrada>> porLote = new HashMap<>();
+    private final Map<Alerta.Nivel, NavigableSet<Entrada>> porNivel = new EnumMap<>(Alerta.Nivel.class);
+    private final Map<String, Map<Alerta.Nivel, NavigableSet<Entrada>>> porLoteNivel = new HashMap<>();
+    private final Map<String, Entrada> porId = new HashMap<>();
+    private long secuencia;
+
+    // Cambios desde el último tomarCambios(), en orden de llegada
+    private final Set<Entrada> sinGuardar = new LinkedHashSet<>();
+    private int guardadasDescartadas;
+    private boolean limpiado;
+    // Salieron del historial y todavía no se archivaron, de la más antigua a la más nueva
+    private final ArrayDeque<Entrada> porArchivar = new ArrayDeque<>();
+    private boolean archivoFallando;
+
+    // Incidentes abiertos por lote|sensor|condición y lote|sensor|FALLA
+    private final Map<String, Incidente> incidentes = new HashMap<>();
+    private final DetectorAnomalias detector = new DetectorAnomalias();
+    private long alertasGeneradas;
+    private volatile Duration intervaloRenotificacion = RENOTIFICACION_POR_DEFECTO;
+    private final Duration retencion; // null = sin límite por antigüedad
+    private final ArchivoAlertas archivo; // null = las alertas descartadas no se guardan
 
     public AlertaService() {
-        this.historialAlertas = new ArrayList<>();
+        this(CAPACIDAD_POR_DEFECTO, null, null);
+    }
+
+    /**
+     * @param capacidad cantidad máxima de alertas en memoria
+     * @param retencion antigüedad máxima de una alerta en memoria, o null
+     * @param archivo   destino de las alertas descartadas, o null
+     */
+    public AlertaService(int capacidad, Duration retencion, ArchivoAlertas archivo) {
+        this.historialAlertas = new BufferCircular<>(capacidad);
+        this.retencion = retencion;
+        this.archivo = archivo;
     }
 
     public void verificarMedicion(Medicion medicion, String loteId) {
-        double valor = medicion.getValor();
-        String tipo = medicion.getTipoSensor();
+        LocalDateTime fecha = medicion.getFechaHora() != null ? medicion.getFechaHora() : LocalDateTime.now();
+        if (evaluarFalla(loteId, medicion.getSensorId(), medicion.getValor(), fecha)) {
+            return;
+        }
+        Condicion condicion = Condicion.de(medicion.getTipoSensor());
+        if (condicion == null) {
+            return;
+        }
+        evaluarCondicion(condicion, loteId, medicion.getSensorId(), medicion.getValor(), fecha);
+    }
 
-        if (tipo.equalsIgnoreCase("HUMEDAD")) {
-            if (valor < 30.0) {
-                generarAlerta("Humedad crítica baja (" + String.format("%.2f", valor) + "%)", Alerta.Nivel.CRITICAL,
-                        loteId);
-            } else if (valor < 50.0) {
-                generarAlerta("Humedad baja (" + String.format("%.2f", valor) + "%)", Alerta.Nivel.WARNING, loteId);
+    /**
+     * Pasa la lectura por el detector de anomalías y abre, renueva o cierra el
+     * incidente de falla del sensor.
+     *
+     * @return true si la lectura es un salto y no debe evaluarse contra los
+     *         umbrales
+     */
+    private synchronized boolean evaluarFalla(String loteId, String sensorId, double valor, LocalDateTime fecha) {
+        DetectorAnomalias.Anomalia anomalia = detector.evaluar(sensorId, valor);
+        String clave = loteId + "|" + sensorId + "|FALLA";
+        Incidente incidente = incidentes.get(clave);
+        if (anomalia == null) {
+            if (incidente != null) {
+                cerrarIncidente(clave, incidente);
             }
-        } else if (tipo.equalsIgnoreCase("TEMPERATURA")) {
-            if (valor > 35.0) {
-                generarAlerta("Temperatura crítica alta (" + String.format("%.2f", valor) + "°C)",
-                        Alerta.Nivel.CRITICAL, loteId);
-            } else if (valor > 30.0) {
-                generarAlerta("Temperatura alta (" + String.format("%.2f", valor) + "°C)", Alerta.Nivel.WARNING,
-                        loteId);
+            return false;
+        }
+        if (incidente != null && incidente.anomalia != anomalia) {
+            cerrarIncidente(clave, incidente);
+            incidente = null;
+        }
+        if (!renovarIncidente(incidente, anomalia.getNivel(), fecha)) {
+            String mensaje = anomalia.mensaje(detector.getReferencia(sensorId, anomalia), valor);
+            abrirIncidente(clave, new Alerta(UUID.randomUUID().toString(), mensaje, anomalia.getNivel(),
+                    Alerta.Categoria.FALLA_SENSOR, loteId, sensorId, fecha, fecha, 1), anomalia);
+        }
+        return anomalia == DetectorAnomalias.Anomalia.SALTO;
+    }
+
+    private synchronized void evaluarCondicion(Condicion condicion, String loteId, String sensorId, double valor,
+            LocalDateTime fecha) {
+        String clave = loteId + "|" + sensorId + "|" + condicion;
+        Incidente incidente = incidentes.get(clave);
+        // El incidente pudo salir del historial (capacidad, retención o limpieza)
+        Alerta.Nivel actual = incidente != null && porId.containsKey(incidente.alertaId) ? incidente.nivel : null;
+        Alerta.Nivel nivel = condicion.evaluar(valor, actual);
+
+        if (nivel == null) {
+            if (incidente != null) {
+                cerrarIncidente(clave, incidente);
             }
+            return;
+        }
+        if (!renovarIncidente(incidente, nivel, fecha)) {
+            abrirIncidente(clave, new Alerta(UUID.randomUUID().toString(), condicion.mensaje(nivel, valor), nivel,
+                    loteId, sensorId, fecha, fecha, 1), null);
+        }
+    }
+
+    /**
+     * Suma una ocurrencia a la alerta del incidente si sigue en el historial,
+     * con el mismo nivel y dentro del intervalo de renotificación.
+     *
+     * @return false si hay que notificar una alerta nueva
+     */
+    private boolean renovarIncidente(Incidente incidente, Alerta.Nivel nivel, LocalDateTime fecha) {
+        Entrada entrada = incidente != null ? porId.get(incidente.alertaId) : null;
+        if (entrada == null || incidente.nivel != nivel
+                || Duration.between(incidente.notificado, fecha).compareTo(intervaloRenotificacion) >= 0) {
+            return false;
         }
+        entrada.alerta = entrada.alerta.conOcurrencia(fecha);
+        sinGuardar.add(entrada);
+        return true;
     }
 
-    private void generarAlerta(String mensaje, Alerta.Nivel nivel, String loteId) {
-        Alerta alerta = new Alerta(mensaje, nivel, loteId);
-        historialAlertas.add(alerta);
+    private void abrirIncidente(String clave, Alerta alerta, DetectorAnomalias.Anomalia anomalia) {
+        agregarAlerta(alerta);
+        alertasGeneradas++;
+        incidentes.put(clave, new Incidente(alerta.getNivel(), anomalia, alerta.getId(), alerta.getFechaHora()));
         System.out.println(">>> ALERTA GENERADA: " + alerta);
     }
 
-    public List<Alerta> getHistorialAlertas() {
-        return historialAlertas;
+    private void cerrarIncidente(String clave, Incidente incidente) {
+        incidentes.remove(clave);
+        Entrada entrada = porId.get(incidente.alertaId);
+        if (entrada != null) {
+            System.out.println(">>> ALERTA RESUELTA: " + entrada.alerta);
+        }
+    }
+
+    /**
+     * Tiempo tras el cual un incidente que sigue abierto se notifica de nuevo
+     * como una alerta aparte.
+     */
+    public void setIntervaloRenotificacion(Duration intervalo) {
+        if (intervalo == null || intervalo.isNegative()) {
+            throw new IllegalArgumentException("El intervalo de renotificación no puede ser negativo");
+        }
+        this.intervaloRenotificacion = intervalo;
+    }
+
+    /**
+     * Agrega una alerta al historial (por ejemplo, al cargar datos guardados).
+     * Si ya hay una alerta con el mismo ID, se reemplaza en su lugar.
+     */
+    public synchronized void agregarAlerta(Alerta alerta) {
+        Entrada existente = porId.get(alerta.getId());
+        if (existente != null && existente.fecha.equals(alerta.getFechaHora())) {
+            existente.alerta = alerta;
+            sinGuardar.add(existente);
+            return;
+        }
+        Entrada entrada = new Entrada(alerta, secuencia++);
+        Entrada descartada = historialAlertas.agregar(entrada);
+        if (descartada != null) {
+            descartar(descartada);
+        }
+        indexar(entrada);
+        sinGuardar.add(entrada);
+        aplicarRetencion();
+    }
+
+    /**
+     * Saca del historial las alertas más antiguas que la retención configurada.
+     */
+    public synchronized void aplicarRetencion() {
+        if (retencion == null) {
+            return;
+        }
+        LocalDateTime limite = LocalDateTime.now().minus(retencion);
+        while (historialAlertas.tamano() > 0 && historialAlertas.primero().alerta.getFechaHora().isBefore(limite)) {
+            descartar(historialAlertas.quitarPrimero());
+        }
+    }
+
+    /** Saca del índice una entrada que ya salió del buffer y la archiva */
+    private void descartar(Entrada entrada) {
+        desindexar(entrada);
+        sinGuardar.remove(entrada);
+        porArchivar.addLast(entrada);
+        archivarPendientes();
+    }
+
+    /**
+     * Archiva en orden las alertas que salieron del historial. Una alerta ya
+     * guardada cuenta como descartada para el journal recién cuando quedó
+     * archivada; si el archivo falla, espera con las siguientes, para que el
+     * journal siga descartando siempre las más antiguas.
+     */
+    private void archivarPendientes() {
+        while (!porArchivar.isEmpty()) {
+            Entrada entrada = porArchivar.peekFirst();
+            if (archivo != null) {
+                try {
+                    archivo.archivar(entrada.alerta);
+                    archivoFallando = false;
+                } catch (IOException e) {
+                    if (porArchivar.size() <= historialAlertas.capacidad()) {
+                        if (!archivoFallando) {
+                            archivoFallando = true;
+                            System.err.println("[ALERTAS] No se pudo archivar, se reintentará: " + e.getMessage());
+                        }
+                        return;
+                    }
+                    System.err.println("[ALERTAS] Se pierde la alerta " + entrada.alerta.getId()
+                            + ": no se pudo archivar (" + e.getMessage() + ")");
+                }
+            }
+            porArchivar.pollFirst();
+            if (entrada.guardada) {
+                guardadasDescartadas++;
+            }
+        }
+    }
+
+    /**
+     * Devuelve una copia inmutable del historial, de la alerta más antigua a la
+     * más reciente.
+     */
+    public synchronized List<Alerta> getHistorialAlertas() {
+        List<Alerta> copia = new ArrayList<>(historialAlertas.tamano());
+        for (int i = 0; i < historialAlertas.tamano(); i++) {
+            copia.add(historialAlertas.get(i).alerta);
+        }
+        return Collections.unmodifiableList(copia);
+    }
+
+    /**
+     * Vacía el historial en memoria (las alertas no se archivan).
+     */
+    public synchronized void limpiarHistorial() {
+        historialAlertas.limpiar();
+        sinGuardar.clear();
+        // LIMPIAR_ALERTAS ya las saca del journal: al archivarse no cuentan
+        for (Entrada entrada : porArchivar) {
+            entrada.guardada = false;
+        }
+        guardadasDescartadas = 0;
+        limpiado = true;
+        porFecha.clear();
+        porLote.clear();
+        porNivel.clear();
+        porLoteNivel.clear();
+        porId.clear();
+        incidentes.clear();
+    }
+
+    /**
+     * Entrega los cambios del historial desde la llamada anterior y los da por
+     * guardados. Pensado para un único consumidor (la persistencia). Antes de
+     * volver fuerza a disco el archivo, así que las alertas que informa como
+     * descartadas ya están a salvo en él.
+     *
+     * @param completo true para recibir todo el historial en lugar de los
+     *                 cambios, como si se hubiera limpiado y vuelto a cargar
+     * @throws IOException si el archivo no se pudo forzar; los cambios ya se
+     *                     tomaron y hay que volver a guardar todo
+     */
+    public CambiosAlertas tomarCambios(boolean completo) throws IOException {
+        CambiosAlertas cambios = tomarCambiosEnMemoria(completo);
+        // Fuera del lock: un fsync no frena a las alertas nuevas
+        if (archivo != null) {
+            archivo.forzar();
+        }
+        return cambios;
+    }
+
+    private synchronized CambiosAlertas tomarCambiosEnMemoria(boolean completo) {
+        archivarPendientes();
+        List<Alerta> alertas;
+        if (completo) {
+            alertas = new ArrayList<>(historialAlertas.tamano());
+            for (int i = 0; i < historialAlertas.tamano(); i++) {
+                Entrada entrada = historialAlertas.get(i);
+                entrada.guardada = true;
+                alertas.add(entrada.alerta);
+            }
+        } else {
+            alertas = new ArrayList<>(sinGuardar.size());
+            for (Entrada entrada : sinGuardar) {
+                entrada.guardada = true;
+                alertas.add(entrada.alerta);
+            }
+        }
+        CambiosAlertas cambios = new CambiosAlertas(Collections.unmodifiableList(alertas), completo || limpiado,
+                completo ? 0 : guardadasDescartadas);
+        sinGuardar.clear();
+        guardadasDescartadas = 0;
+        limpiado = false;
+        return cambios;
+    }
+
+    /** Cambios del historial entregados por {@link #tomarCambios} */
+    public static final class CambiosAlertas {
+        private final List<Alerta> alertas;
+        private final boolean limpiado;
+        private final int descartadas;
+
+        CambiosAlertas(List<Alerta> alertas, boolean limpiado, int descartadas) {
+            this.alertas = alertas;
+            this.limpiado = limpiado;
+            this.descartadas = descartadas;
+        }
+
+        /** Alertas nuevas o renovadas, en orden de llegada */
+        public List<Alerta> getAlertas() {
+            return alertas;
+        }
+
+        /** Si el historial se vació antes de estas alertas */
+        public boolean isLimpiado() {
+            return limpiado;
+        }
+
+        /** Alertas ya entregadas que salieron del historial (las más antiguas) */
+        public int getDescartadas() {
+            return descartadas;
+        }
     }
 
     public List<Alerta> getAlertasPorLote(String loteId) {
-        List<Alerta> result = new ArrayList<>();
-        for (Alerta a : historialAlertas) {
-            if (a.getLoteId().equals(loteId)) {
-                result.add(a);
+        return consultarAlertas(loteId, null, null, null);
+    }
+
+    /**
+     * Alertas que cumplen todos los filtros indicados, ordenadas por fecha.
+     * Cualquier filtro en null no se aplica.
+     *
+     * @param loteId lote de las alertas
+     * @param nivel  nivel de las alertas
+     * @param desde  fecha mínima (inclusive)
+     * @param hasta  fecha máxima (inclusive)
+     */
+    public synchronized List<Alerta> consultarAlertas(String loteId, Alerta.Nivel nivel, LocalDateTime desde,
+            LocalDateTime hasta) {
+        NavigableSet<Entrada> indice = indice(loteId, nivel);
+        if (indice == null) {
+            return new ArrayList<>();
+        }
+        NavigableSet<Entrada> rango = indice;
+        if (desde != null && hasta != null) {
+            if (desde.isAfter(hasta)) {
+                return new ArrayList<>();
+            }
+            rango = indice.subSet(Entrada.limite(desde, Long.MIN_VALUE), true, Entrada.limite(hasta, Long.MAX_VALUE),
+                    true);
+        } else if (desde != null) {
+            rango = indice.tailSet(Entrada.limite(desde, Long.MIN_VALUE), true);
+        } else if (hasta != null) {
+            rango = indice.headSet(Entrada.limite(hasta, Long.MAX_VALUE), true);
+        }
+        List<Alerta> resultado = new ArrayList<>(rango.size());
+        for (Entrada entrada : rango) {
+            resultado.add(entrada.alerta);
+        }
+        return resultado;
+    }
+
+    /**
+     * Alertas de las últimas horas, opcionalmente filtradas por lote y nivel.
+     */
+    public List<Alerta> consultarAlertasRecientes(String loteId, Alerta.Nivel nivel, Duration periodo) {
+        return consultarAlertas(loteId, nivel, LocalDateTime.now().minus(periodo), null);
+    }
+
+    private NavigableSet<Entrada> indice(String loteId, Alerta.Nivel nivel) {
+        if (loteId != null && nivel != null) {
+            Map<Alerta.Nivel, NavigableSet<Entrada>> niveles = porLoteNivel.get(loteId);
+            return niveles != null ? niveles.get(nivel) : null;
+        }
+        if (loteId != null) {
+            return porLote.get(loteId);
+        }
+        if (nivel != null) {
+            return porNivel.get(nivel);
+        }
+        return porFecha;
+    }
+
+    private void indexar(Entrada entrada) {
+        Alerta alerta = entrada.alerta;
+        porId.put(alerta.getId(), entrada);
+        porFecha.add(entrada);
+        porNivel.computeIfAbsent(alerta.getNivel(), n -> new TreeSet<>()).add(entrada);
+        if (alerta.getLoteId() != null) {
+            porLote.computeIfAbsent(alerta.getLoteId(), l -> new TreeSet<>()).add(entrada);
+            porLoteNivel.computeIfAbsent(alerta.getLoteId(), l -> new EnumMap<>(Alerta.Nivel.class))
+                    .computeIfAbsent(alerta.getNivel(), n -> new TreeSet<>()).add(entrada);
+        }
+    }
+
+    private void desindexar(Entrada entrada) {
+        Alerta alerta = entrada.alerta;
+        porId.remove(alerta.getId(), entrada);
+        porFecha.remove(entrada);
+        quitar(porNivel, alerta.getNivel(), entrada);
+        if (alerta.getLoteId() != null) {
+            quitar(porLote, alerta.getLoteId(), entrada);
+            Map<Alerta.Nivel, NavigableSet<Entrada>> niveles = porLoteNivel.get(alerta.getLoteId());
+            if (niveles != null) {
+                quitar(niveles, alerta.getNivel(), entrada);
+                if (niveles.isEmpty()) {
+                    porLoteNivel.remove(alerta.getLoteId());
+                }
+            }
+        }
+    }
+
+    private static <K> void quitar(Map<K, NavigableSet<Entrada>> indice, K clave, Entrada entrada) {
+        NavigableSet<Entrada> conjunto = indice.get(clave);
+        if (conjunto != null) {
+            conjunto.remove(entrada);
+            if (conjunto.isEmpty()) {
+                indice.remove(clave);
             }
         }
-        return result;
+    }
+
+    /**
+     * Alertas notificadas por {@link #verificarMedicion} desde que se creó el
+     * servicio (no incluye las cargadas con {@link #agregarAlerta}).
+     */
+    public synchronized long getAlertasGeneradas() {
+        return alertasGeneradas;
+    }
+
+    public int getCapacidad() {
+        return historialAlertas.capacidad();
+    }
+
+    /**
+     * Alerta del historial con su número de llegada, que desempata alertas con
+     * la misma fecha dentro de los índices.
+     */
+    private static final class Entrada implements Comparable<Entrada> {
+        // Se reemplaza por la copia actualizada cuando el incidente se repite
+        Alerta alerta;
+        final LocalDateTime fecha;
+        final long secuencia;
+        // Ya se entregó en tomarCambios(): si sale del historial hay que avisarlo
+        boolean guardada;
+
+        Entrada(Alerta alerta, long secuencia) {
+            this.alerta = alerta;
+            this.fecha = alerta.getFechaHora();
+            this.secuencia = secuencia;
+        }
+
+        private Entrada(LocalDateTime fecha, long secuencia) {
+            this.alerta = null;
+            this.fecha = fecha;
+            this.secuencia = secuencia;
+        }
+
+        /** Entrada ficticia para delimitar un rango de fechas */
+        static Entrada limite(LocalDateTime fecha, long secuencia) {
+            return new Entrada(fecha, secuencia);
+        }
+
+        @Override
+        public int compareTo(Entrada otra) {
+            int porFecha = fecha.compareTo(otra.fecha);
+            return porFecha != 0 ? porFecha : Long.compare(secuencia, otra.secuencia);
+        }
     }
 }
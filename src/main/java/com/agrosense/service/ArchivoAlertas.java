@@ -0,0 +1,97 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Alerta;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Archivo de solo-agregar con las alertas que salen del historial en memoria
+ * (por capacidad o por antigüedad). Usa los mismos bloques ALERTA del formato
+ * TOON, por lo que se puede leer con {@link ToonPersistenceService}.
+ *
+ * Una alerta archivada solo está a salvo después de {@link #forzar()}: el
+ * journal no debe registrar su descarte antes.
+ */
+public class ArchivoAlertas {
+
+    private static final String ARCHIVO = "data/alertas_archivo.toon";
+
+    private final Path archivo;
+    private FileChannel canal;
+    private long archivadas;
+    private boolean sinForzar;
+
+    public ArchivoAlertas() {
+        this(Paths.get(ARCHIVO));
+    }
+
+    public ArchivoAlertas(Path archivo) {
+        this.archivo = archivo;
+    }
+
+    /**
+     * Agrega la alerta al archivo. Si falla, el archivo queda como estaba.
+     *
+     * @throws IOException si no se pudo escribir; la alerta no se archivó
+     */
+    public synchronized void archivar(Alerta alerta) throws IOException {
+        if (canal == null) {
+            if (archivo.getParent() != null) {
+                Files.createDirectories(archivo.getParent());
+            }
+            canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        StringBuilder bloque = new StringBuilder(256);
+        ToonPersistenceService.escribirAlerta(bloque, alerta);
+        ByteBuffer datos = StandardCharsets.UTF_8.encode(CharBuffer.wrap(bloque));
+        long tamano = canal.size();
+        try {
+            while (datos.hasRemaining()) {
+                canal.write(datos);
+            }
+        } catch (IOException e) {
+            // No dejar un bloque a medias delante del próximo intento
+            try {
+                canal.truncate(tamano);
+                canal.close();
+            } catch (IOException ignorada) {
+                e.addSuppressed(ignorada);
+            }
+            canal = null;
+            throw e;
+        }
+        sinForzar = true;
+        archivadas++;
+    }
+
+    /**
+     * Fuerza a disco las alertas archivadas hasta ahora.
+     */
+    public synchronized void forzar() throws IOException {
+        if (canal != null && sinForzar) {
+            canal.force(false);
+            sinForzar = false;
+        }
+    }
+
+    public synchronized long getArchivadas() {
+        return archivadas;
+    }
+
+    public synchronized void cerrar() {
+        if (canal != null) {
+            try {
+                forzar();
+                canal.close();
+            } catch (IOException e) {
+                System.err.println("Error al cerrar el archivo de alertas: " + e.getMessage());
+            }
+            canal = null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.agrosense.service;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Guardado automático en segundo plano.
+ *
+ * Una solicitud solo anota de dónde tomar el estado, sin copiarlo: el hilo
+ * que la hace (el de la interfaz o una etapa de ingesta) no paga un costo
+ * proporcional a los datos. Un único hilo de persistencia, como máximo una vez
+ * por intervalo, pide a {@link ToonPersistenceService} que guarde lo que
+ * cambió desde el guardado anterior: una ráfaga de solicitudes se agrupa en un
+ * solo guardado, que cuesta según los cambios y no según el total de datos.
+ */
+public class AutoGuardadoService {
+
+    private final ToonPersistenceService toonService;
+    private final long intervaloMs;
+    private final ScheduledThreadPoolExecutor worker;
+
+    private final AtomicReference<Origen> pendiente = new AtomicReference<>();
+    private final AtomicInteger solicitudesPendientes = new AtomicInteger();
+
+    // Métricas
+    private volatile long ultimaLatenciaNanos;
+    private volatile long latenciaMaximaNanos;
+    private volatile long latenciaTotalNanos;
+    private volatile long guardadosRealizados;
+    private volatile long solicitudesAgrupadas;
+
+    public AutoGuardadoService(ToonPersistenceService toonService, long intervaloMs) {
+        if (intervaloMs < 0) {
+            throw new IllegalArgumentException("El intervalo no puede ser negativo");
+        }
+        this.toonService = toonService;
+        this.intervaloMs = intervaloMs;
+        this.worker = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "agrosense-autoguardado");
+            t.setDaemon(true);
+            return t;
+        });
+        // Al cerrar, las esperas programadas se descartan: cerrar() hace su propio flush
+        this.worker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /** Servicios de los que se toma el estado al guardar */
+    private static final class Origen {
+        final GestorLotes gestorLotes;
+        final AlertaService alertaService;
+
+        Origen(GestorLotes gestorLotes, AlertaService alertaService) {
+            this.gestorLotes = gestorLotes;
+            this.alertaService = alertaService;
+        }
+    }
+
+    /**
+     * Programa el guardado del estado. El estado se lee en el hilo de
+     * persistencia, así que no cuesta más por tener más datos y no bloquea por
+     * disco.
+     */
+    public void solicitarGuardado(GestorLotes gestorLotes, AlertaService alertaService) {
+        pendiente.set(new Origen(gestorLotes, alertaService));
+        if (solicitudesPendientes.getAndIncrement() == 0 && !worker.isShutdown()) {
+            try {
+                worker.schedule(this::guardarPendiente, intervaloMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Cerrando: cerrar() guarda lo pendiente
+            }
+        }
+    }
+
+    /**
+     * Guarda lo pendiente y detiene el hilo de persistencia.
+     */
+    public void cerrar() {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        guardarPendiente();
+        System.out.println(String.format("[AUTOGUARDADO] %d guardados, %d solicitudes, latencia prom. %.1f ms, máx. %.1f ms",
+                guardadosRealizados, solicitudesAgrupadas, getLatenciaPromedioMs(),
+                latenciaMaximaNanos / 1_000_000.0));
+    }
+
+    private synchronized void guardarPendiente() {
+        int agrupadas = solicitudesPendientes.getAndSet(0);
+        Origen origen = pendiente.getAndSet(null);
+        if (origen == null) {
+            return;
+        }
+        long inicio = System.nanoTime();
+        try {
+            toonService.exportarDatos(origen.gestorLotes, origen.alertaService);
+        } catch (IOException e) {
+            System.err.println("Error al guardar datos automáticamente: " + e.getMessage());
+            return;
+        }
+        long latencia = System.nanoTime() - inicio;
+        ultimaLatenciaNanos = latencia;
+        latenciaMaximaNanos = Math.max(latenciaMaximaNanos, latencia);
+        latenciaTotalNanos += latencia;
+        guardadosRealizados++;
+        solicitudesAgrupadas += agrupadas;
+    }
+
+    /** Solicitudes recibidas que aún no se han escrito */
+    public int getSolicitudesPendientes() {
+        return solicitudesPendientes.get();
+    }
+
+    public double getUltimaLatenciaMs() {
+        return ultimaLatenciaNanos / 1_000_000.0;
+    }
+
+    public double getLatenciaPromedioMs() {
+        return guardadosRealizados == 0 ? 0.0 : latenciaTotalNanos / 1_000_000.0 / guardadosRealizados;
+    }
+
+    public long getGuardadosRealizados() {
+        return guardadosRealizados;
+    }
+}
@@ -0,0 +1,268 @@
+package com.agrosense.service;
+
+import java.util.Arrays;
+
+/**
+ * Boceto de cuantiles con error relativo acotado (estilo DDSketch).
+ *
+ * Cada valor se cuenta en un intervalo logarítmico de ancho relativo fijo, por
+ * lo que el cuantil estimado difiere del real en a lo sumo la precisión
+ * relativa configurada (por ejemplo, 1%). Los valores negativos y el cero se
+ * cuentan aparte. La memoria está acotada por {@code maxIntervalos} por signo:
+ * si se supera, se agrupan los intervalos de menor magnitud.
+ *
+ * Dos bocetos con la misma precisión se pueden fusionar sumando sus conteos,
+ * lo que permite combinar series de varios lotes, cultivos o períodos.
+ */
+public class BocetoCuantiles {
+    public static final double PRECISION_POR_DEFECTO = 0.01;
+    public static final int MAX_INTERVALOS_POR_DEFECTO = 2048;
+
+    // Valores con magnitud menor se cuentan como cero
+    private static final double MINIMO_INDEXABLE = 1e-9;
+
+    private final double precision;
+    private final double gamma;
+    private final double multiplicador;
+    private final int maxIntervalos;
+    private final Almacen positivos;
+    private final Almacen negativos;
+    private long ceros;
+    private double minimo = Double.NaN;
+    private double maximo = Double.NaN;
+
+    public BocetoCuantiles() {
+        this(PRECISION_POR_DEFECTO, MAX_INTERVALOS_POR_DEFECTO);
+    }
+
+    /**
+     * @param precision     error relativo máximo de los cuantiles, en (0, 1)
+     * @param maxIntervalos intervalos que se conservan para cada signo
+     */
+    public BocetoCuantiles(double precision, int maxIntervalos) {
+        if (!(precision > 0 && precision < 1)) {
+            throw new IllegalArgumentException("La precisión debe estar en (0, 1)");
+        }
+        if (maxIntervalos < 16) {
+            throw new IllegalArgumentException("Se necesitan al menos 16 intervalos");
+        }
+        this.precision = precision;
+        this.gamma = (1 + precision) / (1 - precision);
+        this.multiplicador = 1 / Math.log(gamma);
+        this.maxIntervalos = maxIntervalos;
+        this.positivos = new Almacen();
+        this.negativos = new Almacen();
+    }
+
+    public void agregar(double valor) {
+        agregar(valor, 1);
+    }
+
+    public void agregar(double valor, long veces) {
+        if (veces <= 0 || Double.isNaN(valor)) {
+            return;
+        }
+        if (valor > MINIMO_INDEXABLE) {
+            positivos.agregar(indice(valor), veces, maxIntervalos);
+        } else if (valor < -MINIMO_INDEXABLE) {
+            negativos.agregar(indice(-valor), veces, maxIntervalos);
+        } else {
+            ceros += veces;
+        }
+        minimo = Double.isNaN(minimo) ? valor : Math.min(minimo, valor);
+        maximo = Double.isNaN(maximo) ? valor : Math.max(maximo, valor);
+    }
+
+    /**
+     * Suma los conteos de otro boceto a este.
+     *
+     * @throws IllegalArgumentException si las precisiones no coinciden
+     */
+    public void fusionar(BocetoCuantiles otro) {
+        if (otro.precision != precision) {
+            throw new IllegalArgumentException("No se pueden fusionar bocetos de distinta precisión");
+        }
+        if (otro.getCantidad() == 0) {
+            return;
+        }
+        positivos.fusionar(otro.positivos, maxIntervalos);
+        negativos.fusionar(otro.negativos, maxIntervalos);
+        ceros += otro.ceros;
+        minimo = Double.isNaN(minimo) ? otro.minimo : Math.min(minimo, otro.minimo);
+        maximo = Double.isNaN(maximo) ? otro.maximo : Math.max(maximo, otro.maximo);
+    }
+
+    /**
+     * Valor estimado del cuantil {@code q} (0 = mínimo, 0.5 = mediana, 1 =
+     * máximo), o NaN si el boceto está vacío.
+     */
+    public double cuantil(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("El cuantil debe estar en [0, 1]");
+        }
+        long cantidad = getCantidad();
+        if (cantidad == 0) {
+            return Double.NaN;
+        }
+        if (q == 0) {
+            return minimo;
+        }
+        if (q == 1) {
+            return maximo;
+        }
+        long rango = (long) (q * (cantidad - 1));
+        double estimado;
+        if (rango < negativos.total) {
+            // Los negativos se recorren de mayor a menor magnitud
+            estimado = -valor(negativos.indiceDesdeArriba(rango));
+        } else if (rango < negativos.total + ceros) {
+            estimado = 0;
+        } else {
+            estimado = valor(positivos.indiceDesdeAbajo(rango - negativos.total - ceros));
+        }
+        return Math.max(minimo, Math.min(maximo, estimado));
+    }
+
+    public long getCantidad() {
+        return positivos.total + negativos.total + ceros;
+    }
+
+    public double getMinimo() {
+        return minimo;
+    }
+
+    public double getMaximo() {
+        return maximo;
+    }
+
+    public double getPrecision() {
+        return precision;
+    }
+
+    /** Vacía el boceto conservando la memoria reservada, para reutilizarlo */
+    public void limpiar() {
+        positivos.limpiar();
+        negativos.limpiar();
+        ceros = 0;
+        minimo = Double.NaN;
+        maximo = Double.NaN;
+    }
+
+    public BocetoCuantiles copiar() {
+        BocetoCuantiles copia = new BocetoCuantiles(precision, maxIntervalos);
+        copia.fusionar(this);
+        return copia;
+    }
+
+    private int indice(double magnitud) {
+        return (int) Math.ceil(Math.log(magnitud) * multiplicador);
+    }
+
+    /** Valor representativo de un intervalo (punto de menor error relativo) */
+    private double valor(int indice) {
+        return 2 * Math.pow(gamma, indice) / (gamma + 1);
+    }
+
+    /**
+     * Conteos por índice de intervalo en un arreglo denso que cubre solo el
+     * rango de índices usado.
+     */
+    private static final class Almacen {
+        private long[] conteos = new long[0];
+        private int desplazamiento; // índice del intervalo en conteos[0]
+        private long total;
+
+        void agregar(int indice, long veces, int maxIntervalos) {
+            if (total == 0) {
+                // Nuevo o limpiado: el arreglo se centra en el primer índice
+                if (conteos.length == 0) {
+                    conteos = new long[8];
+                }
+                desplazamiento = indice - conteos.length / 2;
+            }
+            int posicion = asegurar(indice, maxIntervalos);
+            conteos[posicion] += veces;
+            total += veces;
+        }
+
+        void fusionar(Almacen otro, int maxIntervalos) {
+            for (int i = 0; i < otro.conteos.length; i++) {
+                if (otro.conteos[i] != 0) {
+                    agregar(otro.desplazamiento + i, otro.conteos[i], maxIntervalos);
+                }
+            }
+        }
+
+        /**
+         * Amplía el arreglo para incluir el índice y devuelve su posición. Si el
+         * rango superaría el máximo, los intervalos más bajos se agrupan en el
+         * menor que se conserva.
+         */
+        private int asegurar(int indice, int maxIntervalos) {
+            int desde = Math.min(desplazamiento, indice);
+            int hasta = Math.max(desplazamiento + conteos.length - 1, indice);
+            if (hasta - desde + 1 > maxIntervalos) {
+                desde = hasta - maxIntervalos + 1;
+                colapsarHasta(desde);
+                indice = Math.max(indice, desde);
+            }
+            if (desde < desplazamiento || hasta >= desplazamiento + conteos.length) {
+                // Se duplica el tamaño dejando el margen del lado en que se creció
+                int largo = Math.min(maxIntervalos, Math.max(hasta - desde + 1, conteos.length * 2));
+                int nuevoDesplazamiento = indice < desplazamiento ? hasta - largo + 1 : desde;
+                long[] nuevos = new long[largo];
+                System.arraycopy(conteos, 0, nuevos, desplazamiento - nuevoDesplazamiento, conteos.length);
+                conteos = nuevos;
+                desplazamiento = nuevoDesplazamiento;
+            }
+            return indice - desplazamiento;
+        }
+
+        void limpiar() {
+            Arrays.fill(conteos, 0);
+            total = 0;
+        }
+
+        /** Agrupa en {@code limite} los conteos de índices menores */
+        private void colapsarHasta(int limite) {
+            if (limite <= desplazamiento) {
+                return;
+            }
+            long agrupados = 0;
+            int fin = Math.min(limite - desplazamiento, conteos.length);
+            for (int i = 0; i < fin; i++) {
+                agrupados += conteos[i];
+            }
+            int largo = conteos.length - fin;
+            long[] nuevos = new long[Math.max(largo, 1)];
+            System.arraycopy(conteos, fin, nuevos, 0, largo);
+            conteos = nuevos;
+            desplazamiento = limite;
+            conteos[0] += agrupados;
+        }
+
+        /** Índice del intervalo que contiene el elemento {@code rango} desde abajo */
+        int indiceDesdeAbajo(long rango) {
+            long acumulado = 0;
+            for (int i = 0; i < conteos.length; i++) {
+                acumulado += conteos[i];
+                if (acumulado > rango) {
+                    return desplazamiento + i;
+                }
+            }
+            return desplazamiento + conteos.length - 1;
+        }
+
+        /** Índice del intervalo que contiene el elemento {@code rango} desde arriba */
+        int indiceDesdeArriba(long rango) {
+            long acumulado = 0;
+            for (int i = conteos.length - 1; i >= 0; i--) {
+                acumulado += conteos[i];
+                if (acumulado > rango) {
+                    return desplazamiento + i;
+                }
+            }
+            return desplazamiento;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.agrosense.service;
+
+/**
+ * Buffer circular de capacidad fija. Al agregar con el buffer lleno se
+ * descarta el elemento más antiguo.
+ */
+class BufferCircular<T> {
+    private final Object[] elementos;
+    private int inicio;
+    private int tamano;
+
+    BufferCircular(int capacidad) {
+        if (capacidad <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser mayor a 0");
+        }
+        this.elementos = new Object[capacidad];
+    }
+
+    /**
+     * Agrega un elemento al final.
+     *
+     * @return el elemento descartado para hacer lugar, o null si había espacio
+     */
+    T agregar(T elemento) {
+        T descartado = null;
+        if (tamano == elementos.length) {
+            descartado = quitarPrimero();
+        }
+        elementos[(inicio + tamano) % elementos.length] = elemento;
+        tamano++;
+        return descartado;
+    }
+
+    @SuppressWarnings("unchecked")
+    T quitarPrimero() {
+        if (tamano == 0) {
+            return null;
+        }
+        T primero = (T) elementos[inicio];
+        elementos[inicio] = null;
+        inicio = (inicio + 1) % elementos.length;
+        tamano--;
+        return primero;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int indice) {
+        if (indice < 0 || indice >= tamano) {
+            throw new IndexOutOfBoundsException(indice);
+        }
+        return (T) elementos[(inicio + indice) % elementos.length];
+    }
+
+    T primero() {
+        return tamano == 0 ? null : get(0);
+    }
+
+    int tamano() {
+        return tamano;
+    }
+
+    int capacidad() {
+        return elementos.length;
+    }
+
+    void limpiar() {
+        for (int i = 0; i < tamano; i++) {
+            elementos[(inicio + i) % elementos.length] = null;
+        }
+        inicio = 0;
+        tamano = 0;
+    }
+}
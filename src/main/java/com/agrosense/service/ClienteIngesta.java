@@ -0,0 +1,172 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Lote;
+import com.agrosense.model.Sensor;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Cliente de {@link ServidorIngesta}: hace de gateway de campo y envía
+ * mediciones en el formato de {@link ProtocoloIngesta}, agrupadas en un
+ * buffer que se vacía al llenarse o con {@link #vaciar()}.
+ *
+ * Por UDP cada vaciado es un datagrama; su tamaño se mantiene por debajo de
+ * la MTU habitual para que no se fragmente.
+ */
+public class ClienteIngesta {
+    private static final int TAMANO_BUFFER_TCP = 64 * 1024;
+    private static final int TAMANO_DATAGRAMA = 1400;
+
+    private final ByteChannel canal;
+    private final ByteBuffer buffer;
+    private long enviadas;
+
+    /**
+     * @param udp true para enviar por UDP; si no, se conecta por TCP
+     */
+    public ClienteIngesta(InetSocketAddress servidor, boolean udp) throws IOException {
+        if (udp) {
+            DatagramChannel datagramas = DatagramChannel.open();
+            datagramas.connect(servidor);
+            canal = datagramas;
+            buffer = ByteBuffer.allocate(TAMANO_DATAGRAMA);
+        } else {
+            SocketChannel socket = SocketChannel.open(servidor);
+            socket.socket().setTcpNoDelay(true);
+            canal = socket;
+            buffer = ByteBuffer.allocate(TAMANO_BUFFER_TCP);
+        }
+    }
+
+    /**
+     * Agrega una medición al buffer; si no entra, primero lo envía.
+     */
+    public void enviar(String sensorId, String tipoSensor, long epochMillis, double valor) throws IOException {
+        if (buffer.remaining() < ProtocoloIngesta.tamano(sensorId)) {
+            vaciar();
+        }
+        ProtocoloIngesta.escribir(buffer, sensorId, tipoSensor, epochMillis, valor);
+        enviadas++;
+    }
+
+    /** Envía lo que haya en el buffer */
+    public void vaciar() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void cerrar() throws IOException {
+        try {
+            vaciar();
+        } finally {
+            canal.close();
+        }
+    }
+
+    public long getEnviadas() {
+        return enviadas;
+    }
+
+    /**
+     * Envía mediciones simuladas a un servidor.
+     *
+     * Argumentos: host (o "local"), puerto, "tcp" o "udp", cantidad de
+     * mediciones y tasa por segundo (0 = lo más rápido posible). Con un host
+     * se usan los sensores de los datos demo. Con "local" se levanta en el
+     * mismo proceso un servidor con una finca generada, cuyas mediciones pasan
+     * por una {@link ColaIngesta} a alertas y estadísticas, y se informa el
+     * rendimiento de punta a punta.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length > 0 ? args[0] : "local";
+        int puerto = args.length > 1 ? Integer.parseInt(args[1]) : ServidorIngesta.PUERTO_POR_DEFECTO;
+        boolean udp = args.length > 2 && args[2].equalsIgnoreCase("udp");
+        long mediciones = args.length > 3 ? Long.parseLong(args[3]) : 1_000_000;
+        double tasa = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+
+        GestorLotes gestorLotes = new GestorLotes();
+        ServidorIngesta servidor = null;
+        ColaIngesta cola = null;
+        InetSocketAddress destino;
+        if (host.equals("local")) {
+            new GeneradorCarga().construirFinca(gestorLotes, 1_000, 10);
+            AlertaService alertaService = new AlertaService();
+            EstadisticasService estadisticas = new EstadisticasService();
+            for (Lote lote : gestorLotes.obtenerTodos()) {
+                lote.getSensores().forEach(sensor -> estadisticas.registrarSensor(lote.getId(), sensor));
+            }
+            cola = new ColaIngesta(ColaIngesta.Politica.BLOQUEAR);
+            cola.agregarEtapa("alertas", (loteId, medicion) -> alertaService.verificarMedicion(medicion, loteId));
+            cola.agregarEtapa("estadisticas",
+                    (loteId, indiceSensor, medicion) -> estadisticas.registrarMedicion(loteId, indiceSensor, medicion));
+            cola.iniciar();
+            servidor = new ServidorIngesta(gestorLotes, cola::publicar);
+            InetSocketAddress local = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+            servidor.iniciar(udp ? null : local, udp ? local : null);
+            destino = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    udp ? servidor.getPuertoUdp() : servidor.getPuertoTcp());
+        } else {
+            new DatosDemoService().cargarDatosDemo(gestorLotes, new AlertaService());
+            destino = new InetSocketAddress(host, puerto);
+        }
+
+        List<Sensor> sensores = new ArrayList<>();
+        for (Lote lote : gestorLotes.obtenerTodos()) {
+            sensores.addAll(lote.getSensores());
+        }
+        SplittableRandom random = new SplittableRandom(GeneradorCarga.SEMILLA_POR_DEFECTO);
+        double nanosPorMedicion = tasa > 0 ? 1e9 / tasa : 0;
+        ClienteIngesta cliente = new ClienteIngesta(destino, udp);
+        // La misma hora local que SimuladorSensores y que el servidor al recibir
+        ZoneId zona = ZoneId.systemDefault();
+        long inicio = System.nanoTime();
+        for (long n = 0; n < mediciones; n++) {
+            Sensor sensor = sensores.get((int) (n % sensores.size()));
+            long ahora = System.currentTimeMillis();
+            double hora = SimuladorSensores.horaDelDia(ahora, zona);
+            cliente.enviar(sensor.getId(), sensor.getTipo(), ahora,
+                    SimuladorSensores.valor(sensor, hora, random.nextGaussian()));
+            if (nanosPorMedicion > 0 && (n & 1023) == 1023) {
+                cliente.vaciar();
+                long atraso = inicio + (long) ((n + 1) * nanosPorMedicion) - System.nanoTime();
+                if (atraso > 0) {
+                    LockSupport.parkNanos(atraso);
+                }
+            }
+        }
+        cliente.cerrar();
+        long envio = System.nanoTime() - inicio;
+        System.out.printf("[RED] %d mediciones enviadas por %s a %s en %d ms (%.0f/s)%n", cliente.getEnviadas(),
+                udp ? "UDP" : "TCP", destino, envio / 1_000_000, cliente.getEnviadas() * 1e9 / envio);
+
+        if (servidor != null) {
+            // Por UDP se pueden perder datagramas: se espera hasta que deja de llegar
+            long llegadas = -1;
+            while (servidor.getRecibidas() + servidor.getRechazadas() < mediciones
+                    && servidor.getRecibidas() != llegadas) {
+                llegadas = servidor.getRecibidas();
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+            servidor.detener();
+            cola.detener(10, TimeUnit.SECONDS);
+            long duracion = System.nanoTime() - inicio;
+            System.out.printf("[RED] %d mediciones procesadas en %d ms (%.0f/s); etapas: %s%n",
+                    servidor.getRecibidas(), duracion / 1_000_000, servidor.getRecibidas() * 1e9 / duracion,
+                    cola.getEstadoEtapas());
+        }
+    }
+}
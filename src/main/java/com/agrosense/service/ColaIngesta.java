@@ -0,0 +1,551 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Medicion;
+import com.agrosense.model.Sensor;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Cola de ingesta acotada entre quienes leen sensores y quienes procesan las
+ * mediciones (alertas, estadísticas, persistencia).
+ *
+ * Es un buffer circular preasignado al estilo Disruptor: varios productores
+ * reservan posiciones con una operación atómica, sin locks, y cada
+ * {@link Etapa} recorre todas las mediciones en su propio hilo con su propia
+ * secuencia. Una etapa lenta no frena a las demás hasta que la cola se llena;
+ * ahí decide la {@link Politica}:
+ * <ul>
+ * <li>{@link Politica#BLOQUEAR}: el productor espera lugar (no se pierde
+ * nada);</li>
+ * <li>{@link Politica#DESCARTAR_ANTIGUO}: el productor nunca espera y
+ * sobrescribe lo más viejo; la etapa atrasada salta lo que perdió y lo
+ * cuenta;</li>
+ * <li>{@link Politica#MUESTREAR}: pasado {@link #UMBRAL_MUESTREO} de
+ * ocupación se acepta solo una de cada {@code factorMuestreo} mediciones, y
+ * con la cola llena se descarta la nueva.</li>
+ * </ul>
+ * Por etapa se informa el atraso (mediciones publicadas que todavía no
+ * procesó), las procesadas, las perdidas y los errores.
+ *
+ * Quien espera (una etapa sin mediciones, un productor sin lugar) gira un
+ * momento, hace pausas cortas y después duerme hasta que lo despierten, para
+ * que una cola inactiva no consuma CPU. Publicar y procesar solo pagan una
+ * lectura volátil para saber si hay alguien dormido.
+ */
+public class ColaIngesta {
+    public enum Politica {
+        BLOQUEAR, DESCARTAR_ANTIGUO, MUESTREAR
+    }
+
+    /**
+     * Consumidor de mediciones. Cada etapa corre en un único hilo propio.
+     */
+    public interface Etapa {
+        void procesar(String loteId, Medicion medicion);
+    }
+
+    /**
+     * Etapa que recibe también el índice de sensor con el que se publicó la
+     * medición ({@link Sensor#getIndiceEstadisticas()}, o -1), para no buscar
+     * el sensor por ID en cada medición.
+     */
+    public interface EtapaIndexada {
+        void procesar(String loteId, int indiceSensor, Medicion medicion);
+    }
+
+    public static final int CAPACIDAD_POR_DEFECTO = 1 << 14;
+    public static final int FACTOR_MUESTREO_POR_DEFECTO = 4;
+    // Ocupación a partir de la cual MUESTREAR empieza a descartar
+    public static final double UMBRAL_MUESTREO = 0.75;
+
+    // Secuencia de una posición vacía
+    private static final long VACIA = -1;
+    // Esperas activas, y luego pausas de hasta 100 µs, antes de dormir
+    private static final int ESPERAS_ACTIVAS = 100;
+    private static final int INTENTOS_ANTES_DE_DORMIR = ESPERAS_ACTIVAS + 20;
+
+    private final Politica politica;
+    private final int capacidad;
+    private final int mascara;
+    private final int factorMuestreo;
+    private final Posicion[] posiciones;
+    private final AtomicLong siguiente = new AtomicLong();
+    private final AtomicLong descartadas = new AtomicLong();
+    private final AtomicLong contadorMuestreo = new AtomicLong();
+    // Productores dentro de publicar(); detener() los espera
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private final List<Consumidor> etapas = new ArrayList<>();
+    // Etapas dormidas esperando mediciones
+    private final AtomicInteger etapasDormidas = new AtomicInteger();
+    // Productores dormidos esperando lugar o la vuelta anterior
+    private final AtomicInteger productoresDormidos = new AtomicInteger();
+    private final ReentrantLock lockProductores = new ReentrantLock();
+    private final Condition cambioProductores = lockProductores.newCondition();
+    private volatile boolean aceptando;
+    private volatile boolean iniciada;
+    // detener() venció sin que las etapas terminaran: ya nadie libera lugar
+    private volatile boolean abandonada;
+
+    /** Posición del buffer; {@code secuencia} hace de seqlock */
+    private static final class Posicion {
+        // >= 0: secuencia publicada; <= -2: -(secuencia + 2) en escritura
+        volatile long secuencia = VACIA;
+        String loteId;
+        int indiceSensor;
+        Medicion medicion;
+    }
+
+    public ColaIngesta(Politica politica) {
+        this(politica, CAPACIDAD_POR_DEFECTO, FACTOR_MUESTREO_POR_DEFECTO);
+    }
+
+    /**
+     * @param capacidad      mediciones en la cola; se redondea a potencia de 2
+     * @param factorMuestreo con MUESTREAR, se acepta una de cada tantas
+     */
+    public ColaIngesta(Politica politica, int capacidad, int factorMuestreo) {
+        if (capacidad < 2 || capacidad > (1 << 30)) {
+            throw new IllegalArgumentException("Capacidad inválida: " + capacidad);
+        }
+        if (factorMuestreo < 1) {
+            throw new IllegalArgumentException("El factor de muestreo debe ser al menos 1");
+        }
+        this.politica = politica;
+        this.capacidad = Integer.highestOneBit(capacidad - 1) << 1;
+        this.mascara = this.capacidad - 1;
+        this.factorMuestreo = factorMuestreo;
+        this.posiciones = new Posicion[this.capacidad];
+        for (int i = 0; i < this.capacidad; i++) {
+            posiciones[i] = new Posicion();
+        }
+    }
+
+    /**
+     * Agrega una etapa. Debe hacerse antes de {@link #iniciar()}.
+     */
+    public void agregarEtapa(String nombre, Etapa etapa) {
+        agregarEtapa(nombre, (loteId, indiceSensor, medicion) -> etapa.procesar(loteId, medicion));
+    }
+
+    public synchronized void agregarEtapa(String nombre, EtapaIndexada etapa) {
+        if (iniciada) {
+            throw new IllegalStateException("La cola ya está iniciada");
+        }
+        etapas.add(new Consumidor(nombre, etapa));
+    }
+
+    public synchronized void iniciar() {
+        if (iniciada) {
+            return;
+        }
+        if (etapas.isEmpty()) {
+            throw new IllegalStateException("La cola no tiene etapas");
+        }
+        iniciada = true;
+        aceptando = true;
+        for (Consumidor consumidor : etapas) {
+            consumidor.hilo.start();
+        }
+    }
+
+    /**
+     * Publica una medición.
+     *
+     * @return false si la política la descartó o la cola está detenida
+     */
+    public boolean publicar(String loteId, Medicion medicion) {
+        return publicar(loteId, -1, medicion);
+    }
+
+    /**
+     * Publica una medición con el índice de su sensor, que reciben las
+     * {@link EtapaIndexada}.
+     *
+     * @return false si la política la descartó o la cola está detenida
+     */
+    public boolean publicar(String loteId, int indiceSensor, Medicion medicion) {
+        enCurso.incrementAndGet();
+        try {
+            return publicarEnCurso(loteId, indiceSensor, medicion);
+        } finally {
+            enCurso.decrementAndGet();
+        }
+    }
+
+    private boolean publicarEnCurso(String loteId, int indiceSensor, Medicion medicion) {
+        if (!aceptando) {
+            descartadas.incrementAndGet();
+            return false;
+        }
+        long secuencia;
+        switch (politica) {
+            case BLOQUEAR -> {
+                secuencia = siguiente.getAndIncrement();
+                if (!esperarLugar(secuencia)) {
+                    descartadas.incrementAndGet();
+                    return false;
+                }
+            }
+            case DESCARTAR_ANTIGUO -> {
+                secuencia = siguiente.getAndIncrement();
+                esperarVueltaAnterior(secuencia);
+            }
+            default -> {
+                secuencia = reservarMuestreando();
+                if (secuencia < 0) {
+                    descartadas.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+        Posicion posicion = posiciones[(int) (secuencia & mascara)];
+        posicion.secuencia = -secuencia - 2;
+        // Los datos no pueden escribirse antes de marcar la posición en escritura
+        VarHandle.storeStoreFence();
+        posicion.loteId = loteId;
+        posicion.indiceSensor = indiceSensor;
+        posicion.medicion = medicion;
+        posicion.secuencia = secuencia;
+        despertarEtapas();
+        // Un productor de la vuelta siguiente puede estar esperando esta posición
+        despertarProductores();
+        return true;
+    }
+
+    /**
+     * BLOQUEAR: espera a que todas las etapas hayan procesado la vuelta
+     * anterior, aunque se esté deteniendo la cola.
+     *
+     * @return false si la cola se abandonó antes de que hubiera lugar
+     */
+    private boolean esperarLugar(long secuencia) {
+        long envoltura = secuencia - capacidad;
+        int intentos = 0;
+        while (envoltura > minimoProcesado()) {
+            if (abandonada) {
+                return false;
+            }
+            if (intentos < INTENTOS_ANTES_DE_DORMIR) {
+                intentos = esperar(intentos);
+            } else {
+                dormirProductor(() -> envoltura > minimoProcesado() && !abandonada);
+            }
+        }
+        return true;
+    }
+
+    /** DESCARTAR_ANTIGUO: solo se espera al productor de la vuelta anterior */
+    private void esperarVueltaAnterior(long secuencia) {
+        long anterior = secuencia - capacidad;
+        Posicion posicion = posiciones[(int) (secuencia & mascara)];
+        int intentos = 0;
+        while (anterior >= 0 && posicion.secuencia < anterior) {
+            if (intentos < INTENTOS_ANTES_DE_DORMIR) {
+                intentos = esperar(intentos);
+            } else {
+                dormirProductor(() -> posicion.secuencia < anterior);
+            }
+        }
+    }
+
+    /** MUESTREAR: reserva una secuencia sin esperar, o -1 si se descarta */
+    private long reservarMuestreando() {
+        while (true) {
+            long secuencia = siguiente.get();
+            long ocupacion = secuencia - minimoProcesado() - 1;
+            if (ocupacion >= capacidad) {
+                return -1;
+            }
+            if (ocupacion >= capacidad * UMBRAL_MUESTREO
+                    && contadorMuestreo.incrementAndGet() % factorMuestreo != 0) {
+                return -1;
+            }
+            if (siguiente.compareAndSet(secuencia, secuencia + 1)) {
+                return secuencia;
+            }
+        }
+    }
+
+    private long minimoProcesado() {
+        long minimo = Long.MAX_VALUE;
+        for (Consumidor consumidor : etapas) {
+            minimo = Math.min(minimo, consumidor.procesada);
+        }
+        return minimo;
+    }
+
+    /** Espera activa breve y luego con pausas cada vez más largas (hasta 100 µs) */
+    private static int esperar(int intentos) {
+        if (intentos < ESPERAS_ACTIVAS) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(Math.min(100_000, 1_000L << Math.min(intentos - ESPERAS_ACTIVAS, 7)));
+        }
+        return intentos + 1;
+    }
+
+    /**
+     * Duerme al productor mientras se cumpla la condición. Se anota antes de
+     * revisarla: quien la cambie después lo ve dormido y lo despierta.
+     */
+    private void dormirProductor(BooleanSupplier sigueEsperando) {
+        lockProductores.lock();
+        productoresDormidos.incrementAndGet();
+        try {
+            while (sigueEsperando.getAsBoolean()) {
+                cambioProductores.awaitUninterruptibly();
+            }
+        } finally {
+            productoresDormidos.decrementAndGet();
+            lockProductores.unlock();
+        }
+    }
+
+    private void despertarProductores() {
+        if (productoresDormidos.get() > 0) {
+            lockProductores.lock();
+            try {
+                cambioProductores.signalAll();
+            } finally {
+                lockProductores.unlock();
+            }
+        }
+    }
+
+    private void despertarEtapas() {
+        if (etapasDormidas.get() > 0) {
+            for (Consumidor consumidor : etapas) {
+                if (consumidor.durmiendo) {
+                    LockSupport.unpark(consumidor.hilo);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deja de aceptar mediciones, espera a que terminen los productores que
+     * ya estaban publicando (con BLOQUEAR, los que esperan lugar), a que las
+     * etapas procesen lo publicado y detiene sus hilos. Si el tiempo vence,
+     * los productores que esperan lugar desisten.
+     *
+     * @return false si algún productor o etapa no terminó a tiempo
+     */
+    public boolean detener(long timeout, TimeUnit unidad) {
+        synchronized (this) {
+            if (!iniciada || !aceptando) {
+                return true;
+            }
+            aceptando = false;
+        }
+        long limite = System.nanoTime() + unidad.toNanos(timeout);
+        // Las etapas siguen procesando mientras tanto y liberan lugar
+        int intentos = 0;
+        while (enCurso.get() > 0 && !abandonada) {
+            if (System.nanoTime() - limite >= 0) {
+                abandonada = true;
+                despertarProductores();
+            }
+            intentos = esperar(intentos);
+        }
+        boolean terminadas = !abandonada;
+        for (Consumidor consumidor : etapas) {
+            consumidor.detener = true;
+            LockSupport.unpark(consumidor.hilo);
+            try {
+                long restante = limite - System.nanoTime();
+                consumidor.hilo.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(restante)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (consumidor.hilo.isAlive()) {
+                consumidor.hilo.interrupt();
+                terminadas = false;
+            }
+        }
+        if (!terminadas) {
+            abandonada = true;
+            despertarProductores();
+        }
+        return terminadas;
+    }
+
+    // --- Métricas ---
+
+    public Politica getPolitica() {
+        return politica;
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    /** Mediciones publicadas (incluye las que alguna etapa perdió por sobrescritura) */
+    public long getPublicadas() {
+        return siguiente.get();
+    }
+
+    /** Mediciones que la política rechazó al publicar */
+    public long getDescartadas() {
+        return descartadas.get();
+    }
+
+    public List<EstadoEtapa> getEstadoEtapas() {
+        List<EstadoEtapa> estados = new ArrayList<>(etapas.size());
+        long publicadas = siguiente.get();
+        for (Consumidor consumidor : etapas) {
+            estados.add(new EstadoEtapa(consumidor.nombre, Math.max(0, publicadas - consumidor.procesada - 1),
+                    consumidor.procesadas, consumidor.perdidas, consumidor.errores));
+        }
+        return Collections.unmodifiableList(estados);
+    }
+
+    /** Fotografía de las métricas de una etapa */
+    public static final class EstadoEtapa {
+        private final String nombre;
+        private final long atraso;
+        private final long procesadas;
+        private final long perdidas;
+        private final long errores;
+
+        EstadoEtapa(String nombre, long atraso, long procesadas, long perdidas, long errores) {
+            this.nombre = nombre;
+            this.atraso = atraso;
+            this.procesadas = procesadas;
+            this.perdidas = perdidas;
+            this.errores = errores;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        /** Mediciones reservadas o publicadas que la etapa todavía no procesó */
+        public long getAtraso() {
+            return atraso;
+        }
+
+        public long getProcesadas() {
+            return procesadas;
+        }
+
+        /** Mediciones sobrescritas antes de que la etapa las leyera */
+        public long getPerdidas() {
+            return perdidas;
+        }
+
+        public long getErrores() {
+            return errores;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: atraso %d, procesadas %d, perdidas %d, errores %d", nombre, atraso,
+                    procesadas, perdidas, errores);
+        }
+    }
+
+    /** Hilo y secuencia de una etapa */
+    private final class Consumidor implements Runnable {
+        final String nombre;
+        final EtapaIndexada etapa;
+        final Thread hilo;
+        // Última secuencia procesada (o saltada)
+        volatile long procesada = VACIA;
+        volatile long procesadas;
+        volatile long perdidas;
+        volatile long errores;
+        volatile boolean detener;
+        volatile boolean durmiendo;
+
+        Consumidor(String nombre, EtapaIndexada etapa) {
+            this.nombre = nombre;
+            this.etapa = etapa;
+            this.hilo = new Thread(this, "agrosense-ingesta-" + nombre);
+            this.hilo.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int intentos = 0;
+            while (true) {
+                long esperada = procesada + 1;
+                Posicion posicion = posiciones[(int) (esperada & mascara)];
+                long actual = posicion.secuencia;
+                if (actual == esperada) {
+                    String loteId = posicion.loteId;
+                    int indiceSensor = posicion.indiceSensor;
+                    Medicion medicion = posicion.medicion;
+                    // Si se sobrescribió mientras se leía, los datos no son confiables
+                    VarHandle.loadLoadFence();
+                    if (posicion.secuencia != esperada) {
+                        saltar(esperada, posicion.secuencia);
+                        continue;
+                    }
+                    try {
+                        etapa.procesar(loteId, indiceSensor, medicion);
+                    } catch (RuntimeException e) {
+                        errores++;
+                        System.err.println("[INGESTA] Error en la etapa " + nombre + ": " + e.getMessage());
+                    }
+                    procesadas++;
+                    procesada = esperada;
+                    despertarProductores();
+                    intentos = 0;
+                } else if (escritura(actual) > esperada || actual > esperada) {
+                    saltar(esperada, actual);
+                } else if (detener && esperada >= siguiente.get()) {
+                    return;
+                } else if (intentos < INTENTOS_ANTES_DE_DORMIR) {
+                    intentos = esperar(intentos);
+                } else {
+                    dormir(posicion, actual);
+                    intentos = 0;
+                }
+            }
+        }
+
+        /** Salta las mediciones sobrescritas y las cuenta como perdidas */
+        private void saltar(long esperada, long actual) {
+            // La posición es la de esperada en una vuelta posterior: lo anterior
+            // a la vuelta previa de esa secuencia ya fue sobrescrito
+            long posterior = actual >= 0 ? actual : escritura(actual);
+            long primeraDisponible = posterior - capacidad + 1;
+            perdidas += primeraDisponible - esperada;
+            procesada = primeraDisponible - 1;
+            despertarProductores();
+        }
+
+        /**
+         * Duerme hasta que se publique algo o se pida detener. Se anota antes
+         * de volver a mirar la posición: un productor que publique después lo
+         * ve dormido y lo despierta.
+         */
+        private void dormir(Posicion posicion, long vista) {
+            durmiendo = true;
+            etapasDormidas.incrementAndGet();
+            try {
+                if (posicion.secuencia == vista && !detener) {
+                    // Puede volver sin motivo: el ciclo vuelve a mirar
+                    LockSupport.park(this);
+                }
+            } finally {
+                etapasDormidas.decrementAndGet();
+                durmiendo = false;
+            }
+        }
+    }
+
+    /** Secuencia en escritura codificada en una posición, o -1 */
+    private static long escritura(long secuencia) {
+        return secuencia <= -2 ? -secuencia - 2 : VACIA;
+    }
+}
@@ -19,7 +19,7 @@ public class DatosDemoService {
     public void cargarDatosDemo(GestorLotes gestorLotes, AlertaService alertaService) {
         // Limpiar datos existentes
         gestorLotes.limpiar();
-        alertaService.getHistorialAlertas().clear();
+        alertaService.limpiarHistorial();
 
         // Lote 1: Tomate - Condiciones normales
         Lote loteTomate = new Lote("L001", "Cultivo de Tomate Norte", "Tomate", 2.5);
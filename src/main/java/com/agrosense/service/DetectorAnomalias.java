@@ -0,0 +1,210 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Alerta;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Detecta en línea lecturas que sugieren una falla del sensor, no del cultivo.
+ *
+ * Por sensor se guarda un estado de tamaño fijo: nivel (EWMA), escala
+ * (desviación absoluta media exponencial, que se convierte a desviación
+ * estándar como en una MAD), la lectura anterior y contadores. Cada lectura
+ * se evalúa en O(1) sin reservar memoria:
+ * <ul>
+ * <li>{@link Anomalia#CONGELADO}: la misma lectura exacta se repite muchas
+ * veces seguidas en una serie que, hasta entonces, solía variar varias veces
+ * la resolución del sensor (el menor cambio observado): un sensor de pasos
+ * gruesos en una noche tranquila repite lecturas sin estar fallando;</li>
+ * <li>{@link Anomalia#SALTO}: la lectura cambia respecto de la anterior mucho
+ * más de lo que la serie suele variar;</li>
+ * <li>{@link Anomalia#ATIPICO}: la lectura se aleja del nivel reciente en más
+ * de {@link #Z_ATIPICO} desviaciones (z-score robusto).</li>
+ * </ul>
+ * Las lecturas atípicas se recortan antes de actualizar nivel y escala para
+ * que un pico no las distorsione. Si la serie sigue fuera de rango varias
+ * lecturas seguidas, se asume un cambio real de nivel y se reaprende.
+ *
+ * No es seguro para varios hilos: el llamador debe sincronizar.
+ */
+public class DetectorAnomalias {
+    public enum Anomalia {
+        SALTO(Alerta.Nivel.WARNING, "Falla de sensor: salto brusco de %s a %s"),
+        CONGELADO(Alerta.Nivel.WARNING, "Falla de sensor: lectura congelada en %2$s"),
+        ATIPICO(Alerta.Nivel.INFO, "Lectura atípica del sensor: %2$s (nivel reciente %1$s)");
+
+        private final Alerta.Nivel nivel;
+        private final String mensaje;
+
+        Anomalia(Alerta.Nivel nivel, String mensaje) {
+            this.nivel = nivel;
+            this.mensaje = mensaje;
+        }
+
+        public Alerta.Nivel getNivel() {
+            return nivel;
+        }
+
+        /**
+         * @param referencia lectura anterior (SALTO) o nivel reciente
+         * @param valor      lectura que disparó la anomalía
+         */
+        public String mensaje(double referencia, double valor) {
+            return String.format(mensaje, String.format("%.2f", referencia), String.format("%.2f", valor));
+        }
+    }
+
+    public static final double ALFA_POR_DEFECTO = 0.02;
+    public static final double Z_ATIPICO = 5.0;
+    public static final double Z_SALTO = 8.0;
+    // Un salto menor a esto nunca se considera falla, aunque la serie sea muy estable
+    public static final double SALTO_MINIMO = 5.0;
+    public static final int REPETICIONES_CONGELADO = 20;
+    // Variación típica previa, en pasos de resolución, para declarar congelado
+    public static final double PASOS_CONGELADO = 3.0;
+    // Lecturas antes de evaluar saltos y atípicos
+    public static final int MUESTRAS_CALENTAMIENTO = 20;
+    // Atípicos seguidos a partir de los cuales se reaprende el nivel
+    public static final int ATIPICOS_CAMBIO_NIVEL = 5;
+
+    // Desviación estándar / desviación absoluta media en una distribución normal
+    private static final double FACTOR_ESCALA = 1.2533;
+    private static final double ESCALA_MINIMA = 0.05;
+
+    private final double alfa;
+    private final Map<String, Estado> estados = new HashMap<>();
+
+    public DetectorAnomalias() {
+        this(ALFA_POR_DEFECTO);
+    }
+
+    /**
+     * @param alfa peso de cada lectura en el nivel y la escala, en (0, 1]
+     */
+    public DetectorAnomalias(double alfa) {
+        if (!(alfa > 0 && alfa <= 1)) {
+            throw new IllegalArgumentException("El factor alfa debe estar en (0, 1]");
+        }
+        this.alfa = alfa;
+    }
+
+    /**
+     * Evalúa una lectura y actualiza el estado del sensor.
+     *
+     * @return la anomalía detectada, o null si la lectura es normal
+     */
+    public Anomalia evaluar(String sensorId, double valor) {
+        Estado estado = estados.get(sensorId);
+        if (estado == null) {
+            estado = new Estado(valor);
+            estados.put(sensorId, estado);
+            return null;
+        }
+        return estado.evaluar(valor, alfa);
+    }
+
+    /**
+     * Referencia con la que se comparó la última lectura del sensor: la
+     * lectura anterior si hubo un salto, o el nivel reciente. NaN si el sensor
+     * no tiene lecturas.
+     */
+    public double getReferencia(String sensorId, Anomalia anomalia) {
+        Estado estado = estados.get(sensorId);
+        if (estado == null) {
+            return Double.NaN;
+        }
+        return anomalia == Anomalia.SALTO ? estado.penultimo : estado.nivelPrevio;
+    }
+
+    public void olvidar(String sensorId) {
+        estados.remove(sensorId);
+    }
+
+    public void limpiar() {
+        estados.clear();
+    }
+
+    private static final class Estado {
+        double nivel;
+        double desviacionAbsoluta;
+        double anterior;
+        // Valores previos a la última lectura, para los mensajes
+        double penultimo;
+        double nivelPrevio;
+        long muestras = 1;
+        int repeticiones;
+        int atipicosSeguidos;
+        // Menor cambio no nulo entre lecturas: aproxima la resolución del sensor
+        double paso = Double.POSITIVE_INFINITY;
+        // Escala de la serie al empezar la racha de lecturas repetidas
+        double escalaRacha;
+
+        Estado(double valor) {
+            this.nivel = valor;
+            this.anterior = valor;
+        }
+
+        Anomalia evaluar(double valor, double alfa) {
+            penultimo = anterior;
+            nivelPrevio = nivel;
+            double salto = Math.abs(valor - anterior);
+            if (salto == 0) {
+                if (++repeticiones == 1) {
+                    escalaRacha = FACTOR_ESCALA * desviacionAbsoluta;
+                }
+            } else {
+                repeticiones = 0;
+                paso = Math.min(paso, salto);
+            }
+            anterior = valor;
+            muestras++;
+
+            double desvio = valor - nivel;
+            if (muestras <= MUESTRAS_CALENTAMIENTO) {
+                // Promedio simple al principio para que la escala no arranque subestimada
+                actualizar(desvio, Math.max(alfa, 1.0 / muestras));
+                return null;
+            }
+
+            double escala = Math.max(FACTOR_ESCALA * desviacionAbsoluta, ESCALA_MINIMA);
+            double limite = Z_ATIPICO * escala;
+            Anomalia anomalia = null;
+            if (congelado()) {
+                anomalia = Anomalia.CONGELADO;
+            } else if (salto > Math.max(Z_SALTO * escala, SALTO_MINIMO)) {
+                anomalia = Anomalia.SALTO;
+            } else if (Math.abs(desvio) > limite) {
+                anomalia = Anomalia.ATIPICO;
+            }
+
+            if (Math.abs(desvio) > limite) {
+                if (++atipicosSeguidos >= ATIPICOS_CAMBIO_NIVEL) {
+                    // Cambio real de nivel: se reaprende desde esta lectura
+                    nivel = valor;
+                    atipicosSeguidos = 0;
+                    return anomalia;
+                }
+                desvio = Math.copySign(limite, desvio);
+            } else {
+                atipicosSeguidos = 0;
+            }
+            actualizar(desvio, alfa);
+            return anomalia;
+        }
+
+        /**
+         * La racha de repeticiones empezó con la escala ya aprendida y en una
+         * serie que variaba varios pasos: que se repita tanto no es casual.
+         */
+        private boolean congelado() {
+            return repeticiones >= REPETICIONES_CONGELADO
+                    && muestras - repeticiones > MUESTRAS_CALENTAMIENTO
+                    && escalaRacha >= PASOS_CONGELADO * paso;
+        }
+
+        private void actualizar(double desvio, double alfa) {
+            nivel += alfa * desvio;
+            desviacionAbsoluta += alfa * (Math.abs(desvio) - desviacionAbsoluta);
+        }
+    }
+}
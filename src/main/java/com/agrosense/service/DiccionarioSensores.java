@@ -0,0 +1,130 @@
+package com.agrosense.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Asigna a cada ID de sensor un índice entero denso (0, 1, 2, ...) y guarda
+ * en arreglos paralelos el lote, el tipo y la zona (ubicación) de cada uno.
+ * Los servicios indexan sus arreglos primitivos por este índice, de modo que
+ * el registro de mediciones no necesita buscar por String.
+ */
+class DiccionarioSensores {
+    static final byte HUMEDAD = 0;
+    static final byte TEMPERATURA = 1;
+    static final byte OTRO = 2;
+
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final Map<String, int[]> sensoresPorLote = new HashMap<>();
+    private String[] ids = new String[16];
+    private String[] lotes = new String[16];
+    private String[] zonas = new String[16];
+    private byte[] tipos = new byte[16];
+    private int cantidad;
+
+    static byte codigoTipo(String tipoSensor) {
+        if (tipoSensor.equalsIgnoreCase("HUMEDAD")) {
+            return HUMEDAD;
+        }
+        if (tipoSensor.equalsIgnoreCase("TEMPERATURA")) {
+            return TEMPERATURA;
+        }
+        return OTRO;
+    }
+
+    /**
+     * Registra un sensor o actualiza su lote y zona si ya existía.
+     *
+     * @return el índice del sensor
+     */
+    int registrar(String sensorId, String loteId, String tipoSensor, String zona) {
+        Integer existente = indices.get(sensorId);
+        if (existente != null) {
+            int i = existente;
+            if (!lotes[i].equals(loteId)) {
+                quitarDeLote(lotes[i], i);
+                agregarALote(loteId, i);
+                lotes[i] = loteId;
+            }
+            zonas[i] = zona;
+            return i;
+        }
+        if (cantidad == ids.length) {
+            int capacidad = cantidad * 2;
+            ids = Arrays.copyOf(ids, capacidad);
+            lotes = Arrays.copyOf(lotes, capacidad);
+            zonas = Arrays.copyOf(zonas, capacidad);
+            tipos = Arrays.copyOf(tipos, capacidad);
+        }
+        int i = cantidad++;
+        ids[i] = sensorId;
+        lotes[i] = loteId;
+        zonas[i] = zona;
+        tipos[i] = codigoTipo(tipoSensor);
+        indices.put(sensorId, i);
+        agregarALote(loteId, i);
+        return i;
+    }
+
+    /** Índice de un sensor, o -1 si no está registrado */
+    int indice(String sensorId) {
+        Integer i = indices.get(sensorId);
+        return i != null ? i : -1;
+    }
+
+    /** Índices de los sensores de un lote (no modificar) */
+    int[] sensoresDeLote(String loteId) {
+        int[] sensores = sensoresPorLote.get(loteId);
+        return sensores != null ? sensores : new int[0];
+    }
+
+    String id(int indice) {
+        return ids[indice];
+    }
+
+    String lote(int indice) {
+        return lotes[indice];
+    }
+
+    String zona(int indice) {
+        return zonas[indice];
+    }
+
+    byte tipo(int indice) {
+        return tipos[indice];
+    }
+
+    int cantidad() {
+        return cantidad;
+    }
+
+    void limpiar() {
+        indices.clear();
+        sensoresPorLote.clear();
+        Arrays.fill(ids, null);
+        Arrays.fill(lotes, null);
+        Arrays.fill(zonas, null);
+        cantidad = 0;
+    }
+
+    private void agregarALote(String loteId, int indice) {
+        int[] actuales = sensoresPorLote.getOrDefault(loteId, new int[0]);
+        int[] nuevos = Arrays.copyOf(actuales, actuales.length + 1);
+        nuevos[actuales.length] = indice;
+        sensoresPorLote.put(loteId, nuevos);
+    }
+
+    private void quitarDeLote(String loteId, int indice) {
+        int[] actuales = sensoresPorLote.get(loteId);
+        if (actuales == null) {
+            return;
+        }
+        int[] nuevos = Arrays.stream(actuales).filter(i -> i != indice).toArray();
+        if (nuevos.length == 0) {
+            sensoresPorLote.remove(loteId);
+        } else {
+            sensoresPorLote.put(loteId, nuevos);
+        }
+    }
+}
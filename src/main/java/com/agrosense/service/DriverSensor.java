@@ -0,0 +1,32 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Sensor;
+import java.io.IOException;
+
+/**
+ * Punto de extensión para adquirir lecturas de sensores.
+ *
+ * Las implementaciones se descubren con {@link java.util.ServiceLoader}: un
+ * jar que declare su clase en
+ * {@code META-INF/services/com.agrosense.service.DriverSensor} y esté en el
+ * classpath queda disponible para {@link SensorService}. Deben tener un
+ * constructor público sin argumentos y ser seguras para varios hilos, porque
+ * las lecturas por lotes las llaman en paralelo.
+ */
+public interface DriverSensor {
+
+    /** Nombre con el que se elige el driver (propiedad {@code agrosense.driver}) */
+    String getNombre();
+
+    /** Si este driver sabe leer el sensor */
+    boolean soporta(Sensor sensor);
+
+    /**
+     * Lee el valor actual del sensor. Puede bloquear; si el hilo se
+     * interrumpe (por ejemplo, al vencer la lectura) debe terminar con
+     * {@link java.io.InterruptedIOException}.
+     *
+     * @throws IOException si la lectura falla
+     */
+    double leer(Sensor sensor) throws IOException;
+}
@@ -1,99 +1,475 @@
 package com.agrosense.service;
 
 import com.agrosense.model.*;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Servicio para análisis estadístico de datos de sensores
+ *
+ * Las series se guardan por sensor, no por lote: dos sensores de humedad en
+ * zonas distintas de un mismo lote no se mezclan. Cada sensor se registra una
+ * vez en un {@link DiccionarioSensores} que le asigna un índice entero denso;
+ * ventanas, acumuladores y bocetos viven en arreglos indexados por él, de modo
+ * que {@link #registrarMedicion(int, double, long)} no busca por String.
+ *
+ * Por sensor se guardan:
+ * <ul>
+ * <li>las últimas mediciones en una ventana circular de {@code double} de
+ * tamaño configurable;</li>
+ * <li>un acumulador incremental (promedio, varianza, mínimo, máximo y
+ * EWMA);</li>
+ * <li>bocetos de cuantiles por hora (últimos 7 días por defecto);</li>
+ * <li>una regresión lineal sobre la ventana para estimar la tendencia.</li>
+ * </ul>
+ * Los valores por lote, por zona, por cultivo o de toda la finca se obtienen
+ * combinando las series de los sensores correspondientes.
+ *
+ * Se puede consultar desde cualquier hilo mientras la ingesta registra
+ * mediciones: los registros toman un lock de escritura y las consultas uno de
+ * lectura, así que cada consulta ve las series de un mismo instante y varias
+ * consultas corren a la vez.
  */
 public class EstadisticasService {
+    public static final int VENTANA_POR_DEFECTO = 100;
+    public static final double ALFA_EWMA_POR_DEFECTO = 0.2;
+    public static final int HORAS_CUANTILES_POR_DEFECTO = 24 * 7;
+    // Niveles críticos de AlertaService, usados para proyectar la tendencia
+    private static final double UMBRAL_HUMEDAD_CRITICA = 30;
+    private static final double UMBRAL_TEMPERATURA_CRITICA = 35;
+    // Lotes por tarea al generar el resumen en paralelo
+    private static final int LOTES_POR_TAREA = 64;
 
-    private Map<String, List<Double>> historicoHumedad;
-    private Map<String, List<Double>> historicoTemperatura;
+    private final int ventana;
+    private final double alfaEwma;
+    private final DiccionarioSensores diccionario = new DiccionarioSensores();
+    // Registrar escribe con el de escritura; las consultas leen con el de lectura
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock lectura = lock.readLock();
+    private final Lock escritura = lock.writeLock();
+    // Arreglos indexados por el índice del sensor
+    private VentanaCircular[] ventanas = new VentanaCircular[16];
+    private AcumuladorEstadistico[] acumulados = new AcumuladorEstadistico[16];
+    private VentanaCuantiles[] cuantiles = new VentanaCuantiles[16];
+    private EstimadorTendencia[] tendencias = new EstimadorTendencia[16];
 
     public EstadisticasService() {
-        this.historicoHumedad = new HashMap<>();
-        this.historicoTemperatura = new HashMap<>();
+        this(VENTANA_POR_DEFECTO, ALFA_EWMA_POR_DEFECTO);
+    }
+
+    public EstadisticasService(int ventana) {
+        this(ventana, ALFA_EWMA_POR_DEFECTO);
+    }
+
+    /**
+     * @param ventana  cantidad de mediciones que se conservan por sensor
+     * @param alfaEwma peso de cada medición nueva en el promedio exponencial
+     */
+    public EstadisticasService(int ventana, double alfaEwma) {
+        if (ventana <= 0) {
+            throw new IllegalArgumentException("La ventana debe ser mayor a 0");
+        }
+        if (!(alfaEwma > 0 && alfaEwma <= 1)) {
+            throw new IllegalArgumentException("El factor alfa debe estar en (0, 1]");
+        }
+        this.ventana = ventana;
+        this.alfaEwma = alfaEwma;
     }
 
     /**
-     * Registra una medición en el histórico
+     * Registra un sensor de un lote (o actualiza su lote y zona) y devuelve su
+     * índice para {@link #registrarMedicion(int, double, long)}. El índice
+     * queda también en el sensor, para que la ingesta lo lleve con cada
+     * medición.
+     */
+    public int registrarSensor(String loteId, Sensor sensor) {
+        escritura.lock();
+        try {
+            int indice = registrarSensor(sensor.getId(), loteId, sensor.getTipo(), sensor.getUbicacion());
+            sensor.setIndiceEstadisticas(indice);
+            return indice;
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    /** Con el lock de escritura tomado */
+    private int registrarSensor(String sensorId, String loteId, String tipoSensor, String zona) {
+        int indice = diccionario.registrar(sensorId, loteId, tipoSensor, zona != null ? zona : "");
+        if (indice == ventanas.length) {
+            int capacidad = ventanas.length * 2;
+            ventanas = Arrays.copyOf(ventanas, capacidad);
+            acumulados = Arrays.copyOf(acumulados, capacidad);
+            cuantiles = Arrays.copyOf(cuantiles, capacidad);
+            tendencias = Arrays.copyOf(tendencias, capacidad);
+        }
+        if (ventanas[indice] == null) {
+            ventanas[indice] = new VentanaCircular(ventana);
+            acumulados[indice] = new AcumuladorEstadistico(alfaEwma);
+            cuantiles[indice] = new VentanaCuantiles(HORAS_CUANTILES_POR_DEFECTO);
+            tendencias[indice] = new EstimadorTendencia(Math.max(ventana, 3));
+        }
+        return indice;
+    }
+
+    /**
+     * Índice de un sensor registrado, o -1
+     */
+    public int indiceSensor(String sensorId) {
+        lectura.lock();
+        try {
+            return diccionario.indice(sensorId);
+        } finally {
+            lectura.unlock();
+        }
+    }
+
+    /**
+     * Registra una medición de un sensor ya registrado. Es la vía rápida: no
+     * reserva memoria ni busca por String.
+     */
+    public void registrarMedicion(int indiceSensor, double valor, long epochMillis) {
+        escritura.lock();
+        try {
+            if (indiceSensor < 0 || indiceSensor >= diccionario.cantidad()) {
+                throw new IllegalArgumentException("Sensor no registrado: " + indiceSensor);
+            }
+            agregar(indiceSensor, valor, epochMillis);
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    /** Con el lock de escritura tomado */
+    private void agregar(int indiceSensor, double valor, long epochMillis) {
+        // La ventana descarta sola la medición más antigua al llenarse
+        ventanas[indiceSensor].agregar(valor);
+        acumulados[indiceSensor].agregar(valor);
+        cuantiles[indiceSensor].agregar(epochMillis, valor);
+        tendencias[indiceSensor].agregar(epochMillis, valor);
+    }
+
+    /**
+     * Registra una medición en el histórico. Se atribuye a un sensor implícito
+     * del lote para ese tipo.
      */
     public void registrarMedicion(String loteId, String tipoSensor, double valor) {
-        if (tipoSensor.equalsIgnoreCase("HUMEDAD")) {
-            historicoHumedad.computeIfAbsent(loteId, k -> new ArrayList<>()).add(valor);
-        } else if (tipoSensor.equalsIgnoreCase("TEMPERATURA")) {
-            historicoTemperatura.computeIfAbsent(loteId, k -> new ArrayList<>()).add(valor);
+        String sensorImplicito = loteId + "/" + tipoSensor.toUpperCase();
+        long ahora = System.currentTimeMillis();
+        escritura.lock();
+        try {
+            int indice = diccionario.indice(sensorImplicito);
+            if (indice < 0) {
+                indice = registrarSensor(sensorImplicito, loteId, tipoSensor, "");
+            }
+            agregar(indice, valor, ahora);
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    /**
+     * Registra una medición con el índice que el sensor recibió en
+     * {@link #registrarSensor(String, Sensor)}. Si el índice no es el de ese
+     * sensor (-1, histórico limpiado, ID cambiado) se busca por ID.
+     */
+    public void registrarMedicion(String loteId, int indiceSensor, Medicion medicion) {
+        long fecha = epochMillis(medicion.getFechaHora());
+        escritura.lock();
+        try {
+            // Con el mismo String que se registró, equals compara referencias
+            if (indiceSensor < 0 || indiceSensor >= diccionario.cantidad()
+                    || !diccionario.id(indiceSensor).equals(medicion.getSensorId())) {
+                indiceSensor = indiceORegistrar(loteId, medicion);
+            }
+            agregar(indiceSensor, medicion.getValor(), fecha);
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    /**
+     * Registra una medición de un sensor; si el sensor no estaba registrado se
+     * registra en el lote indicado.
+     */
+    public void registrarMedicion(String loteId, Medicion medicion) {
+        long fecha = epochMillis(medicion.getFechaHora());
+        escritura.lock();
+        try {
+            agregar(indiceORegistrar(loteId, medicion), medicion.getValor(), fecha);
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    /** Con el lock de escritura tomado */
+    private int indiceORegistrar(String loteId, Medicion medicion) {
+        int indice = diccionario.indice(medicion.getSensorId());
+        if (indice < 0) {
+            indice = registrarSensor(medicion.getSensorId(), loteId, medicion.getTipoSensor(), "");
+        }
+        return indice;
+    }
+
+    // --- Consultas derivadas de las series por sensor ---
+
+    /**
+     * Boceto de cuantiles de un lote para un tipo de sensor en el rango dado
+     * (con resolución de una hora). Vacío si no hay datos.
+     */
+    public BocetoCuantiles getCuantilesLote(String loteId, String tipoSensor, LocalDateTime desde,
+            LocalDateTime hasta) {
+        lectura.lock();
+        try {
+            BocetoCuantiles boceto = new BocetoCuantiles();
+            fusionarCuantiles(boceto, loteId, DiccionarioSensores.codigoTipo(tipoSensor), desde, hasta);
+            return boceto;
+        } finally {
+            lectura.unlock();
+        }
+    }
+
+    /**
+     * Boceto de cuantiles de un sensor en el rango dado.
+     */
+    public BocetoCuantiles getCuantilesSensor(String sensorId, LocalDateTime desde, LocalDateTime hasta) {
+        lectura.lock();
+        try {
+            BocetoCuantiles boceto = new BocetoCuantiles();
+            int indice = diccionario.indice(sensorId);
+            if (indice >= 0) {
+                cuantiles[indice].fusionarEn(boceto, epochMillis(desde), epochMillis(hasta));
+            }
+            return boceto;
+        } finally {
+            lectura.unlock();
+        }
+    }
+
+    /**
+     * Boceto de cuantiles de todos los lotes de un cultivo.
+     */
+    public BocetoCuantiles getCuantilesCultivo(GestorLotes gestorLotes, String cultivo, String tipoSensor,
+            LocalDateTime desde, LocalDateTime hasta) {
+        List<Lote> lotes = gestorLotes.obtenerTodos();
+        lectura.lock();
+        try {
+            BocetoCuantiles boceto = new BocetoCuantiles();
+            byte tipo = DiccionarioSensores.codigoTipo(tipoSensor);
+            for (Lote lote : lotes) {
+                if (lote.getTipoCultivo().equalsIgnoreCase(cultivo)) {
+                    fusionarCuantiles(boceto, lote.getId(), tipo, desde, hasta);
+                }
+            }
+            return boceto;
+        } finally {
+            lectura.unlock();
+        }
+    }
+
+    /**
+     * Boceto de cuantiles de todos los sensores de un tipo.
+     */
+    public BocetoCuantiles getCuantilesGenerales(String tipoSensor, LocalDateTime desde, LocalDateTime hasta) {
+        lectura.lock();
+        try {
+            BocetoCuantiles boceto = new BocetoCuantiles();
+            byte tipo = DiccionarioSensores.codigoTipo(tipoSensor);
+            long inicio = epochMillis(desde);
+            long fin = epochMillis(hasta);
+            for (int i = 0; i < diccionario.cantidad(); i++) {
+                if (diccionario.tipo(i) == tipo) {
+                    cuantiles[i].fusionarEn(boceto, inicio, fin);
+                }
+            }
+            return boceto;
+        } finally {
+            lectura.unlock();
+        }
+    }
+
+    private void fusionarCuantiles(BocetoCuantiles boceto, String loteId, byte tipo, LocalDateTime desde,
+            LocalDateTime hasta) {
+        long inicio = epochMillis(desde);
+        long fin = epochMillis(hasta);
+        for (int i : diccionario.sensoresDeLote(loteId)) {
+            if (diccionario.tipo(i) == tipo) {
+                cuantiles[i].fusionarEn(boceto, inicio, fin);
+            }
         }
+    }
 
-        // Mantener solo las últimas 100 mediciones por lote
-        limitarHistorico(historicoHumedad.get(loteId));
-        limitarHistorico(historicoTemperatura.get(loteId));
+    private static long epochMillis(LocalDateTime fecha) {
+        return fecha.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Estadísticas acumuladas de un lote para un tipo de sensor, combinando
+     * las de sus sensores
+     */
+    public Optional<AcumuladorEstadistico> getEstadisticasLote(String loteId, String tipoSensor) {
+        lectura.lock();
+        try {
+            return combinarAcumulados(loteId, DiccionarioSensores.codigoTipo(tipoSensor), null);
+        } finally {
+            lectura.unlock();
+        }
     }
 
-    private void limitarHistorico(List<Double> lista) {
-        if (lista != null && lista.size() > 100) {
-            lista.remove(0);
+    /**
+     * Estadísticas acumuladas de los sensores de un tipo en una zona
+     * (ubicación) de un lote
+     */
+    public Optional<AcumuladorEstadistico> getEstadisticasZona(String loteId, String zona, String tipoSensor) {
+        lectura.lock();
+        try {
+            return combinarAcumulados(loteId, DiccionarioSensores.codigoTipo(tipoSensor), zona);
+        } finally {
+            lectura.unlock();
         }
     }
 
+    /**
+     * Estadísticas acumuladas de un sensor (copia)
+     */
+    public Optional<AcumuladorEstadistico> getEstadisticasSensor(String sensorId) {
+        lectura.lock();
+        try {
+            int indice = diccionario.indice(sensorId);
+            return indice >= 0 ? Optional.of(acumulados[indice].copiar()) : Optional.empty();
+        } finally {
+            lectura.unlock();
+        }
+    }
+
+    private Optional<AcumuladorEstadistico> combinarAcumulados(String loteId, byte tipo, String zona) {
+        AcumuladorEstadistico combinado = null;
+        for (int i : diccionario.sensoresDeLote(loteId)) {
+            if (diccionario.tipo(i) == tipo && (zona == null || zona.equalsIgnoreCase(diccionario.zona(i)))) {
+                if (combinado == null) {
+                    combinado = new AcumuladorEstadistico(alfaEwma);
+                }
+                combinado.fusionar(acumulados[i]);
+            }
+        }
+        return Optional.ofNullable(combinado);
+    }
+
     /**
      * Calcula el promedio de humedad de un lote
      */
     public double calcularPromedioHumedad(String loteId) {
-        List<Double> valores = historicoHumedad.get(loteId);
-        if (valores == null || valores.isEmpty()) {
-            return 0.0;
+        lectura.lock();
+        try {
+            return promedioVentanas(loteId, DiccionarioSensores.HUMEDAD);
+        } finally {
+            lectura.unlock();
         }
-        return valores.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
     }
 
     /**
      * Calcula el promedio de temperatura de un lote
      */
     public double calcularPromedioTemperatura(String loteId) {
-        List<Double> valores = historicoTemperatura.get(loteId);
-        if (valores == null || valores.isEmpty()) {
-            return 0.0;
+        lectura.lock();
+        try {
+            return promedioVentanas(loteId, DiccionarioSensores.TEMPERATURA);
+        } finally {
+            lectura.unlock();
         }
-        return valores.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
     }
 
     /**
-     * Obtiene la tendencia de un sensor (SUBIENDO, BAJANDO, ESTABLE)
+     * Promedio de las ventanas recientes de los sensores de un tipo del lote
      */
-    public String obtenerTendencia(String loteId, String tipoSensor) {
-        List<Double> valores;
+    private double promedioVentanas(String loteId, byte tipo) {
+        double suma = 0;
+        int cantidad = 0;
+        for (int i : diccionario.sensoresDeLote(loteId)) {
+            if (diccionario.tipo(i) == tipo) {
+                suma += ventanas[i].suma();
+                cantidad += ventanas[i].tamano();
+            }
+        }
+        return cantidad == 0 ? 0.0 : suma / cantidad;
+    }
 
-        if (tipoSensor.equalsIgnoreCase("HUMEDAD")) {
-            valores = historicoHumedad.get(loteId);
-        } else if (tipoSensor.equalsIgnoreCase("TEMPERATURA")) {
-            valores = historicoTemperatura.get(loteId);
-        } else {
+    /**
+     * Obtiene la tendencia de un lote para un tipo de sensor (SUBIENDO,
+     * BAJANDO, ESTABLE o INSUFICIENTE)
+     */
+    public String obtenerTendencia(String loteId, String tipoSensor) {
+        if (DiccionarioSensores.codigoTipo(tipoSensor) == DiccionarioSensores.OTRO) {
             return "DESCONOCIDO";
         }
+        return getTendenciaLote(loteId, tipoSensor).getDireccion().name();
+    }
 
-        if (valores == null || valores.size() < 3) {
-            return "INSUFICIENTE";
+    /**
+     * Tendencia común de los sensores de un tipo de un lote, estimada sobre
+     * la ventana reciente de cada uno
+     */
+    public Tendencia getTendenciaLote(String loteId, String tipoSensor) {
+        lectura.lock();
+        try {
+            byte tipo = DiccionarioSensores.codigoTipo(tipoSensor);
+            int muestras = 0;
+            int series = 0;
+            double sxx = 0;
+            double sxy = 0;
+            double syy = 0;
+            double sumaValores = 0;
+            long ultimaFecha = Long.MIN_VALUE;
+            for (int i : diccionario.sensoresDeLote(loteId)) {
+                EstimadorTendencia estimador = tendencias[i];
+                if (diccionario.tipo(i) != tipo || estimador.tamano() == 0) {
+                    continue;
+                }
+                muestras += estimador.tamano();
+                series++;
+                sxx += estimador.sxx();
+                sxy += estimador.sxy();
+                syy += estimador.syy();
+                sumaValores += estimador.valorAjustado();
+                ultimaFecha = Math.max(ultimaFecha, estimador.ultimaFecha());
+            }
+            if (series == 0) {
+                return Tendencia.insuficiente();
+            }
+            return new Tendencia(muestras, series, sxx, sxy, syy, sumaValores / series, ultimaFecha);
+        } finally {
+            lectura.unlock();
         }
+    }
 
-        // Comparar últimas 3 mediciones
-        int size = valores.size();
-        double ultima = valores.get(size - 1);
-        double penultima = valores.get(size - 2);
-        double antepenultima = valores.get(size - 3);
-
-        double promReciente = (ultima + penultima) / 2;
-        double promAnterior = (penultima + antepenultima) / 2;
-
-        double diferencia = promReciente - promAnterior;
-
-        if (Math.abs(diferencia) < 2.0) {
-            return "ESTABLE";
-        } else if (diferencia > 0) {
-            return "SUBIENDO";
-        } else {
-            return "BAJANDO";
+    /**
+     * Tendencia de un sensor registrado
+     */
+    public Optional<Tendencia> getTendenciaSensor(String sensorId) {
+        lectura.lock();
+        try {
+            int indice = diccionario.indice(sensorId);
+            if (indice < 0) {
+                return Optional.empty();
+            }
+            EstimadorTendencia estimador = tendencias[indice];
+            if (estimador.tamano() == 0) {
+                return Optional.of(Tendencia.insuficiente());
+            }
+            return Optional.of(new Tendencia(estimador.tamano(), 1, estimador.sxx(), estimador.sxy(),
+                    estimador.syy(), estimador.valorAjustado(), estimador.ultimaFecha()));
+        } finally {
+            lectura.unlock();
         }
     }
 
@@ -101,64 +477,177 @@ public class EstadisticasService {
      * Genera un resumen general de todos los lotes
      */
     public String generarResumenGeneral(GestorLotes gestorLotes) {
-        StringBuilder resumen = new StringBuilder();
-        resumen.append("=== RESUMEN GENERAL DEL SISTEMA ===\n\n");
+        StringWriter resumen = new StringWriter();
+        try {
+            generarResumenGeneral(gestorLotes, resumen);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter no falla
+        }
+        return resumen.toString();
+    }
 
+    /**
+     * Escribe el resumen general en {@code salida} a medida que se genera.
+     *
+     * Los lotes se resumen en tramos de {@value #LOTES_POR_TAREA} en paralelo
+     * sobre el pool común de fork-join y los tramos se escriben en orden; solo
+     * hay unos pocos tramos en memoria a la vez. Cada tramo se arma con el
+     * lock de lectura tomado: sus lotes se ven en un mismo instante y la
+     * ingesta solo espera lo que tarda un tramo, no todo el resumen.
+     */
+    public void generarResumenGeneral(GestorLotes gestorLotes, Writer salida) throws IOException {
         List<Lote> lotes = gestorLotes.obtenerTodos();
-        resumen.append("Total de lotes: ").append(lotes.size()).append("\n");
-
-        int totalSensores = lotes.stream()
-                .mapToInt(l -> l.getSensores().size())
-                .sum();
-        resumen.append("Total de sensores: ").append(totalSensores).append("\n\n");
+        LocalDateTime ahora = LocalDateTime.now();
+        LocalDateTime haceUnDia = ahora.minusDays(1);
 
+        int totalSensores = 0;
         for (Lote lote : lotes) {
-            resumen.append("Lote ").append(lote.getId()).append(" - ").append(lote.getNombre()).append("\n");
-            resumen.append("  Cultivo: ").append(lote.getTipoCultivo()).append("\n");
+            totalSensores += lote.getSensores().size();
+        }
+        salida.append("=== RESUMEN GENERAL DEL SISTEMA ===\n\n");
+        salida.append("Total de lotes: ").append(String.valueOf(lotes.size())).append("\n");
+        salida.append("Total de sensores: ").append(String.valueOf(totalSensores)).append("\n\n");
 
-            if (lote.getFechaSiembra() != null) {
-                resumen.append("  Días desde siembra: ").append(lote.calcularDiasDesdeSiembra()).append("\n");
-                resumen.append("  Etapa: ").append(lote.getEtapaCrecimiento()).append("\n");
+        if (lotes.size() <= LOTES_POR_TAREA) {
+            salida.append(resumirLotes(lotes, haceUnDia, ahora));
+        } else {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int maxEnCurso = Math.max(2, pool.getParallelism() * 2);
+            ArrayDeque<ForkJoinTask<CharSequence>> enCurso = new ArrayDeque<>();
+            for (int desde = 0; desde < lotes.size(); desde += LOTES_POR_TAREA) {
+                List<Lote> tramo = lotes.subList(desde, Math.min(desde + LOTES_POR_TAREA, lotes.size()));
+                enCurso.add(pool.submit(() -> resumirLotes(tramo, haceUnDia, ahora)));
+                if (enCurso.size() >= maxEnCurso) {
+                    salida.append(enCurso.poll().join());
+                }
+            }
+            while (!enCurso.isEmpty()) {
+                salida.append(enCurso.poll().join());
             }
+        }
+        salida.flush();
+    }
 
-            double promHum = calcularPromedioHumedad(lote.getId());
-            double promTemp = calcularPromedioTemperatura(lote.getId());
+    /**
+     * Resumen de un tramo de lotes. Usa un único {@link Formatter} sobre el
+     * texto del tramo en lugar de un {@code String.format} por valor.
+     */
+    private CharSequence resumirLotes(List<Lote> lotes, LocalDateTime haceUnDia, LocalDateTime ahora) {
+        lectura.lock();
+        try {
+            StringBuilder resumen = new StringBuilder(lotes.size() * 256);
+            Formatter formato = new Formatter(resumen);
+            for (Lote lote : lotes) {
+                resumen.append("Lote ").append(lote.getId()).append(" - ").append(lote.getNombre()).append("\n");
+                resumen.append("  Cultivo: ").append(lote.getTipoCultivo()).append("\n");
 
-            if (promHum > 0) {
-                resumen.append("  Humedad promedio: ").append(String.format("%.1f%%", promHum));
-                resumen.append(" (").append(obtenerTendencia(lote.getId(), "HUMEDAD")).append(")\n");
-            }
+                if (lote.getFechaSiembra() != null) {
+                    resumen.append("  Días desde siembra: ").append(lote.calcularDiasDesdeSiembra()).append("\n");
+                    resumen.append("  Etapa: ").append(lote.getEtapaCrecimiento()).append("\n");
+                }
 
-            if (promTemp > 0) {
-                resumen.append("  Temperatura promedio: ").append(String.format("%.1f°C", promTemp));
-                resumen.append(" (").append(obtenerTendencia(lote.getId(), "TEMPERATURA")).append(")\n");
-            }
+                double promHum = calcularPromedioHumedad(lote.getId());
+                double promTemp = calcularPromedioTemperatura(lote.getId());
 
-            resumen.append("\n");
-        }
+                if (promHum > 0) {
+                    Tendencia tendencia = getTendenciaLote(lote.getId(), "HUMEDAD");
+                    resumen.append("  Humedad promedio: ");
+                    formato.format("%.1f%%", promHum);
+                    resumen.append(" (").append(tendencia.getDireccion().name()).append(")\n");
+                    agregarTendencia(formato, tendencia, "%", UMBRAL_HUMEDAD_CRITICA);
+                    agregarAcumulado(formato, getEstadisticasLote(lote.getId(), "HUMEDAD"), "%");
+                    agregarPercentiles(formato, getCuantilesLote(lote.getId(), "HUMEDAD", haceUnDia, ahora), "%");
+                }
 
-        return resumen.toString();
+                if (promTemp > 0) {
+                    Tendencia tendencia = getTendenciaLote(lote.getId(), "TEMPERATURA");
+                    resumen.append("  Temperatura promedio: ");
+                    formato.format("%.1f°C", promTemp);
+                    resumen.append(" (").append(tendencia.getDireccion().name()).append(")\n");
+                    agregarTendencia(formato, tendencia, "°C", UMBRAL_TEMPERATURA_CRITICA);
+                    agregarAcumulado(formato, getEstadisticasLote(lote.getId(), "TEMPERATURA"), "°C");
+                    agregarPercentiles(formato, getCuantilesLote(lote.getId(), "TEMPERATURA", haceUnDia, ahora), "°C");
+                }
+
+                resumen.append("\n");
+            }
+            return resumen;
+        } finally {
+            lectura.unlock();
+        }
     }
 
     /**
-     * Obtiene el histórico de humedad de un lote
+     * Pendiente y, si la serie avanza hacia el umbral, el tiempo estimado
+     * hasta cruzarlo
      */
-    public List<Double> getHistoricoHumedad(String loteId) {
-        return new ArrayList<>(historicoHumedad.getOrDefault(loteId, new ArrayList<>()));
+    private void agregarTendencia(Formatter formato, Tendencia tendencia, String unidad, double umbral) {
+        Tendencia.Direccion direccion = tendencia.getDireccion();
+        if (direccion != Tendencia.Direccion.SUBIENDO && direccion != Tendencia.Direccion.BAJANDO) {
+            return;
+        }
+        formato.format("    Tendencia: %+.2f%s/h (confianza %.0f%%)", tendencia.getPendientePorHora(), unidad,
+                tendencia.getConfianza() * 100);
+        tendencia.tiempoHasta(umbral).ifPresent(tiempo -> formato.format(", llega a %.0f%s en ~%s", umbral,
+                unidad, formatearDuracion(tiempo)));
+        formato.format("\n");
+    }
+
+    private static String formatearDuracion(Duration duracion) {
+        long minutos = Math.max(1, duracion.toMinutes());
+        if (minutos < 60) {
+            return minutos + " min";
+        }
+        long horas = Math.round(minutos / 60.0);
+        return horas < 48 ? horas + "h" : Math.round(horas / 24.0) + " días";
+    }
+
+    private void agregarPercentiles(Formatter formato, BocetoCuantiles boceto, String unidad) {
+        if (boceto.getCantidad() == 0) {
+            return;
+        }
+        formato.format("    P5/P50/P95 (24h): %.1f%s / %.1f%s / %.1f%s\n", boceto.cuantil(0.05), unidad,
+                boceto.cuantil(0.5), unidad, boceto.cuantil(0.95), unidad);
+    }
+
+    private void agregarAcumulado(Formatter formato, Optional<AcumuladorEstadistico> acumulado, String unidad) {
+        acumulado.ifPresent(a -> formato.format(
+                "    Rango: %.1f%s - %.1f%s, desviación: %.1f, EWMA: %.1f%s (%d lecturas)\n",
+                a.getMinimo(), unidad, a.getMaximo(), unidad, a.getDesviacion(), a.getEwma(), unidad,
+                a.getCantidad()));
     }
 
     /**
-     * Obtiene el histórico de temperatura de un lote
+     * Obtiene el histórico reciente de un sensor, del valor más antiguo al más
+     * reciente
      */
-    public List<Double> getHistoricoTemperatura(String loteId) {
-        return new ArrayList<>(historicoTemperatura.getOrDefault(loteId, new ArrayList<>()));
+    public double[] getHistoricoSensor(String sensorId) {
+        lectura.lock();
+        try {
+            int indice = diccionario.indice(sensorId);
+            return indice >= 0 ? ventanas[indice].copiar() : new double[0];
+        } finally {
+            lectura.unlock();
+        }
     }
 
     /**
      * Limpia todo el histórico
      */
     public void limpiarHistorico() {
-        historicoHumedad.clear();
-        historicoTemperatura.clear();
+        escritura.lock();
+        try {
+            diccionario.limpiar();
+            Arrays.fill(ventanas, null);
+            Arrays.fill(acumulados, null);
+            Arrays.fill(cuantiles, null);
+            Arrays.fill(tendencias, null);
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    public int getVentana() {
+        return ventana;
     }
 }
@@ -0,0 +1,122 @@
+package com.agrosense.service;
+
+/**
+ * Regresión lineal por mínimos cuadrados sobre las últimas N mediciones de
+ * una serie, actualizada en O(1) por medición.
+ *
+ * Se mantienen las sumas de t, y, t², t·y e y² de la ventana (t en horas
+ * desde un origen); al llenarse, la medición que sale se resta de las sumas.
+ * Como en {@link VentanaCircular}, una vez por vuelta completa se recalculan
+ * las sumas exactas y se mueve el origen a la medición más antigua para no
+ * acumular error de redondeo.
+ */
+class EstimadorTendencia {
+    static final double MILIS_POR_HORA = 3_600_000.0;
+
+    private final long[] fechas;
+    private final double[] valores;
+    private int inicio;
+    private int tamano;
+    private long origen;
+    private double sumaT;
+    private double sumaY;
+    private double sumaTT;
+    private double sumaTY;
+    private double sumaYY;
+    private long ultimaFecha = Long.MIN_VALUE;
+    private int agregadosDesdeRecalculo;
+
+    EstimadorTendencia(int capacidad) {
+        if (capacidad < 3) {
+            throw new IllegalArgumentException("La ventana de tendencia debe tener al menos 3 valores");
+        }
+        this.fechas = new long[capacidad];
+        this.valores = new double[capacidad];
+    }
+
+    void agregar(long epochMillis, double valor) {
+        if (tamano == 0) {
+            origen = epochMillis;
+        }
+        if (tamano < fechas.length) {
+            int posicion = (inicio + tamano) % fechas.length;
+            fechas[posicion] = epochMillis;
+            valores[posicion] = valor;
+            tamano++;
+        } else {
+            quitarDeSumas(horas(fechas[inicio]), valores[inicio]);
+            fechas[inicio] = epochMillis;
+            valores[inicio] = valor;
+            inicio = (inicio + 1) % fechas.length;
+        }
+        sumarASumas(horas(epochMillis), valor);
+        ultimaFecha = Math.max(ultimaFecha, epochMillis);
+
+        if (++agregadosDesdeRecalculo >= fechas.length) {
+            recalcular();
+        }
+    }
+
+    private void recalcular() {
+        origen = fechas[inicio];
+        sumaT = sumaY = sumaTT = sumaTY = sumaYY = 0;
+        for (int i = 0; i < tamano; i++) {
+            int posicion = (inicio + i) % fechas.length;
+            sumarASumas(horas(fechas[posicion]), valores[posicion]);
+        }
+        agregadosDesdeRecalculo = 0;
+    }
+
+    private double horas(long epochMillis) {
+        return (epochMillis - origen) / MILIS_POR_HORA;
+    }
+
+    private void sumarASumas(double t, double y) {
+        sumaT += t;
+        sumaY += y;
+        sumaTT += t * t;
+        sumaTY += t * y;
+        sumaYY += y * y;
+    }
+
+    private void quitarDeSumas(double t, double y) {
+        sumaT -= t;
+        sumaY -= y;
+        sumaTT -= t * t;
+        sumaTY -= t * y;
+        sumaYY -= y * y;
+    }
+
+    int tamano() {
+        return tamano;
+    }
+
+    /** Suma de cuadrados de t respecto de su promedio */
+    double sxx() {
+        return tamano == 0 ? 0 : Math.max(0, sumaTT - sumaT * sumaT / tamano);
+    }
+
+    /** Suma de productos cruzados de t e y respecto de sus promedios */
+    double sxy() {
+        return tamano == 0 ? 0 : sumaTY - sumaT * sumaY / tamano;
+    }
+
+    /** Suma de cuadrados de y respecto de su promedio */
+    double syy() {
+        return tamano == 0 ? 0 : Math.max(0, sumaYY - sumaY * sumaY / tamano);
+    }
+
+    /** Valor de la recta ajustada en la fecha de la última medición */
+    double valorAjustado() {
+        double promedioY = sumaY / tamano;
+        double sxx = sxx();
+        if (sxx == 0) {
+            return promedioY;
+        }
+        return promedioY + sxy() / sxx * (horas(ultimaFecha) - sumaT / tamano);
+    }
+
+    long ultimaFecha() {
+        return ultimaFecha;
+    }
+}
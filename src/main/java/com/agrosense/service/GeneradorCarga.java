@@ -0,0 +1,197 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Lote;
+import com.agrosense.model.Medicion;
+import com.agrosense.model.Sensor;
+import com.agrosense.model.SensorHumedad;
+import com.agrosense.model.SensorTemperatura;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga reproducible para medir los límites del sistema.
+ *
+ * A partir de una semilla construye una finca de N lotes con M sensores cada
+ * uno y reproduce un flujo de mediciones realista (la curva diaria de
+ * {@link SimuladorSensores} con ruido y algunas fallas de sensor: picos y
+ * lecturas congeladas) a través de {@link AlertaService} y
+ * {@link EstadisticasService}, a una tasa objetivo o tan rápido como se pueda.
+ * Con la misma semilla y parámetros se generan exactamente las mismas
+ * mediciones, lo que permite comparar versiones.
+ *
+ * Uso: {@code java com.agrosense.service.GeneradorCarga [lotes] [sensoresPorLote]
+ * [mediciones] [tasa] [semilla]}
+ */
+public class GeneradorCarga {
+    public static final long SEMILLA_POR_DEFECTO = 20_240_601L;
+    // Tiempo simulado entre dos lecturas de un mismo sensor
+    public static final Duration INTERVALO_SIMULADO = Duration.ofMinutes(1);
+    public static final LocalDateTime INICIO_SIMULADO = LocalDateTime.of(2024, 6, 1, 0, 0);
+    // Probabilidad por medición de que un sensor empiece a fallar
+    public static final double PROBABILIDAD_FALLA = 1e-4;
+    public static final int DURACION_CONGELADO = 30;
+
+    private static final String[] CULTIVOS = { "Tomate", "Lechuga", "Maíz", "Papa", "Trigo", "Soja" };
+    private static final String[] ETAPAS = { "PLANTULA", "VEGETATIVO", "FLORACION", "FRUCTIFICACION" };
+    private static final int ZONAS_POR_LOTE = 4;
+    // Una de cada tantas mediciones se mide individualmente para la latencia
+    private static final int MUESTREO_LATENCIA = 64;
+
+    private final long semilla;
+
+    public GeneradorCarga() {
+        this(SEMILLA_POR_DEFECTO);
+    }
+
+    public GeneradorCarga(long semilla) {
+        this.semilla = semilla;
+    }
+
+    /**
+     * Reemplaza el contenido del gestor por una finca generada: lotes con
+     * cultivos, etapas y fechas de siembra al azar, y sensores alternados de
+     * humedad y temperatura repartidos en zonas.
+     */
+    public void construirFinca(GestorLotes gestorLotes, int lotes, int sensoresPorLote) {
+        if (lotes < 1 || sensoresPorLote < 1) {
+            throw new IllegalArgumentException("Se necesita al menos un lote y un sensor por lote");
+        }
+        SplittableRandom random = new SplittableRandom(semilla);
+        gestorLotes.limpiar();
+        LocalDate hoy = INICIO_SIMULADO.toLocalDate();
+        for (int i = 1; i <= lotes; i++) {
+            String loteId = String.format("C%05d", i);
+            Lote lote = new Lote(loteId, "Lote " + i, CULTIVOS[random.nextInt(CULTIVOS.length)],
+                    Math.round((0.5 + random.nextDouble() * 9.5) * 10) / 10.0);
+            lote.setFechaSiembra(hoy.minusDays(random.nextInt(10, 150)));
+            lote.setEtapaCrecimiento(ETAPAS[random.nextInt(ETAPAS.length)]);
+            for (int s = 1; s <= sensoresPorLote; s++) {
+                String zona = "Zona " + (1 + random.nextInt(ZONAS_POR_LOTE));
+                String sensorId = String.format("%s-%s%02d", loteId, s % 2 == 1 ? "H" : "T", s);
+                lote.agregarSensor(s % 2 == 1 ? new SensorHumedad(sensorId, zona)
+                        : new SensorTemperatura(sensorId, zona));
+            }
+            gestorLotes.registrarLote(lote);
+        }
+    }
+
+    /**
+     * Reproduce {@code mediciones} mediciones recorriendo los sensores de la
+     * finca por rondas (una ronda = {@link #INTERVALO_SIMULADO} de tiempo
+     * simulado).
+     *
+     * @param tasaObjetivo mediciones por segundo; 0 para ir lo más rápido posible
+     */
+    public InformeCarga reproducir(GestorLotes gestorLotes, AlertaService alertaService,
+            EstadisticasService estadisticas, long mediciones, double tasaObjetivo) {
+        if (mediciones < 0 || tasaObjetivo < 0) {
+            throw new IllegalArgumentException("Las mediciones y la tasa no pueden ser negativas");
+        }
+        List<String> lotes = new ArrayList<>();
+        List<Sensor> sensores = new ArrayList<>();
+        for (Lote lote : gestorLotes.obtenerTodos()) {
+            for (Sensor sensor : lote.getSensores()) {
+                lotes.add(lote.getId());
+                sensores.add(sensor);
+            }
+        }
+        int cantidad = sensores.size();
+        if (cantidad == 0) {
+            throw new IllegalArgumentException("La finca no tiene sensores");
+        }
+        int[] indices = new int[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            indices[i] = estadisticas.registrarSensor(lotes.get(i), sensores.get(i));
+        }
+
+        // Semilla distinta de la de la finca, pero derivada de ella
+        SplittableRandom random = new SplittableRandom(semilla).split();
+        double[] ultimos = new double[cantidad];
+        int[] congelados = new int[cantidad];
+        long inicioSimulado = INICIO_SIMULADO.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long intervaloMs = INTERVALO_SIMULADO.toMillis();
+        double nanosPorMedicion = tasaObjetivo > 0 ? 1e9 / tasaObjetivo : 0;
+        long alertasAntes = alertaService.getAlertasGeneradas();
+        BocetoCuantiles latencias = new BocetoCuantiles();
+        long fallasInyectadas = 0;
+
+        long inicio = System.nanoTime();
+        for (long n = 0; n < mediciones; n++) {
+            int i = (int) (n % cantidad);
+            long ronda = n / cantidad;
+            // Cada sensor se lee en un momento distinto de la ronda
+            long fecha = inicioSimulado + ronda * intervaloMs + (long) i * intervaloMs / cantidad;
+            double hora = ((fecha - inicioSimulado) / 3_600_000.0) % 24;
+
+            Sensor sensor = sensores.get(i);
+            double valor;
+            if (congelados[i] > 0) {
+                congelados[i]--;
+                valor = ultimos[i];
+            } else {
+                valor = SimuladorSensores.valor(sensor, hora, random.nextGaussian());
+                if (random.nextDouble() < PROBABILIDAD_FALLA) {
+                    fallasInyectadas++;
+                    if (random.nextBoolean()) {
+                        valor += random.nextBoolean() ? 30 : -30;
+                    } else {
+                        congelados[i] = DURACION_CONGELADO;
+                    }
+                }
+            }
+            ultimos[i] = valor;
+
+            boolean medir = n % MUESTREO_LATENCIA == 0;
+            long antes = medir ? System.nanoTime() : 0;
+            Medicion medicion = new Medicion(valor, sensor.getId(), sensor.getTipo(),
+                    INICIO_SIMULADO.plus(fecha - inicioSimulado, ChronoUnit.MILLIS));
+            alertaService.verificarMedicion(medicion, lotes.get(i));
+            estadisticas.registrarMedicion(indices[i], valor, fecha);
+            if (medir) {
+                latencias.agregar(System.nanoTime() - antes);
+            }
+
+            if (nanosPorMedicion > 0 && (n & 1023) == 1023) {
+                long atraso = inicio + (long) ((n + 1) * nanosPorMedicion) - System.nanoTime();
+                if (atraso > 0) {
+                    LockSupport.parkNanos(atraso);
+                }
+            }
+        }
+        long duracion = System.nanoTime() - inicio;
+
+        long alertasNuevas = alertaService.getAlertasGeneradas() - alertasAntes;
+        return new InformeCarga(gestorLotes.obtenerTodos().size(), cantidad, mediciones, tasaObjetivo,
+                Duration.ofNanos(duracion), alertasNuevas, fallasInyectadas, latencias);
+    }
+
+    public long getSemilla() {
+        return semilla;
+    }
+
+    public static void main(String[] args) {
+        int lotes = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int sensoresPorLote = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long mediciones = args.length > 2 ? Long.parseLong(args[2]) : 1_000_000;
+        double tasa = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        long semilla = args.length > 4 ? Long.parseLong(args[4]) : SEMILLA_POR_DEFECTO;
+
+        GeneradorCarga generador = new GeneradorCarga(semilla);
+        GestorLotes gestorLotes = new GestorLotes();
+        long inicio = System.nanoTime();
+        generador.construirFinca(gestorLotes, lotes, sensoresPorLote);
+        System.out.printf("[CARGA] Finca de %d lotes y %d sensores generada en %d ms (semilla %d)%n", lotes,
+                lotes * sensoresPorLote, (System.nanoTime() - inicio) / 1_000_000, semilla);
+
+        InformeCarga informe = generador.reproducir(gestorLotes, new AlertaService(), new EstadisticasService(),
+                mediciones, tasa);
+        System.out.println(informe);
+    }
+}
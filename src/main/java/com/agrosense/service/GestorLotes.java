@@ -1,46 +1,214 @@
 package com.agrosense.service;
 
 import com.agrosense.model.Lote;
-import java.util.ArrayList;
+import com.agrosense.model.Sensor;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Registro de lotes indexado por ID de lote y por ID de sensor.
+ *
+ * Los sensores de un lote registrado deben agregarse, eliminarse o renombrarse
+ * a través de este gestor para que el índice inverso (sensor -> lote) se
+ * mantenga sincronizado. Los IDs de sensor son únicos en todo el sistema.
+ *
+ * Es seguro para uso concurrente: las escrituras se serializan entre sí, las
+ * búsquedas usan mapas concurrentes sin bloqueo y {@link #obtenerTodos()}
+ * devuelve una instantánea inmutable que se puede recorrer mientras otros
+ * hilos modifican el registro.
+ *
+ * {@link #getVersion()} cambia cuando se registra, reemplaza o elimina un
+ * lote; los cambios dentro de un lote se reflejan en {@link Lote#getVersion()}.
+ */
 public class GestorLotes {
-    private List<Lote> lotes;
+    // Orden de registro; solo se accede con el lock del gestor
+    private final Map<String, Lote> lotes;
+    // Índices de lectura sin bloqueo
+    private final Map<String, Lote> indiceLotes;
+    private final Map<String, Lote> lotePorSensor;
+    // Instantánea publicada de lotes; null cuando hay que reconstruirla
+    private volatile List<Lote> instantanea;
+    private volatile long version;
 
     public GestorLotes() {
-        this.lotes = new ArrayList<>();
+        this.lotes = new LinkedHashMap<>();
+        this.indiceLotes = new ConcurrentHashMap<>();
+        this.lotePorSensor = new ConcurrentHashMap<>();
+        this.instantanea = List.of();
     }
 
-    public void registrarLote(Lote lote) {
-        if (buscarPorId(lote.getId()).isPresent()) {
+    public synchronized void registrarLote(Lote lote) {
+        if (lotes.containsKey(lote.getId())) {
             throw new IllegalArgumentException("Ya existe un lote con ID: " + lote.getId());
         }
-        lotes.add(lote);
+        validarSensores(lote);
+        lotes.put(lote.getId(), lote);
+        indiceLotes.put(lote.getId(), lote);
+        indexarSensores(lote);
+        instantanea = null;
+        version++;
     }
 
-    public void actualizarLote(Lote lote) {
-        Optional<Lote> existente = buscarPorId(lote.getId());
-        if (existente.isEmpty()) {
+    public synchronized void actualizarLote(Lote lote) {
+        Lote existente = lotes.get(lote.getId());
+        if (existente == null) {
             throw new IllegalArgumentException("No existe un lote con ID: " + lote.getId());
         }
-        lotes.remove(existente.get());
-        lotes.add(lote);
+        desindexarSensores(existente);
+        try {
+            validarSensores(lote);
+        } catch (IllegalArgumentException e) {
+            indexarSensores(existente);
+            throw e;
+        }
+        // put sobre una clave existente conserva su posición
+        lotes.put(lote.getId(), lote);
+        indiceLotes.put(lote.getId(), lote);
+        indexarSensores(lote);
+        instantanea = null;
+        version++;
     }
 
-    public boolean eliminarLote(String id) {
-        return lotes.removeIf(l -> l.getId().equals(id));
+    public synchronized boolean eliminarLote(String id) {
+        Lote eliminado = lotes.remove(id);
+        if (eliminado == null) {
+            return false;
+        }
+        indiceLotes.remove(id);
+        desindexarSensores(eliminado);
+        instantanea = null;
+        version++;
+        return true;
     }
 
+    /**
+     * Devuelve una instantánea inmutable de los lotes en orden de registro. Se
+     * reconstruye solo después de una modificación.
+     */
     public List<Lote> obtenerTodos() {
-        return lotes;
+        List<Lote> actual = instantanea;
+        if (actual == null) {
+            synchronized (this) {
+                actual = instantanea;
+                if (actual == null) {
+                    actual = List.copyOf(lotes.values());
+                    instantanea = actual;
+                }
+            }
+        }
+        return actual;
+    }
+
+    /** Cambia cada vez que cambia el conjunto de lotes registrados */
+    public long getVersion() {
+        return version;
     }
 
     public Optional<Lote> buscarPorId(String id) {
-        return lotes.stream().filter(l -> l.getId().equals(id)).findFirst();
+        return Optional.ofNullable(indiceLotes.get(id));
+    }
+
+    /**
+     * Obtiene el lote al que pertenece un sensor
+     */
+    public Optional<Lote> buscarLotePorSensor(String sensorId) {
+        return Optional.ofNullable(lotePorSensor.get(sensorId));
+    }
+
+    public Optional<Sensor> buscarSensor(String sensorId) {
+        Lote lote = lotePorSensor.get(sensorId);
+        if (lote == null) {
+            return Optional.empty();
+        }
+        return lote.getSensores().stream().filter(s -> s.getId().equals(sensorId)).findFirst();
+    }
+
+    /**
+     * Agrega un sensor a un lote registrado
+     */
+    public synchronized void agregarSensor(String loteId, Sensor sensor) {
+        Lote lote = lotes.get(loteId);
+        if (lote == null) {
+            throw new IllegalArgumentException("No existe un lote con ID: " + loteId);
+        }
+        if (lotePorSensor.containsKey(sensor.getId())) {
+            throw new IllegalArgumentException("Ya existe un sensor con ID: " + sensor.getId());
+        }
+        lote.agregarSensor(sensor);
+        lotePorSensor.put(sensor.getId(), lote);
+    }
+
+    /**
+     * Elimina un sensor del lote al que pertenece
+     */
+    public synchronized boolean eliminarSensor(String sensorId) {
+        Lote lote = lotePorSensor.remove(sensorId);
+        if (lote == null) {
+            return false;
+        }
+        lote.eliminarSensor(sensorId);
+        return true;
     }
 
-    public void limpiar() {
+    /**
+     * Cambia el ID de un sensor registrado manteniendo el índice
+     */
+    public synchronized void cambiarIdSensor(Sensor sensor, String nuevoId) {
+        if (sensor.getId().equals(nuevoId)) {
+            return;
+        }
+        if (lotePorSensor.containsKey(nuevoId)) {
+            throw new IllegalArgumentException("Ya existe un sensor con ID: " + nuevoId);
+        }
+        Lote lote = lotePorSensor.remove(sensor.getId());
+        sensor.setId(nuevoId);
+        if (lote != null) {
+            lotePorSensor.put(nuevoId, lote);
+            lote.marcarModificado();
+        }
+    }
+
+    /**
+     * Cambia la ubicación de un sensor registrado
+     */
+    public synchronized void cambiarUbicacionSensor(Sensor sensor, String ubicacion) {
+        sensor.setUbicacion(ubicacion);
+        Lote lote = lotePorSensor.get(sensor.getId());
+        if (lote != null) {
+            lote.marcarModificado();
+        }
+    }
+
+    public synchronized void limpiar() {
         lotes.clear();
+        indiceLotes.clear();
+        lotePorSensor.clear();
+        instantanea = List.of();
+        version++;
+    }
+
+    private void validarSensores(Lote lote) {
+        Map<String, Boolean> vistos = new HashMap<>();
+        for (Sensor sensor : lote.getSensores()) {
+            if (lotePorSensor.containsKey(sensor.getId()) || vistos.put(sensor.getId(), Boolean.TRUE) != null) {
+                throw new IllegalArgumentException("Ya existe un sensor con ID: " + sensor.getId());
+            }
+        }
+    }
+
+    private void indexarSensores(Lote lote) {
+        for (Sensor sensor : lote.getSensores()) {
+            lotePorSensor.put(sensor.getId(), lote);
+        }
+    }
+
+    private void desindexarSensores(Lote lote) {
+        for (Sensor sensor : lote.getSensores()) {
+            lotePorSensor.remove(sensor.getId(), lote);
+        }
     }
 }
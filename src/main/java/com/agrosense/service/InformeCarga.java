@@ -0,0 +1,88 @@
+package com.agrosense.service;
+
+import java.time.Duration;
+
+/**
+ * Resultado de una corrida de {@link GeneradorCarga}.
+ */
+public class InformeCarga {
+    private final int lotes;
+    private final int sensores;
+    private final long mediciones;
+    private final double tasaObjetivo;
+    private final Duration duracion;
+    private final long alertasGeneradas;
+    private final long fallasInyectadas;
+    private final BocetoCuantiles latenciasNanos;
+
+    InformeCarga(int lotes, int sensores, long mediciones, double tasaObjetivo, Duration duracion,
+            long alertasGeneradas, long fallasInyectadas, BocetoCuantiles latenciasNanos) {
+        this.lotes = lotes;
+        this.sensores = sensores;
+        this.mediciones = mediciones;
+        this.tasaObjetivo = tasaObjetivo;
+        this.duracion = duracion;
+        this.alertasGeneradas = alertasGeneradas;
+        this.fallasInyectadas = fallasInyectadas;
+        this.latenciasNanos = latenciasNanos;
+    }
+
+    /** Mediciones por segundo logradas */
+    public double getTasaLograda() {
+        double segundos = duracion.toNanos() / 1e9;
+        return segundos > 0 ? mediciones / segundos : 0;
+    }
+
+    public double getTasaObjetivo() {
+        return tasaObjetivo;
+    }
+
+    public long getMediciones() {
+        return mediciones;
+    }
+
+    public Duration getDuracion() {
+        return duracion;
+    }
+
+    public long getAlertasGeneradas() {
+        return alertasGeneradas;
+    }
+
+    public long getFallasInyectadas() {
+        return fallasInyectadas;
+    }
+
+    /** Latencia por medición (AlertaService + EstadisticasService) en el cuantil q, en ns */
+    public double getLatenciaNanos(double q) {
+        return latenciasNanos.cuantil(q);
+    }
+
+    public int getLotes() {
+        return lotes;
+    }
+
+    public int getSensores() {
+        return sensores;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder informe = new StringBuilder("=== INFORME DE CARGA ===\n");
+        informe.append(String.format("Finca: %d lotes, %d sensores%n", lotes, sensores));
+        informe.append(String.format("Mediciones: %d en %.2f s%n", mediciones, duracion.toNanos() / 1e9));
+        informe.append(String.format("Tasa lograda: %.0f med/s", getTasaLograda()));
+        if (tasaObjetivo > 0) {
+            informe.append(String.format(" (objetivo %.0f med/s)", tasaObjetivo));
+        }
+        informe.append("\n");
+        if (latenciasNanos.getCantidad() > 0) {
+            informe.append(String.format("Latencia por medición: p50 %.1f µs, p99 %.1f µs, máx. %.1f µs%n",
+                    latenciasNanos.cuantil(0.5) / 1000, latenciasNanos.cuantil(0.99) / 1000,
+                    latenciasNanos.getMaximo() / 1000));
+        }
+        informe.append(String.format("Fallas de sensor inyectadas: %d%n", fallasInyectadas));
+        informe.append(String.format("Alertas generadas: %d%n", alertasGeneradas));
+        return informe.toString();
+    }
+}
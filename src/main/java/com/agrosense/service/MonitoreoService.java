@@ -0,0 +1,481 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Lote;
+import com.agrosense.model.Medicion;
+import com.agrosense.model.Sensor;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Monitoreo continuo: lee cada sensor programado a su intervalo, sin que
+ * nadie lo pida.
+ *
+ * Todas las programaciones viven en una única agenda ordenada por la próxima
+ * lectura. Un hilo planificador toma las que vencen (agrupando las que vencen
+ * dentro de {@link #AGRUPACION}) y las pide en un solo lote a
+ * {@link SensorService#leerSensores}; las mediciones se entregan al
+ * consumidor desde un único hilo de entrega, en orden. Así decenas de miles
+ * de sensores usan dos hilos más los de lectura.
+ *
+ * El intervalo de un sensor es el suyo propio si se configuró, o el de su
+ * tipo. La primera lectura se ubica en un punto al azar del intervalo y cada
+ * lectura se corre un poco al azar ({@code jitter}) para no pedir todos los
+ * sensores a la vez. Si se perdieron lecturas (pausa, lecturas lentas), se
+ * hace una sola lectura y se sigue en el próximo turno que corresponda; las
+ * perdidas se cuentan en {@link #getLecturasPerdidas()}.
+ */
+public class MonitoreoService {
+    public enum Estado {
+        DETENIDO, ACTIVO, PAUSADO
+    }
+
+    /**
+     * Recibe cada medición programada. Se llama siempre desde el mismo hilo.
+     */
+    public interface ConsumidorLectura {
+        void aceptar(String loteId, Sensor sensor, Medicion medicion);
+    }
+
+    public static final Duration INTERVALO_HUMEDAD = Duration.ofSeconds(60);
+    public static final Duration INTERVALO_TEMPERATURA = Duration.ofMinutes(5);
+    public static final Duration INTERVALO_POR_DEFECTO = Duration.ofMinutes(5);
+    // Fracción del intervalo en que se corre al azar cada lectura
+    public static final double JITTER_POR_DEFECTO = 0.1;
+    // Lecturas que vencen dentro de este margen se piden en el mismo lote
+    public static final Duration AGRUPACION = Duration.ofMillis(100);
+
+    private final SensorService sensorService;
+    private final ConsumidorLectura consumidor;
+    private final double jitter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition cambio = lock.newCondition();
+    private final Map<String, Duration> intervalosPorTipo = new HashMap<>();
+    private final Map<String, Duration> intervalosPorSensor = new HashMap<>();
+    private final Map<String, Programacion> programaciones = new HashMap<>();
+    private final PriorityQueue<Programacion> agenda = new PriorityQueue<>(
+            Comparator.comparingLong((Programacion p) -> p.proxima));
+    private Estado estado = Estado.DETENIDO;
+    private Thread planificador;
+    private ExecutorService entrega;
+
+    private long lecturasEntregadas;
+    private long lecturasPerdidas;
+    private long sinLectura;
+
+    public MonitoreoService(SensorService sensorService, ConsumidorLectura consumidor) {
+        this(sensorService, consumidor, JITTER_POR_DEFECTO);
+    }
+
+    /**
+     * @param jitter fracción del intervalo (entre 0 y 1) en que se corre al
+     *               azar cada lectura
+     */
+    public MonitoreoService(SensorService sensorService, ConsumidorLectura consumidor, double jitter) {
+        if (!(jitter >= 0 && jitter <= 1)) {
+            throw new IllegalArgumentException("El jitter debe estar en [0, 1]");
+        }
+        this.sensorService = sensorService;
+        this.consumidor = consumidor;
+        this.jitter = jitter;
+        intervalosPorTipo.put("HUMEDAD", INTERVALO_HUMEDAD);
+        intervalosPorTipo.put("TEMPERATURA", INTERVALO_TEMPERATURA);
+    }
+
+    /** Sensor programado y su próxima lectura (en {@code System.nanoTime()}) */
+    private static final class Programacion {
+        final String loteId;
+        final Sensor sensor;
+        long intervalo;
+        long base; // turno que corresponde, sin jitter
+        long proxima; // turno con jitter; es la clave de la agenda
+        boolean cancelada;
+        boolean enCurso;
+
+        Programacion(String loteId, Sensor sensor) {
+            this.loteId = loteId;
+            this.sensor = sensor;
+        }
+    }
+
+    // --- Configuración ---
+
+    public void setIntervaloTipo(String tipoSensor, Duration intervalo) {
+        validarIntervalo(intervalo);
+        lock.lock();
+        try {
+            intervalosPorTipo.put(tipoSensor.toUpperCase(), intervalo);
+            for (Programacion programacion : programaciones.values()) {
+                if (programacion.sensor.getTipo().equalsIgnoreCase(tipoSensor)) {
+                    reprogramar(programacion);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Intervalo propio de un sensor; null vuelve al de su tipo.
+     */
+    public void setIntervaloSensor(String sensorId, Duration intervalo) {
+        if (intervalo != null) {
+            validarIntervalo(intervalo);
+        }
+        lock.lock();
+        try {
+            if (intervalo != null) {
+                intervalosPorSensor.put(sensorId, intervalo);
+            } else {
+                intervalosPorSensor.remove(sensorId);
+            }
+            Programacion programacion = programaciones.get(sensorId);
+            if (programacion != null) {
+                reprogramar(programacion);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void validarIntervalo(Duration intervalo) {
+        if (intervalo == null || intervalo.compareTo(AGRUPACION) < 0) {
+            throw new IllegalArgumentException("El intervalo debe ser de al menos " + AGRUPACION.toMillis() + " ms");
+        }
+    }
+
+    private long intervaloDe(Sensor sensor) {
+        Duration intervalo = intervalosPorSensor.get(sensor.getId());
+        if (intervalo == null) {
+            intervalo = intervalosPorTipo.getOrDefault(sensor.getTipo().toUpperCase(), INTERVALO_POR_DEFECTO);
+        }
+        return intervalo.toNanos();
+    }
+
+    // --- Sensores programados ---
+
+    /**
+     * Programa (o reprograma) la lectura periódica de un sensor.
+     */
+    public void programar(String loteId, Sensor sensor) {
+        lock.lock();
+        try {
+            Programacion anterior = programaciones.remove(sensor.getId());
+            if (anterior != null) {
+                anterior.cancelada = true;
+            }
+            Programacion programacion = new Programacion(loteId, sensor);
+            programaciones.put(sensor.getId(), programacion);
+            programacion.intervalo = intervaloDe(sensor);
+            // Primera lectura en un punto al azar del intervalo
+            programacion.base = System.nanoTime()
+                    + (long) (ThreadLocalRandom.current().nextDouble() * programacion.intervalo);
+            programacion.proxima = programacion.base;
+            agenda.add(programacion);
+            cambio.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reemplaza lo programado por todos los sensores de los lotes.
+     */
+    public void programarLotes(GestorLotes gestorLotes) {
+        lock.lock();
+        try {
+            cancelarTodos();
+            for (Lote lote : gestorLotes.obtenerTodos()) {
+                for (Sensor sensor : lote.getSensores()) {
+                    programar(lote.getId(), sensor);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void cancelar(String sensorId) {
+        lock.lock();
+        try {
+            Programacion programacion = programaciones.remove(sensorId);
+            if (programacion != null) {
+                // Se descarta de la agenda cuando llega su turno
+                programacion.cancelada = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void cancelarTodos() {
+        lock.lock();
+        try {
+            programaciones.clear();
+            agenda.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Aplica un cambio de intervalo manteniendo la fase de la última lectura */
+    private void reprogramar(Programacion programacion) {
+        long intervalo = intervaloDe(programacion.sensor);
+        if (intervalo == programacion.intervalo) {
+            return;
+        }
+        agenda.remove(programacion);
+        programacion.base += intervalo - programacion.intervalo;
+        programacion.intervalo = intervalo;
+        programacion.proxima = programacion.base;
+        agenda.add(programacion);
+        cambio.signal();
+    }
+
+    // --- Ciclo de vida ---
+
+    public void iniciar() {
+        lock.lock();
+        try {
+            if (estado != Estado.DETENIDO) {
+                return;
+            }
+            estado = Estado.ACTIVO;
+            entrega = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "agrosense-monitoreo-entrega");
+                t.setDaemon(true);
+                return t;
+            });
+            planificador = new Thread(this::planificar, "agrosense-monitoreo");
+            planificador.setDaemon(true);
+            planificador.start();
+        } finally {
+            lock.unlock();
+        }
+        System.out.println("[MONITOREO] Iniciado con " + getProgramados() + " sensores");
+    }
+
+    /**
+     * Deja de pedir lecturas sin perder lo programado; las lecturas en curso
+     * se entregan igual.
+     */
+    public void pausar() {
+        cambiarEstado(Estado.ACTIVO, Estado.PAUSADO);
+    }
+
+    public void reanudar() {
+        cambiarEstado(Estado.PAUSADO, Estado.ACTIVO);
+    }
+
+    private void cambiarEstado(Estado desde, Estado hacia) {
+        lock.lock();
+        try {
+            if (estado == desde) {
+                estado = hacia;
+                cambio.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Detiene el planificador y espera a que se entreguen las lecturas ya
+     * recibidas.
+     */
+    public void detener() {
+        Thread hilo;
+        ExecutorService pendiente;
+        lock.lock();
+        try {
+            if (estado == Estado.DETENIDO) {
+                return;
+            }
+            estado = Estado.DETENIDO;
+            cambio.signal();
+            hilo = planificador;
+            pendiente = entrega;
+            planificador = null;
+            entrega = null;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            hilo.join();
+            pendiente.shutdown();
+            if (!pendiente.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("[MONITOREO] Quedaron lecturas sin entregar");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("[MONITOREO] Detenido: " + lecturasEntregadas + " lecturas, " + lecturasPerdidas
+                + " perdidas, " + sinLectura + " sin lectura");
+    }
+
+    private void planificar() {
+        lock.lock();
+        try {
+            while (estado != Estado.DETENIDO) {
+                if (estado == Estado.PAUSADO || agenda.isEmpty()) {
+                    cambio.await();
+                    continue;
+                }
+                long ahora = System.nanoTime();
+                long espera = agenda.peek().proxima - ahora;
+                if (espera > 0) {
+                    cambio.awaitNanos(espera);
+                    continue;
+                }
+                List<Programacion> lote = tomarVencidas(ahora + AGRUPACION.toNanos(), ahora);
+                if (!lote.isEmpty()) {
+                    despachar(lote);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Saca de la agenda lo que vence antes de {@code limite} y lo reprograma */
+    private List<Programacion> tomarVencidas(long limite, long ahora) {
+        List<Programacion> lote = new ArrayList<>();
+        while (!agenda.isEmpty() && agenda.peek().proxima <= limite) {
+            Programacion programacion = agenda.poll();
+            if (programacion.cancelada) {
+                continue;
+            }
+            long intervalo = programacion.intervalo;
+            // Turnos que ya pasaron sin leer: se hace una sola lectura
+            long perdidos = Math.max(0, (ahora - programacion.base) / intervalo);
+            lecturasPerdidas += perdidos;
+            programacion.base += (perdidos + 1) * intervalo;
+            long corrimiento = (long) ((ThreadLocalRandom.current().nextDouble() - 0.5) * jitter * intervalo);
+            programacion.proxima = programacion.base + corrimiento;
+            agenda.add(programacion);
+
+            if (programacion.enCurso) {
+                // La lectura anterior todavía no volvió
+                lecturasPerdidas++;
+            } else {
+                programacion.enCurso = true;
+                lote.add(programacion);
+            }
+        }
+        return lote;
+    }
+
+    private void despachar(List<Programacion> lote) {
+        List<Sensor> sensores = new ArrayList<>(lote.size());
+        for (Programacion programacion : lote) {
+            sensores.add(programacion.sensor);
+        }
+        ExecutorService destino = entrega;
+        sensorService.leerSensores(sensores).thenAcceptAsync(resultado -> entregar(lote, resultado), destino)
+                .exceptionally(e -> {
+                    // Detenido antes de entregar: se liberan las programaciones
+                    liberar(lote);
+                    return null;
+                });
+    }
+
+    private void entregar(List<Programacion> lote, ResultadoLecturas resultado) {
+        int entregadas = 0;
+        for (Programacion programacion : lote) {
+            OptionalDouble valor = resultado.getLectura(programacion.sensor);
+            if (valor.isEmpty()) {
+                continue;
+            }
+            Sensor sensor = programacion.sensor;
+            try {
+                consumidor.aceptar(programacion.loteId, sensor,
+                        new Medicion(valor.getAsDouble(), sensor.getId(), sensor.getTipo()));
+                entregadas++;
+            } catch (RuntimeException e) {
+                System.err.println("[MONITOREO] Error al procesar " + sensor.getId() + ": " + e.getMessage());
+            }
+        }
+        lock.lock();
+        try {
+            lecturasEntregadas += entregadas;
+            sinLectura += lote.size() - resultado.getLecturas().size();
+        } finally {
+            lock.unlock();
+        }
+        liberar(lote);
+    }
+
+    private void liberar(List<Programacion> lote) {
+        lock.lock();
+        try {
+            for (Programacion programacion : lote) {
+                programacion.enCurso = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Estado y métricas ---
+
+    public Estado getEstado() {
+        lock.lock();
+        try {
+            return estado;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getProgramados() {
+        lock.lock();
+        try {
+            return programaciones.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLecturasEntregadas() {
+        lock.lock();
+        try {
+            return lecturasEntregadas;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Turnos en que no se leyó por pausa, atraso o lectura anterior en curso */
+    public long getLecturasPerdidas() {
+        lock.lock();
+        try {
+            return lecturasPerdidas;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Lecturas pedidas que vencieron o fallaron */
+    public long getSinLectura() {
+        lock.lock();
+        try {
+            return sinLectura;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
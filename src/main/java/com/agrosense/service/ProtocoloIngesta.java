@@ -0,0 +1,119 @@
+package com.agrosense.service;
+
+import java.net.ProtocolException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formato binario de las mediciones que los gateways envían a
+ * {@link ServidorIngesta}. Cada medición es un registro big-endian:
+ * <pre>
+ * byte    MARCA (0xA5)
+ * byte    tipo de sensor: TIPO_HUMEDAD o TIPO_TEMPERATURA
+ * byte    largo del ID del sensor, de 1 a MAX_ID
+ * byte[]  ID del sensor en US-ASCII
+ * long    fecha y hora en milisegundos desde la época
+ * double  valor
+ * </pre>
+ * Por TCP los registros van uno tras otro en el flujo; por UDP cada datagrama
+ * lleva uno o más registros completos.
+ */
+public final class ProtocoloIngesta {
+    public static final byte MARCA = (byte) 0xA5;
+    public static final byte TIPO_HUMEDAD = 0;
+    public static final byte TIPO_TEMPERATURA = 1;
+    public static final int MAX_ID = 64;
+    public static final int TAMANO_MAXIMO = 3 + MAX_ID + Long.BYTES + Double.BYTES;
+
+    /**
+     * Recibe cada medición decodificada.
+     */
+    public interface ConsumidorRegistro {
+        void aceptar(String sensorId, String tipoSensor, long epochMillis, double valor);
+    }
+
+    private ProtocoloIngesta() {
+    }
+
+    /** Bytes que ocupa el registro de un sensor */
+    public static int tamano(String sensorId) {
+        return 3 + sensorId.length() + Long.BYTES + Double.BYTES;
+    }
+
+    /**
+     * Escribe un registro en el buffer. Si falla, el buffer queda sin cambios.
+     *
+     * @throws IllegalArgumentException si el ID o el tipo no se pueden codificar
+     * @throws BufferOverflowException  si no hay lugar; ver {@link #tamano(String)}
+     */
+    public static void escribir(ByteBuffer destino, String sensorId, String tipoSensor, long epochMillis,
+            double valor) {
+        int largo = sensorId.length();
+        if (largo == 0 || largo > MAX_ID) {
+            throw new IllegalArgumentException("El ID del sensor debe tener entre 1 y " + MAX_ID + " caracteres");
+        }
+        byte tipo;
+        if (tipoSensor.equalsIgnoreCase("HUMEDAD")) {
+            tipo = TIPO_HUMEDAD;
+        } else if (tipoSensor.equalsIgnoreCase("TEMPERATURA")) {
+            tipo = TIPO_TEMPERATURA;
+        } else {
+            throw new IllegalArgumentException("Tipo de sensor no soportado: " + tipoSensor);
+        }
+        // Se valida todo antes de escribir para no dejar un registro a medias
+        for (int i = 0; i < largo; i++) {
+            if (sensorId.charAt(i) > 0x7F) {
+                throw new IllegalArgumentException("El ID del sensor debe ser ASCII: " + sensorId);
+            }
+        }
+        if (destino.remaining() < tamano(sensorId)) {
+            throw new BufferOverflowException();
+        }
+        destino.put(MARCA).put(tipo).put((byte) largo);
+        for (int i = 0; i < largo; i++) {
+            destino.put((byte) sensorId.charAt(i));
+        }
+        destino.putLong(epochMillis).putDouble(valor);
+    }
+
+    /**
+     * Decodifica todos los registros completos entre la posición y el límite
+     * del buffer. Si al final queda un registro incompleto, la posición queda
+     * en su comienzo para completarlo con la próxima lectura.
+     *
+     * @return cantidad de registros decodificados
+     * @throws ProtocolException si los datos no respetan el formato; la
+     *                           posición queda indefinida
+     */
+    public static int leer(ByteBuffer origen, ConsumidorRegistro consumidor) throws ProtocolException {
+        byte[] id = new byte[MAX_ID];
+        int registros = 0;
+        while (origen.remaining() >= 3) {
+            int inicio = origen.position();
+            if (origen.get(inicio) != MARCA) {
+                throw new ProtocolException("Marca de registro inválida en el byte " + inicio);
+            }
+            String tipoSensor = switch (origen.get(inicio + 1)) {
+                case TIPO_HUMEDAD -> "HUMEDAD";
+                case TIPO_TEMPERATURA -> "TEMPERATURA";
+                default -> throw new ProtocolException("Tipo de sensor desconocido: " + origen.get(inicio + 1));
+            };
+            int largo = origen.get(inicio + 2) & 0xFF;
+            if (largo == 0 || largo > MAX_ID) {
+                throw new ProtocolException("Largo de ID inválido: " + largo);
+            }
+            if (origen.remaining() < 3 + largo + Long.BYTES + Double.BYTES) {
+                break;
+            }
+            origen.position(inicio + 3);
+            origen.get(id, 0, largo);
+            String sensorId = new String(id, 0, largo, StandardCharsets.US_ASCII);
+            long epochMillis = origen.getLong();
+            double valor = origen.getDouble();
+            consumidor.aceptar(sensorId, tipoSensor, epochMillis, valor);
+            registros++;
+        }
+        return registros;
+    }
+}
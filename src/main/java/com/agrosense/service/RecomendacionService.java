@@ -11,7 +11,12 @@ public class RecomendacionService {
         List<Recomendacion> recomendaciones = new ArrayList<>();
 
         for (Alerta alerta : alertas) {
-            if (alerta.getMensaje().contains("Humedad")) {
+            if (alerta.getCategoria() == Alerta.Categoria.FALLA_SENSOR) {
+                recomendaciones.add(new Recomendacion(
+                        "El sensor " + alerta.getSensorId() + " reporta valores anómalos.",
+                        "Revisar conexión, alimentación y calibración del sensor antes de actuar sobre el riego.",
+                        alerta.getLoteId()));
+            } else if (alerta.getMensaje().contains("Humedad")) {
                 if (alerta.getNivel() == Alerta.Nivel.CRITICAL) {
                     recomendaciones.add(new Recomendacion(
                             "Suelo extremadamente seco detectado.",
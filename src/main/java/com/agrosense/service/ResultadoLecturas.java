@@ -0,0 +1,76 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Sensor;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+
+/**
+ * Resultado de una lectura por lotes: los valores leídos y los sensores que
+ * vencieron o fallaron. Los sensores se comparan por identidad.
+ */
+public class ResultadoLecturas {
+    private final int solicitadas;
+    private final Duration duracion;
+    private final Map<Sensor, Double> lecturas = new IdentityHashMap<>();
+    private final List<Sensor> vencidas = new ArrayList<>();
+    private final Map<Sensor, Throwable> fallas = new IdentityHashMap<>();
+
+    ResultadoLecturas(int solicitadas, Duration duracion) {
+        this.solicitadas = solicitadas;
+        this.duracion = duracion;
+    }
+
+    void agregarLectura(Sensor sensor, double valor) {
+        lecturas.put(sensor, valor);
+    }
+
+    void agregarVencida(Sensor sensor) {
+        vencidas.add(sensor);
+    }
+
+    void agregarFalla(Sensor sensor, Throwable causa) {
+        fallas.put(sensor, causa);
+    }
+
+    /** Valor leído del sensor, vacío si venció o falló */
+    public OptionalDouble getLectura(Sensor sensor) {
+        Double valor = lecturas.get(sensor);
+        return valor != null ? OptionalDouble.of(valor) : OptionalDouble.empty();
+    }
+
+    public Map<Sensor, Double> getLecturas() {
+        return Collections.unmodifiableMap(lecturas);
+    }
+
+    public List<Sensor> getVencidas() {
+        return Collections.unmodifiableList(vencidas);
+    }
+
+    public Map<Sensor, Throwable> getFallas() {
+        return Collections.unmodifiableMap(fallas);
+    }
+
+    public boolean esCompleto() {
+        return lecturas.size() == solicitadas;
+    }
+
+    public int getSolicitadas() {
+        return solicitadas;
+    }
+
+    /** Tiempo desde que se pidió el lote hasta la última lectura */
+    public Duration getDuracion() {
+        return duracion;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d lecturas en %d ms (%d vencidas, %d fallidas)", lecturas.size(), solicitadas,
+                duracion.toMillis(), vencidas.size(), fallas.size());
+    }
+}
@@ -1,27 +1,249 @@
 package com.agrosense.service;
 
 import com.agrosense.model.Sensor;
-import java.util.Random;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
+/**
+ * Lectura de sensores, de a uno o por lotes.
+ *
+ * Cada lectura se delega en un {@link DriverSensor}. Los drivers se descubren
+ * con {@link ServiceLoader}; se usa el primero que soporte el sensor, dando
+ * prioridad al indicado en la propiedad del sistema {@code agrosense.driver}.
+ * Si ninguno lo soporta se usa el {@link SimuladorSensores}.
+ *
+ * {@link #leerSensores} lee en paralelo con a lo sumo {@code concurrencia}
+ * lecturas en curso y un tiempo máximo por lectura, contado desde que la
+ * lectura empieza (no desde que se encola). Una lectura vencida se interrumpe
+ * y el resultado se completa igual con las lecturas que sí llegaron.
+ */
 public class SensorService {
-    private Random random;
+    public static final int CONCURRENCIA_POR_DEFECTO = 32;
+    public static final Duration TIMEOUT_POR_DEFECTO = Duration.ofSeconds(2);
+
+    private final List<DriverSensor> drivers;
+    private final DriverSensor porDefecto;
+    private final int concurrencia;
+    private final long timeoutNanos;
+    private ExecutorService lectores;
+    private ScheduledExecutorService temporizador;
+    private final Set<CompletableFuture<Double>> pendientes = ConcurrentHashMap.newKeySet();
 
     public SensorService() {
-        this.random = new Random();
+        this(CONCURRENCIA_POR_DEFECTO, TIMEOUT_POR_DEFECTO);
+    }
+
+    /**
+     * @param concurrencia lecturas simultáneas como máximo
+     * @param timeout      tiempo máximo de cada lectura
+     */
+    public SensorService(int concurrencia, Duration timeout) {
+        this(concurrencia, timeout, descubrirDrivers(System.getProperty("agrosense.driver")));
     }
 
-    // Simula una lectura para un sensor específico
-    // En una implementación real, esto conectaría con el hardware
+    /**
+     * @param drivers drivers a consultar, en orden de prioridad
+     */
+    public SensorService(int concurrencia, Duration timeout, List<DriverSensor> drivers) {
+        if (concurrencia < 1) {
+            throw new IllegalArgumentException("La concurrencia debe ser al menos 1");
+        }
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
+            throw new IllegalArgumentException("El timeout debe ser positivo");
+        }
+        this.concurrencia = concurrencia;
+        this.timeoutNanos = timeout.toNanos();
+        this.drivers = List.copyOf(drivers);
+        this.porDefecto = drivers.stream().filter(d -> d instanceof SimuladorSensores).findFirst()
+                .orElseGet(SimuladorSensores::new);
+    }
+
+    /**
+     * Drivers disponibles en el classpath; el preferido (si se indica y
+     * existe) queda primero.
+     */
+    public static List<DriverSensor> descubrirDrivers(String preferido) {
+        List<DriverSensor> encontrados = new ArrayList<>();
+        try {
+            for (DriverSensor driver : ServiceLoader.load(DriverSensor.class)) {
+                if (preferido != null && driver.getNombre().equalsIgnoreCase(preferido)) {
+                    encontrados.add(0, driver);
+                } else {
+                    encontrados.add(driver);
+                }
+            }
+        } catch (ServiceConfigurationError e) {
+            System.err.println("[SENSORES] Driver inválido: " + e.getMessage());
+        }
+        boolean hallado = !encontrados.isEmpty() && encontrados.get(0).getNombre().equalsIgnoreCase(preferido);
+        if (preferido != null && !hallado) {
+            System.err.println("[SENSORES] No se encontró el driver " + preferido);
+        }
+        return encontrados;
+    }
+
+    /**
+     * Lee un sensor con el driver que le corresponde. Puede bloquear.
+     *
+     * @throws UncheckedIOException si el driver no pudo leer
+     */
     public double leerSensor(Sensor sensor) {
-        // Simulación básica:
-        // Humedad: 0 - 100%
-        // Temperatura: 10 - 40 °C
+        try {
+            return driverPara(sensor).leer(sensor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private DriverSensor driverPara(Sensor sensor) {
+        for (DriverSensor driver : drivers) {
+            if (driver.soporta(sensor)) {
+                return driver;
+            }
+        }
+        return porDefecto;
+    }
+
+    public List<DriverSensor> getDrivers() {
+        return drivers;
+    }
+
+    public CompletableFuture<ResultadoLecturas> leerSensores(Collection<? extends Sensor> sensores) {
+        return leerSensores(sensores, null);
+    }
+
+    /**
+     * Lee todos los sensores en paralelo. El futuro se completa cuando cada
+     * lectura terminó, falló o venció; nunca se completa con error.
+     *
+     * @param alLeer si no es null, se llama con cada lectura exitosa apenas
+     *               llega, desde el hilo que la leyó
+     */
+    public CompletableFuture<ResultadoLecturas> leerSensores(Collection<? extends Sensor> sensores,
+            BiConsumer<Sensor, Double> alLeer) {
+        long inicio = System.nanoTime();
+        List<Sensor> solicitados = new ArrayList<>(sensores);
+        List<CompletableFuture<Double>> lecturas = new ArrayList<>(solicitados.size());
+        for (Sensor sensor : solicitados) {
+            lecturas.add(leerConTimeout(sensor, alLeer));
+        }
+        return CompletableFuture.allOf(lecturas.toArray(new CompletableFuture<?>[0]))
+                .handle((ignorado, error) -> armarResultado(solicitados, lecturas, System.nanoTime() - inicio));
+    }
+
+    private synchronized CompletableFuture<Double> leerConTimeout(Sensor sensor, BiConsumer<Sensor, Double> alLeer) {
+        iniciarHilos();
+        CompletableFuture<Double> lectura = new CompletableFuture<>();
+        pendientes.add(lectura);
+        lectura.whenComplete((v, e) -> pendientes.remove(lectura));
+        lectores.execute(() -> {
+            if (lectura.isDone()) {
+                return;
+            }
+            Thread hilo = Thread.currentThread();
+            // Evita interrumpir al hilo cuando ya pasó a otra lectura
+            Object enCurso = new Object();
+            boolean[] terminada = new boolean[1];
+            ScheduledFuture<?> vencimiento = temporizador.schedule(() -> {
+                synchronized (enCurso) {
+                    if (!terminada[0]
+                            && lectura.completeExceptionally(new TimeoutException("Lectura vencida: " + sensor.getId()))) {
+                        hilo.interrupt();
+                    }
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            try {
+                double valor = leerSensor(sensor);
+                if (lectura.complete(valor) && alLeer != null) {
+                    alLeer.accept(sensor, valor);
+                }
+            } catch (UncheckedIOException e) {
+                lectura.completeExceptionally(e.getCause());
+            } catch (RuntimeException e) {
+                lectura.completeExceptionally(e);
+            } finally {
+                vencimiento.cancel(false);
+                synchronized (enCurso) {
+                    terminada[0] = true;
+                }
+                Thread.interrupted();
+            }
+        });
+        return lectura;
+    }
+
+    private static ResultadoLecturas armarResultado(List<Sensor> sensores, List<CompletableFuture<Double>> lecturas,
+            long duracionNanos) {
+        ResultadoLecturas resultado = new ResultadoLecturas(sensores.size(), Duration.ofNanos(duracionNanos));
+        for (int i = 0; i < sensores.size(); i++) {
+            Sensor sensor = sensores.get(i);
+            try {
+                resultado.agregarLectura(sensor, lecturas.get(i).join());
+            } catch (CompletionException | CancellationException e) {
+                Throwable causa = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (causa instanceof TimeoutException) {
+                    resultado.agregarVencida(sensor);
+                } else {
+                    resultado.agregarFalla(sensor, causa);
+                }
+            }
+        }
+        return resultado;
+    }
+
+    private void iniciarHilos() {
+        if (lectores != null) {
+            return;
+        }
+        AtomicInteger numero = new AtomicInteger();
+        lectores = Executors.newFixedThreadPool(concurrencia, r -> {
+            Thread t = new Thread(r, "agrosense-lectura-" + numero.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "agrosense-lectura-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int getConcurrencia() {
+        return concurrencia;
+    }
 
-        if (sensor.getTipo().equalsIgnoreCase("HUMEDAD")) {
-            return 10 + (90 * random.nextDouble()); // 10% a 100%
-        } else if (sensor.getTipo().equalsIgnoreCase("TEMPERATURA")) {
-            return 15 + (25 * random.nextDouble()); // 15°C a 40°C
+    /**
+     * Detiene los hilos de lectura; las lecturas en curso se interrumpen.
+     */
+    public synchronized void cerrar() {
+        if (lectores != null) {
+            lectores.shutdownNow();
+            temporizador.shutdownNow();
+            // Las lecturas que no llegaron a empezar no se completarían nunca
+            for (CompletableFuture<Double> lectura : pendientes) {
+                lectura.cancel(false);
+            }
+            lectores = null;
+            temporizador = null;
         }
-        return 0.0;
     }
 }
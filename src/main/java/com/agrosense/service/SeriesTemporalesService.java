@@ -0,0 +1,530 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Medicion;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Almacén en disco del histórico de mediciones por sensor.
+ *
+ * Cada sensor tiene una carpeta con segmentos. Un segmento es un archivo de
+ * registros de 16 bytes (marca de tiempo en milisegundos y valor) preasignado
+ * con una capacidad fija; las posiciones aún no escritas quedan en cero.
+ * Dentro de un segmento las marcas de tiempo son crecientes, por lo que las
+ * consultas por rango usan búsqueda binaria y no cargan el histórico en el
+ * heap.
+ *
+ * Solo el último segmento de cada sensor admite escrituras y está mapeado en
+ * memoria. Una muestra que llega desordenada (gateways con reintentos, UDP) se
+ * inserta en su lugar si cae dentro de los últimos
+ * {@link #TOLERANCIA_DESORDEN} registros; solo una más atrasada abre un
+ * segmento nuevo. Los segmentos cerrados no se mapean: se leen con lecturas
+ * posicionales, así que abrir el histórico (por ejemplo para depurarlo al
+ * iniciar) no mapea nada y sus archivos se pueden borrar también en Windows.
+ */
+public class SeriesTemporalesService {
+
+    private static final String DATA_DIR = "data/series";
+    private static final String EXTENSION = ".seg";
+    private static final int BYTES_REGISTRO = 16;
+    // 65536 registros = 1 MiB por segmento (unos 45 días a una lectura por minuto)
+    private static final int CAPACIDAD_SEGMENTO = 65536;
+    // Registros que se pueden desplazar para insertar una muestra desordenada
+    static final int TOLERANCIA_DESORDEN = 4096;
+    // Registros por lectura al consultar un segmento cerrado
+    private static final int REGISTROS_POR_LECTURA = 4096;
+
+    /**
+     * Recibe las muestras de una consulta.
+     */
+    @FunctionalInterface
+    public interface ConsumidorMuestra {
+        void aceptar(long epochMillis, double valor);
+    }
+
+    private final Path directorio;
+    private final int capacidadSegmento;
+    private final Map<String, Serie> series = new ConcurrentHashMap<>();
+
+    public SeriesTemporalesService() {
+        this(Paths.get(DATA_DIR), CAPACIDAD_SEGMENTO);
+    }
+
+    public SeriesTemporalesService(Path directorio, int capacidadSegmento) {
+        if (capacidadSegmento <= 0 || capacidadSegmento > Integer.MAX_VALUE / BYTES_REGISTRO) {
+            throw new IllegalArgumentException("Capacidad de segmento inválida: " + capacidadSegmento);
+        }
+        this.directorio = directorio;
+        this.capacidadSegmento = capacidadSegmento;
+    }
+
+    /**
+     * Agrega una medición al histórico de su sensor.
+     */
+    public void registrar(Medicion medicion) throws IOException {
+        long epochMillis = medicion.getFechaHora().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        registrar(medicion.getSensorId(), epochMillis, medicion.getValor());
+    }
+
+    public void registrar(String sensorId, long epochMillis, double valor) throws IOException {
+        if (epochMillis <= 0) {
+            throw new IllegalArgumentException("La marca de tiempo debe ser positiva");
+        }
+        obtenerSerie(sensorId).agregar(epochMillis, valor);
+    }
+
+    /**
+     * Recorre las muestras de un sensor con marca de tiempo en [desde, hasta].
+     * Las muestras se entregan en orden creciente dentro de cada segmento.
+     */
+    public void consultar(String sensorId, long desde, long hasta, ConsumidorMuestra consumidor) throws IOException {
+        Serie serie = obtenerSerieExistente(sensorId);
+        if (serie != null) {
+            serie.consultar(desde, hasta, consumidor);
+        }
+    }
+
+    public void consultar(String sensorId, LocalDateTime desde, LocalDateTime hasta, ConsumidorMuestra consumidor)
+            throws IOException {
+        ZoneId zona = ZoneId.systemDefault();
+        consultar(sensorId, desde.atZone(zona).toInstant().toEpochMilli(),
+                hasta.atZone(zona).toInstant().toEpochMilli(), consumidor);
+    }
+
+    /**
+     * Cantidad de muestras de un sensor en el rango [desde, hasta].
+     */
+    public long contar(String sensorId, long desde, long hasta) throws IOException {
+        long[] total = new long[1];
+        consultar(sensorId, desde, hasta, (t, v) -> total[0]++);
+        return total[0];
+    }
+
+    /**
+     * Fuerza a disco los segmentos que se están escribiendo.
+     */
+    public void sincronizar() {
+        for (Serie serie : series.values()) {
+            serie.sincronizar();
+        }
+    }
+
+    /**
+     * Borra los segmentos cuyas muestras son todas anteriores a {@code antesDe}.
+     * El segmento en escritura de cada sensor se conserva. Pensado para
+     * descartar el histórico crudo ya cubierto por los agregados de
+     * {@link AgregadosTemporalesService}.
+     *
+     * @return cantidad de segmentos borrados
+     */
+    public int depurar(long antesDe) throws IOException {
+        if (Files.isDirectory(directorio)) {
+            try (Stream<Path> carpetas = Files.list(directorio)) {
+                for (Path carpeta : carpetas.filter(Files::isDirectory).toList()) {
+                    String sensorId = sensorDeCarpeta(carpeta.getFileName().toString());
+                    if (sensorId != null) {
+                        obtenerSerie(sensorId);
+                    }
+                }
+            }
+        }
+        int borrados = 0;
+        for (Serie serie : series.values()) {
+            borrados += serie.depurar(antesDe);
+        }
+        return borrados;
+    }
+
+    public void cerrar() {
+        for (Serie serie : series.values()) {
+            serie.cerrar();
+        }
+        series.clear();
+    }
+
+    private Serie obtenerSerie(String sensorId) throws IOException {
+        Serie serie = series.get(sensorId);
+        if (serie == null) {
+            Serie nueva = new Serie(directorio.resolve(nombreCarpeta(sensorId)));
+            serie = series.putIfAbsent(sensorId, nueva);
+            if (serie == null) {
+                serie = nueva;
+            }
+        }
+        serie.abrir();
+        return serie;
+    }
+
+    private Serie obtenerSerieExistente(String sensorId) throws IOException {
+        if (!series.containsKey(sensorId) && !Files.isDirectory(directorio.resolve(nombreCarpeta(sensorId)))) {
+            return null;
+        }
+        return obtenerSerie(sensorId);
+    }
+
+    /**
+     * Nombre de carpeta seguro para cualquier ID de sensor: se conservan letras,
+     * dígitos, '-' y '_' y el resto se codifica como %XX.
+     */
+    private static String nombreCarpeta(String sensorId) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : sensorId.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Inverso de {@link #nombreCarpeta}; null si el nombre no es válido.
+     */
+    private static String sensorDeCarpeta(String nombre) {
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        for (int i = 0; i < nombre.length(); i++) {
+            char c = nombre.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= nombre.length()) {
+                    return null;
+                }
+                try {
+                    bytes.write(Integer.parseInt(nombre.substring(i + 1, i + 3), 16));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                i += 2;
+            } else {
+                bytes.write(c);
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Histórico de un sensor: lista de segmentos en orden de creación. Solo el
+     * último admite escrituras; como se reordena al insertar, se lee con el
+     * lock de la serie.
+     */
+    private class Serie {
+        private final Path carpeta;
+        private final List<Segmento> segmentos = new ArrayList<>();
+        private int siguienteNumero;
+        private boolean abierta;
+
+        Serie(Path carpeta) {
+            this.carpeta = carpeta;
+        }
+
+        /** Lee los metadatos de los segmentos existentes, sin mapearlos */
+        synchronized void abrir() throws IOException {
+            if (abierta) {
+                return;
+            }
+            if (Files.isDirectory(carpeta)) {
+                List<Path> archivos;
+                try (Stream<Path> listado = Files.list(carpeta)) {
+                    archivos = listado.filter(p -> p.getFileName().toString().endsWith(EXTENSION)).sorted().toList();
+                }
+                for (Path archivo : archivos) {
+                    String nombre = archivo.getFileName().toString();
+                    try {
+                        int numero = Integer.parseInt(nombre.substring(0, nombre.length() - EXTENSION.length()));
+                        siguienteNumero = Math.max(siguienteNumero, numero + 1);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    Segmento segmento = Segmento.abrir(archivo);
+                    if (segmento.cantidad > 0) {
+                        segmentos.add(segmento);
+                    }
+                }
+            }
+            abierta = true;
+        }
+
+        synchronized void agregar(long epochMillis, double valor) throws IOException {
+            Segmento actual = segmentos.isEmpty() ? null : segmentos.get(segmentos.size() - 1);
+            if (actual != null && actual.insertar(epochMillis, valor)) {
+                return;
+            }
+            // Lleno, o la muestra llegó demasiado desordenada para insertarla
+            if (actual != null) {
+                actual.cerrarEscritura();
+            }
+            Files.createDirectories(carpeta);
+            String nombre = String.format("%08d%s", siguienteNumero++, EXTENSION);
+            actual = Segmento.crear(carpeta.resolve(nombre), capacidadSegmento);
+            segmentos.add(actual);
+            actual.insertar(epochMillis, valor);
+        }
+
+        void consultar(long desde, long hasta, ConsumidorMuestra consumidor) throws IOException {
+            Segmento[] copia;
+            synchronized (this) {
+                copia = segmentos.toArray(new Segmento[0]);
+            }
+            for (Segmento segmento : copia) {
+                if (segmento.enEscritura()) {
+                    synchronized (this) {
+                        segmento.consultar(desde, hasta, consumidor);
+                    }
+                } else {
+                    segmento.consultar(desde, hasta, consumidor);
+                }
+            }
+        }
+
+        synchronized int depurar(long antesDe) {
+            int borrados = 0;
+            while (segmentos.size() > 1 && segmentos.get(0).ultimo < antesDe) {
+                Segmento viejo = segmentos.get(0);
+                try {
+                    Files.delete(viejo.archivo);
+                } catch (IOException e) {
+                    System.err.println("[SERIES] No se pudo borrar " + viejo.archivo + ": " + e.getMessage());
+                    break;
+                }
+                segmentos.remove(0);
+                borrados++;
+            }
+            return borrados;
+        }
+
+        synchronized void sincronizar() {
+            if (!segmentos.isEmpty()) {
+                segmentos.get(segmentos.size() - 1).sincronizar();
+            }
+        }
+
+        synchronized void cerrar() {
+            if (!segmentos.isEmpty()) {
+                segmentos.get(segmentos.size() - 1).cerrarEscritura();
+            }
+        }
+    }
+
+    /**
+     * Archivo de registros (long epochMillis, double valor). Las escrituras
+     * ponen primero el valor y luego la marca de tiempo, que es la que indica
+     * que el registro es válido. Solo está mapeado mientras admite escrituras.
+     */
+    private static class Segmento {
+        private final Path archivo;
+        private final int capacidad;
+        // null si el segmento no se está escribiendo
+        private volatile MappedByteBuffer buffer;
+        private volatile int cantidad;
+        private volatile long primero;
+        private volatile long ultimo;
+
+        private Segmento(Path archivo, int capacidad) {
+            this.archivo = archivo;
+            this.capacidad = capacidad;
+        }
+
+        static Segmento crear(Path archivo, int capacidad) throws IOException {
+            Segmento segmento = new Segmento(archivo, capacidad);
+            segmento.mapear();
+            return segmento;
+        }
+
+        /**
+         * Abre un segmento existente y determina cuántos registros tiene
+         * buscando el primer registro sin marca de tiempo.
+         */
+        static Segmento abrir(Path archivo) throws IOException {
+            try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+                int capacidad = (int) (canal.size() / BYTES_REGISTRO);
+                Segmento segmento = new Segmento(archivo, capacidad);
+                ByteBuffer marca = ByteBuffer.allocate(Long.BYTES);
+                int bajo = 0;
+                int alto = capacidad;
+                while (bajo < alto) {
+                    int medio = (bajo + alto) >>> 1;
+                    if (leerMarca(canal, medio, marca) != 0) {
+                        bajo = medio + 1;
+                    } else {
+                        alto = medio;
+                    }
+                }
+                segmento.cantidad = bajo;
+                if (bajo > 0) {
+                    segmento.primero = leerMarca(canal, 0, marca);
+                    segmento.ultimo = leerMarca(canal, bajo - 1, marca);
+                }
+                return segmento;
+            }
+        }
+
+        private static long leerMarca(FileChannel canal, int indice, ByteBuffer marca) throws IOException {
+            marca.clear();
+            leerCompleto(canal, marca, (long) indice * BYTES_REGISTRO);
+            return marca.getLong(0);
+        }
+
+        private static void leerCompleto(FileChannel canal, ByteBuffer destino, long posicion) throws IOException {
+            while (destino.hasRemaining()) {
+                if (canal.read(destino, posicion + destino.position()) < 0) {
+                    throw new EOFException("Segmento truncado: " + canal);
+                }
+            }
+        }
+
+        private void mapear() throws IOException {
+            try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                buffer = canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacidad * BYTES_REGISTRO);
+            }
+        }
+
+        boolean enEscritura() {
+            return buffer != null;
+        }
+
+        /**
+         * Inserta el registro en orden, desplazando los posteriores.
+         *
+         * @return false si está lleno o habría que desplazar más de
+         *         {@link #TOLERANCIA_DESORDEN} registros
+         */
+        boolean insertar(long epochMillis, double valor) throws IOException {
+            int total = cantidad;
+            if (total == capacidad) {
+                return false;
+            }
+            if (buffer == null) {
+                mapear();
+            }
+            MappedByteBuffer escritura = buffer;
+            int posicion = total;
+            if (total > 0 && epochMillis < ultimo) {
+                // Primer registro con marca mayor, dentro de la tolerancia
+                int bajo = Math.max(0, total - TOLERANCIA_DESORDEN);
+                if (bajo > 0 && epochMillis < escritura.getLong(bajo * BYTES_REGISTRO)) {
+                    return false;
+                }
+                int alto = total;
+                while (bajo < alto) {
+                    int medio = (bajo + alto) >>> 1;
+                    if (escritura.getLong(medio * BYTES_REGISTRO) <= epochMillis) {
+                        bajo = medio + 1;
+                    } else {
+                        alto = medio;
+                    }
+                }
+                posicion = bajo;
+                // Desde el final: un corte a mitad deja un registro repetido, no uno perdido
+                for (int i = total; i > posicion; i--) {
+                    int destino = i * BYTES_REGISTRO;
+                    escritura.putDouble(destino + 8, escritura.getDouble(destino - BYTES_REGISTRO + 8));
+                    escritura.putLong(destino, escritura.getLong(destino - BYTES_REGISTRO));
+                }
+            }
+            int desplazamiento = posicion * BYTES_REGISTRO;
+            escritura.putDouble(desplazamiento + 8, valor);
+            escritura.putLong(desplazamiento, epochMillis);
+            if (posicion == 0) {
+                primero = epochMillis;
+            }
+            if (posicion == total) {
+                ultimo = epochMillis;
+            }
+            cantidad = total + 1;
+            return true;
+        }
+
+        void consultar(long desde, long hasta, ConsumidorMuestra consumidor) throws IOException {
+            int total = cantidad;
+            if (total == 0 || hasta < primero || desde > ultimo) {
+                return;
+            }
+            MappedByteBuffer mapeado = buffer;
+            if (mapeado != null) {
+                ByteBuffer lectura = mapeado.duplicate();
+                for (int i = primeroDesde(lectura, total, desde); i < total; i++) {
+                    long t = lectura.getLong(i * BYTES_REGISTRO);
+                    if (t > hasta) {
+                        break;
+                    }
+                    consumidor.aceptar(t, lectura.getDouble(i * BYTES_REGISTRO + 8));
+                }
+                return;
+            }
+            try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+                ByteBuffer marca = ByteBuffer.allocate(Long.BYTES);
+                int bajo = 0;
+                int alto = total;
+                while (bajo < alto) {
+                    int medio = (bajo + alto) >>> 1;
+                    if (leerMarca(canal, medio, marca) < desde) {
+                        bajo = medio + 1;
+                    } else {
+                        alto = medio;
+                    }
+                }
+                ByteBuffer bloque = ByteBuffer.allocate(REGISTROS_POR_LECTURA * BYTES_REGISTRO);
+                for (int i = bajo; i < total; i += REGISTROS_POR_LECTURA) {
+                    int registros = Math.min(REGISTROS_POR_LECTURA, total - i);
+                    bloque.clear().limit(registros * BYTES_REGISTRO);
+                    leerCompleto(canal, bloque, (long) i * BYTES_REGISTRO);
+                    for (int j = 0; j < registros; j++) {
+                        long t = bloque.getLong(j * BYTES_REGISTRO);
+                        if (t > hasta) {
+                            return;
+                        }
+                        consumidor.aceptar(t, bloque.getDouble(j * BYTES_REGISTRO + 8));
+                    }
+                }
+            }
+        }
+
+        /** Primer registro con marca >= desde */
+        private static int primeroDesde(ByteBuffer lectura, int total, long desde) {
+            int bajo = 0;
+            int alto = total;
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (lectura.getLong(medio * BYTES_REGISTRO) < desde) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return bajo;
+        }
+
+        void sincronizar() {
+            MappedByteBuffer mapeado = buffer;
+            if (mapeado != null) {
+                mapeado.force();
+            }
+        }
+
+        /**
+         * Fuerza a disco y suelta el mapeo (Java no permite desmapear: la
+         * memoria se libera cuando el recolector descarta el buffer).
+         */
+        void cerrarEscritura() {
+            MappedByteBuffer mapeado = buffer;
+            if (mapeado != null) {
+                mapeado.force();
+                buffer = null;
+            }
+        }
+    }
+}
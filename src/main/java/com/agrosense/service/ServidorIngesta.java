@@ -0,0 +1,300 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Lote;
+import com.agrosense.model.Medicion;
+import com.agrosense.model.Sensor;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Iterator;
+
+/**
+ * Recibe mediciones de gateways de campo por TCP y UDP en el formato de
+ * {@link ProtocoloIngesta}.
+ *
+ * Un único hilo atiende todos los canales con un {@link Selector}: cada
+ * lectura trae muchos registros, que se decodifican juntos y se entregan al
+ * destino (normalmente {@link ColaIngesta#publicar}) con el lote al que
+ * pertenece el sensor y su índice de estadísticas. Las mediciones de sensores que no están en el
+ * {@link GestorLotes}, o cuyo tipo no es el del sensor registrado, se
+ * descartan y se cuentan. Si el destino bloquea porque
+ * la cola está llena, el hilo deja de leer y TCP frena a los gateways.
+ *
+ * Una conexión TCP que envía datos mal formados se cierra; de un datagrama
+ * mal formado se descarta todo lo que sigue al primer error.
+ */
+public class ServidorIngesta {
+    public static final int PUERTO_POR_DEFECTO = 7420;
+
+    private static final int TAMANO_BUFFER_TCP = 64 * 1024;
+    // Máximo de datos en un datagrama UDP sobre IPv4
+    private static final int TAMANO_DATAGRAMA = 65_507;
+    private static final int BUFFER_RECEPCION_UDP = 4 * 1024 * 1024;
+    // Datagramas por vuelta del selector, para no postergar a las conexiones TCP
+    private static final int DATAGRAMAS_POR_VUELTA = 64;
+
+    private final GestorLotes gestorLotes;
+    private final ColaIngesta.EtapaIndexada destino;
+    private final ZoneId zona = ZoneId.systemDefault();
+    private final ByteBuffer bufferUdp = ByteBuffer.allocate(TAMANO_DATAGRAMA);
+
+    private Selector selector;
+    private ServerSocketChannel canalTcp;
+    private DatagramChannel canalUdp;
+    private Thread hilo;
+    private volatile boolean corriendo;
+
+    // Solo los escribe el hilo del selector
+    private volatile long recibidas;
+    private volatile long rechazadas;
+    private volatile long invalidas;
+    private volatile int conexiones;
+
+    /**
+     * @param destino recibe cada medición con el ID de su lote y el índice de
+     *                su sensor, en el hilo del servidor
+     */
+    public ServidorIngesta(GestorLotes gestorLotes, ColaIngesta.EtapaIndexada destino) {
+        this.gestorLotes = gestorLotes;
+        this.destino = destino;
+    }
+
+    /**
+     * Abre los canales y empieza a atenderlos.
+     *
+     * @param tcp dirección TCP en la que escuchar, o null
+     * @param udp dirección UDP en la que escuchar, o null
+     */
+    public synchronized void iniciar(InetSocketAddress tcp, InetSocketAddress udp) throws IOException {
+        if (hilo != null) {
+            throw new IllegalStateException("El servidor ya está iniciado");
+        }
+        if (tcp == null && udp == null) {
+            throw new IllegalArgumentException("Se necesita una dirección TCP o UDP");
+        }
+        try {
+            selector = Selector.open();
+            if (tcp != null) {
+                canalTcp = ServerSocketChannel.open();
+                canalTcp.bind(tcp);
+                canalTcp.configureBlocking(false);
+                canalTcp.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            if (udp != null) {
+                canalUdp = DatagramChannel.open();
+                canalUdp.setOption(StandardSocketOptions.SO_RCVBUF, BUFFER_RECEPCION_UDP);
+                canalUdp.bind(udp);
+                canalUdp.configureBlocking(false);
+                canalUdp.register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            cerrarCanales();
+            throw e;
+        }
+        corriendo = true;
+        hilo = new Thread(this::atender, "agrosense-ingesta-red");
+        hilo.setDaemon(true);
+        hilo.start();
+        System.out.println("[RED] Escuchando" + (canalTcp != null ? " TCP en " + canalTcp.getLocalAddress() : "")
+                + (canalUdp != null ? " UDP en " + canalUdp.getLocalAddress() : ""));
+    }
+
+    /**
+     * Cierra los canales y espera a que termine el hilo del servidor. Las
+     * mediciones ya decodificadas quedan entregadas al destino.
+     */
+    public synchronized void detener() {
+        if (hilo == null) {
+            return;
+        }
+        corriendo = false;
+        selector.wakeup();
+        try {
+            hilo.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        hilo = null;
+        System.out.println("[RED] Detenido: " + recibidas + " mediciones, " + rechazadas + " rechazadas, "
+                + invalidas + " tramas inválidas");
+    }
+
+    /** Puerto TCP en uso (útil si se pidió el puerto 0), o -1 */
+    public synchronized int getPuertoTcp() {
+        return canalTcp != null ? canalTcp.socket().getLocalPort() : -1;
+    }
+
+    /** Puerto UDP en uso, o -1 */
+    public synchronized int getPuertoUdp() {
+        return canalUdp != null ? canalUdp.socket().getLocalPort() : -1;
+    }
+
+    public long getRecibidas() {
+        return recibidas;
+    }
+
+    /** Mediciones de sensores desconocidos, de otro tipo o con valores no finitos */
+    public long getRechazadas() {
+        return rechazadas;
+    }
+
+    /** Conexiones cerradas o datagramas descartados por datos mal formados */
+    public long getInvalidas() {
+        return invalidas;
+    }
+
+    public int getConexiones() {
+        return conexiones;
+    }
+
+    private void atender() {
+        try {
+            while (corriendo) {
+                selector.select();
+                Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+                while (claves.hasNext()) {
+                    SelectionKey clave = claves.next();
+                    claves.remove();
+                    if (!clave.isValid()) {
+                        continue;
+                    }
+                    if (clave.isAcceptable()) {
+                        aceptar();
+                    } else if (clave.channel() == canalUdp) {
+                        recibirDatagramas();
+                    } else {
+                        leer(clave);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[RED] Error en el servidor: " + e);
+        } finally {
+            cerrarCanales();
+        }
+    }
+
+    private void aceptar() throws IOException {
+        SocketChannel canal = canalTcp.accept();
+        if (canal == null) {
+            return;
+        }
+        canal.configureBlocking(false);
+        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        canal.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(TAMANO_BUFFER_TCP));
+        conexiones++;
+    }
+
+    private void leer(SelectionKey clave) {
+        SocketChannel canal = (SocketChannel) clave.channel();
+        ByteBuffer buffer = (ByteBuffer) clave.attachment();
+        try {
+            int leidos = canal.read(buffer);
+            buffer.flip();
+            ProtocoloIngesta.leer(buffer, this::entregar);
+            buffer.compact();
+            if (leidos < 0) {
+                if (buffer.position() > 0) {
+                    invalidas++;
+                    System.err.println("[RED] Conexión cerrada con un registro incompleto");
+                }
+                cerrar(clave);
+            }
+        } catch (ProtocolException e) {
+            invalidas++;
+            System.err.println("[RED] Datos inválidos, se cierra la conexión: " + e.getMessage());
+            cerrar(clave);
+        } catch (IOException e) {
+            cerrar(clave);
+        }
+    }
+
+    private void recibirDatagramas() throws IOException {
+        for (int i = 0; i < DATAGRAMAS_POR_VUELTA; i++) {
+            bufferUdp.clear();
+            SocketAddress origen = canalUdp.receive(bufferUdp);
+            if (origen == null) {
+                return;
+            }
+            bufferUdp.flip();
+            try {
+                ProtocoloIngesta.leer(bufferUdp, this::entregar);
+                if (bufferUdp.hasRemaining()) {
+                    throw new ProtocolException("Registro incompleto al final del datagrama");
+                }
+            } catch (ProtocolException e) {
+                invalidas++;
+                System.err.println("[RED] Datagrama de " + origen + " descartado: " + e.getMessage());
+            }
+        }
+    }
+
+    private void entregar(String sensorId, String tipoSensor, long epochMillis, double valor) {
+        Lote lote = gestorLotes.buscarLotePorSensor(sensorId).orElse(null);
+        Sensor sensor = lote != null ? sensorRegistrado(lote, sensorId, tipoSensor) : null;
+        if (sensor == null || !Double.isFinite(valor)) {
+            rechazadas++;
+            return;
+        }
+        LocalDateTime fecha = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zona);
+        // Con el ID registrado, las etapas comparan el sensor por referencia
+        destino.procesar(lote.getId(), sensor.getIndiceEstadisticas(),
+                new Medicion(valor, sensor.getId(), sensor.getTipo(), fecha));
+        recibidas++;
+    }
+
+    /**
+     * El sensor registrado, si el tipo de la trama coincide con el suyo: una
+     * trama de humedad no se evalúa contra los umbrales de un sensor de
+     * temperatura.
+     */
+    private static Sensor sensorRegistrado(Lote lote, String sensorId, String tipoSensor) {
+        for (Sensor sensor : lote.getSensores()) {
+            if (sensor.getId().equals(sensorId)) {
+                return sensor.getTipo().equalsIgnoreCase(tipoSensor) ? sensor : null;
+            }
+        }
+        return null;
+    }
+
+    private void cerrar(SelectionKey clave) {
+        clave.cancel();
+        try {
+            clave.channel().close();
+        } catch (IOException e) {
+            // Ya no se usa
+        }
+        conexiones--;
+    }
+
+    private void cerrarCanales() {
+        try {
+            if (selector != null) {
+                for (SelectionKey clave : selector.keys()) {
+                    clave.channel().close();
+                }
+                selector.close();
+            }
+            if (canalTcp != null) {
+                canalTcp.close();
+            }
+            if (canalUdp != null) {
+                canalUdp.close();
+            }
+        } catch (IOException e) {
+            System.err.println("[RED] Error al cerrar los canales: " + e.getMessage());
+        }
+        conexiones = 0;
+    }
+}
@@ -0,0 +1,135 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Sensor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Driver local que simula sensores sin hardware, para pruebas de carga del
+ * camino de ingesta.
+ *
+ * Los valores siguen una curva diaria con ruido: la temperatura es máxima a
+ * media tarde y la humedad del suelo mínima al final de la tarde. Cada sensor
+ * tiene un desplazamiento fijo derivado de su ID para que no todos lean lo
+ * mismo. Se puede configurar una latencia aleatoria por lectura y una
+ * proporción de lecturas que fallan.
+ *
+ * Con el constructor sin argumentos (el que usa {@link java.util.ServiceLoader})
+ * la configuración se toma de las propiedades del sistema
+ * {@code agrosense.simulador.latencia.min}, {@code agrosense.simulador.latencia.max}
+ * (en ms) y {@code agrosense.simulador.fallas} (entre 0 y 1); por defecto no
+ * hay latencia ni fallas.
+ */
+public class SimuladorSensores implements DriverSensor {
+    public static final String NOMBRE = "simulador";
+
+    private static final double HUMEDAD_MEDIA = 55;
+    private static final double HUMEDAD_AMPLITUD = 12;
+    private static final double HUMEDAD_HORA_MAXIMA = 5;
+    private static final double HUMEDAD_RUIDO = 1.5;
+    private static final double TEMPERATURA_MEDIA = 22;
+    private static final double TEMPERATURA_AMPLITUD = 7;
+    private static final double TEMPERATURA_HORA_MAXIMA = 15;
+    private static final double TEMPERATURA_RUIDO = 0.5;
+
+    private final long latenciaMinNanos;
+    private final long latenciaMaxNanos;
+    private final double tasaFallas;
+    private final Clock reloj;
+
+    public SimuladorSensores() {
+        this(Duration.ofMillis(Long.getLong("agrosense.simulador.latencia.min", 0)),
+                Duration.ofMillis(Long.getLong("agrosense.simulador.latencia.max",
+                        Long.getLong("agrosense.simulador.latencia.min", 0))),
+                Double.parseDouble(System.getProperty("agrosense.simulador.fallas", "0")),
+                Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param latenciaMin latencia mínima de cada lectura
+     * @param latenciaMax latencia máxima de cada lectura
+     * @param tasaFallas  proporción de lecturas que fallan, entre 0 y 1
+     * @param reloj       reloj para la hora del día de la curva
+     */
+    public SimuladorSensores(Duration latenciaMin, Duration latenciaMax, double tasaFallas, Clock reloj) {
+        if (latenciaMin.isNegative() || latenciaMax.compareTo(latenciaMin) < 0) {
+            throw new IllegalArgumentException("Rango de latencia inválido");
+        }
+        if (!(tasaFallas >= 0 && tasaFallas <= 1)) {
+            throw new IllegalArgumentException("La tasa de fallas debe estar en [0, 1]");
+        }
+        this.latenciaMinNanos = latenciaMin.toNanos();
+        this.latenciaMaxNanos = latenciaMax.toNanos();
+        this.tasaFallas = tasaFallas;
+        this.reloj = reloj;
+    }
+
+    @Override
+    public String getNombre() {
+        return NOMBRE;
+    }
+
+    @Override
+    public boolean soporta(Sensor sensor) {
+        return true;
+    }
+
+    @Override
+    public double leer(Sensor sensor) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (latenciaMaxNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latenciaMinNanos == latenciaMaxNanos ? latenciaMinNanos
+                        : random.nextLong(latenciaMinNanos, latenciaMaxNanos + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Lectura interrumpida: " + sensor.getId());
+            }
+        }
+        if (tasaFallas > 0 && random.nextDouble() < tasaFallas) {
+            throw new IOException("Falla simulada de lectura: " + sensor.getId());
+        }
+        return valor(sensor, horaDelDia(), random.nextGaussian());
+    }
+
+    private double horaDelDia() {
+        return horaDelDia(reloj.millis(), reloj.getZone());
+    }
+
+    /** Hora local del día, en [0, 24), con la que se evalúa la curva diaria */
+    static double horaDelDia(long epochMillis, ZoneId zona) {
+        return LocalTime.ofInstant(Instant.ofEpochMilli(epochMillis), zona).toNanoOfDay() / 3_600_000_000_000.0;
+    }
+
+    /**
+     * Valor de la curva diaria para el sensor a la hora dada, más
+     * {@code ruido} desviaciones estándar.
+     */
+    static double valor(Sensor sensor, double hora, double ruido) {
+        double desplazamiento = desplazamiento(sensor.getId());
+        if (sensor.getTipo().equalsIgnoreCase("HUMEDAD")) {
+            double valor = HUMEDAD_MEDIA + 10 * desplazamiento
+                    + HUMEDAD_AMPLITUD * Math.cos(2 * Math.PI * (hora - HUMEDAD_HORA_MAXIMA) / 24)
+                    + HUMEDAD_RUIDO * ruido;
+            return Math.max(0, Math.min(100, valor));
+        } else if (sensor.getTipo().equalsIgnoreCase("TEMPERATURA")) {
+            return TEMPERATURA_MEDIA + 3 * desplazamiento
+                    + TEMPERATURA_AMPLITUD * Math.cos(2 * Math.PI * (hora - TEMPERATURA_HORA_MAXIMA) / 24)
+                    + TEMPERATURA_RUIDO * ruido;
+        }
+        return 0.0;
+    }
+
+    /** Desplazamiento fijo por sensor, en [-1, 1) */
+    private static double desplazamiento(String sensorId) {
+        int mezcla = sensorId.hashCode() * 0x9E3779B9;
+        return ((mezcla >>> 8) / (double) (1 << 24)) * 2 - 1;
+    }
+}
@@ -0,0 +1,142 @@
+package com.agrosense.service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Tendencia de una serie (o de varias series del mismo tipo) estimada por
+ * regresión lineal: pendiente por hora, su confianza y el valor actual
+ * según la recta ajustada.
+ *
+ * Con varias series se estima una pendiente común sin mezclar los niveles
+ * de cada sensor: cada uno aporta sus sumas centradas en su propio promedio.
+ */
+public class Tendencia {
+    public enum Direccion {
+        SUBIENDO, BAJANDO, ESTABLE, INSUFICIENTE
+    }
+
+    public static final int MUESTRAS_MINIMAS = 5;
+    public static final double CONFIANZA_MINIMA = 0.95;
+    // Por debajo de esta pendiente (unidades por hora) la serie se considera estable
+    public static final double PENDIENTE_MINIMA_POR_HORA = 0.2;
+
+    private final int muestras;
+    private final double pendiente;
+    private final double errorEstandar;
+    private final double valorActual;
+    private final long fechaReferencia;
+
+    /**
+     * @param muestras        mediciones usadas entre todas las series
+     * @param series          cantidad de series combinadas
+     * @param sxx             suma de las sumas de cuadrados centradas de t (horas)
+     * @param sxy             suma de los productos cruzados centrados
+     * @param syy             suma de las sumas de cuadrados centradas de y
+     * @param valorActual     valor ajustado en la última medición
+     * @param fechaReferencia epoch millis de la última medición
+     */
+    Tendencia(int muestras, int series, double sxx, double sxy, double syy, double valorActual,
+            long fechaReferencia) {
+        this.muestras = muestras;
+        this.valorActual = valorActual;
+        this.fechaReferencia = fechaReferencia;
+        int gradosLibertad = muestras - series - 1;
+        if (muestras < MUESTRAS_MINIMAS || gradosLibertad < 1 || !(sxx > 0)) {
+            this.pendiente = Double.NaN;
+            this.errorEstandar = Double.NaN;
+            return;
+        }
+        this.pendiente = sxy / sxx;
+        double residuos = Math.max(0, syy - pendiente * sxy);
+        this.errorEstandar = Math.sqrt(residuos / gradosLibertad / sxx);
+    }
+
+    static Tendencia insuficiente() {
+        return new Tendencia(0, 0, 0, 0, 0, Double.NaN, 0);
+    }
+
+    public boolean esSuficiente() {
+        return !Double.isNaN(pendiente);
+    }
+
+    /** Pendiente en unidades por hora (NaN si no hay datos suficientes) */
+    public double getPendientePorHora() {
+        return pendiente;
+    }
+
+    public double getErrorEstandar() {
+        return errorEstandar;
+    }
+
+    /**
+     * Probabilidad (aproximación normal) de que la pendiente real tenga el
+     * signo estimado: 0 sin datos, cercana a 1 con una tendencia clara.
+     */
+    public double getConfianza() {
+        if (!esSuficiente()) {
+            return 0;
+        }
+        if (errorEstandar == 0) {
+            return pendiente == 0 ? 0 : 1;
+        }
+        return erf(Math.abs(pendiente) / errorEstandar / Math.sqrt(2));
+    }
+
+    public Direccion getDireccion() {
+        if (!esSuficiente()) {
+            return Direccion.INSUFICIENTE;
+        }
+        if (getConfianza() < CONFIANZA_MINIMA || Math.abs(pendiente) < PENDIENTE_MINIMA_POR_HORA) {
+            return Direccion.ESTABLE;
+        }
+        return pendiente > 0 ? Direccion.SUBIENDO : Direccion.BAJANDO;
+    }
+
+    public int getMuestras() {
+        return muestras;
+    }
+
+    public double getValorActual() {
+        return valorActual;
+    }
+
+    /** Epoch millis de la última medición usada */
+    public long getFechaReferencia() {
+        return fechaReferencia;
+    }
+
+    /**
+     * Tiempo estimado, desde la última medición, hasta que la serie cruce el
+     * umbral si sigue la tendencia actual. Vacío si la serie es estable o se
+     * aleja del umbral.
+     */
+    public Optional<Duration> tiempoHasta(double umbral) {
+        Direccion direccion = getDireccion();
+        if (direccion != Direccion.SUBIENDO && direccion != Direccion.BAJANDO) {
+            return Optional.empty();
+        }
+        double horas = (umbral - valorActual) / pendiente;
+        if (horas < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(Duration.ofMillis(Math.round(horas * EstimadorTendencia.MILIS_POR_HORA)));
+    }
+
+    @Override
+    public String toString() {
+        if (!esSuficiente()) {
+            return Direccion.INSUFICIENTE.name();
+        }
+        return String.format("%s (%+.2f/h, confianza %.0f%%, %d mediciones)", getDireccion(), pendiente,
+                getConfianza() * 100, muestras);
+    }
+
+    /** Función error (Abramowitz y Stegun 7.1.26, error < 1.5e-7) */
+    private static double erf(double x) {
+        double t = 1 / (1 + 0.3275911 * x);
+        double polinomio = t * (0.254829592
+                + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+        return 1 - polinomio * Math.exp(-x * x);
+    }
+}
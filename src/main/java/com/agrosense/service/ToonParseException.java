@@ -0,0 +1,28 @@
+package com.agrosense.service;
+
+import java.io.IOException;
+
+/**
+ * Error de formato en un archivo TOON, con la posición (línea y columna)
+ * donde se detectó.
+ */
+public class ToonParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int linea;
+    private final int columna;
+
+    public ToonParseException(String mensaje, int linea, int columna) {
+        super("Línea " + linea + ", columna " + columna + ": " + mensaje);
+        this.linea = linea;
+        this.columna = columna;
+    }
+
+    public int getLinea() {
+        return linea;
+    }
+
+    public int getColumna() {
+        return columna;
+    }
+}
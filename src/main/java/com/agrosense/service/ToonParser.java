@@ -0,0 +1,432 @@
+package com.agrosense.service;
+
+import com.agrosense.model.*;
+import java.io.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Parser de una sola pasada para el formato TOON.
+ *
+ * Lee el contenido línea a línea desde un {@link Reader}, clasifica cada línea
+ * como inicio de bloque (<code>NOMBRE {</code>), fin de bloque (<code>}</code>) o
+ * campo (<code>CLAVE: valor</code>) y construye los objetos del modelo directamente, sin
+ * cargar el archivo completo en memoria ni usar expresiones regulares.
+ *
+ * Se usa tanto para el snapshot como para el journal de cambios; además de
+ * {@code LOTE} y {@code ALERTA} reconoce los bloques {@code ELIMINAR_LOTE},
+ * {@code LIMPIAR_ALERTAS}, {@code DESCARTAR_ALERTAS}, {@code JOURNAL} y
+ * {@code SNAPSHOT}.
+ */
+class ToonParser {
+
+    private enum Token {
+        INICIO_BLOQUE, FIN_BLOQUE, CAMPO, FIN_ARCHIVO
+    }
+
+    private final BufferedReader reader;
+
+    // Estado del token actual
+    private Token token;
+    private String nombre; // nombre del bloque o clave del campo
+    private String valor; // valor del campo (sin comillas)
+    private int linea;
+    private int columna;
+
+    ToonParser(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Receptor de los bloques de nivel superior, en el orden en que aparecen.
+     */
+    interface Handler {
+        void lote(Lote lote);
+
+        void alerta(Alerta alerta);
+
+        void eliminarLote(String id);
+
+        void limpiarAlertas();
+
+        /** Quita las {@code cantidad} alertas más antiguas */
+        void descartarAlertas(int cantidad);
+
+        /**
+         * Bloque {@code JOURNAL} que identifica un archivo de journal.
+         *
+         * @param base estado sobre el que se escribió el journal, o null en
+         *             journals anteriores a este campo
+         */
+        void journal(String id, String base);
+
+        /** Bloque {@code SNAPSHOT} con el estado que representa el snapshot */
+        void snapshot(String estado);
+    }
+
+    /**
+     * Recorre todo el contenido y entrega cada bloque al handler. Los bloques
+     * de nivel superior desconocidos se ignoran.
+     */
+    void parse(Handler handler) throws IOException {
+        while (avanzar() != Token.FIN_ARCHIVO) {
+            if (token != Token.INICIO_BLOQUE) {
+                throw error("Se esperaba el inicio de un bloque (LOTE o ALERTA)");
+            }
+            switch (nombre) {
+                case "LOTE" -> handler.lote(parseLote());
+                case "ALERTA" -> handler.alerta(parseAlerta());
+                case "ELIMINAR_LOTE" -> handler.eliminarLote(parseId());
+                case "JOURNAL" -> parseJournal(handler);
+                case "SNAPSHOT" -> handler.snapshot(parseId());
+                case "DESCARTAR_ALERTAS" -> handler.descartarAlertas(parseCantidad());
+                case "LIMPIAR_ALERTAS" -> {
+                    omitirBloque();
+                    handler.limpiarAlertas();
+                }
+                default -> omitirBloque();
+            }
+        }
+    }
+
+    /**
+     * Lee un bloque cuyo único campo relevante es {@code ID}.
+     */
+    private String parseId() throws IOException {
+        int lineaInicio = linea;
+        int columnaInicio = columna;
+        String id = null;
+        while (avanzar() != Token.FIN_BLOQUE) {
+            if (token == Token.FIN_ARCHIVO) {
+                throw new ToonParseException("Bloque sin cerrar", lineaInicio, columnaInicio);
+            }
+            if (token == Token.INICIO_BLOQUE) {
+                omitirBloque();
+            } else if (nombre.equals("ID")) {
+                id = valor;
+            }
+        }
+        if (id == null || id.isEmpty()) {
+            throw new ToonParseException("Falta el campo ID", lineaInicio, columnaInicio);
+        }
+        return id;
+    }
+
+    /**
+     * Lee un bloque {@code JOURNAL}: su {@code ID} y, si lo tiene, su
+     * {@code BASE}.
+     */
+    private void parseJournal(Handler handler) throws IOException {
+        int lineaInicio = linea;
+        int columnaInicio = columna;
+        String id = null;
+        String base = null;
+        while (avanzar() != Token.FIN_BLOQUE) {
+            if (token == Token.FIN_ARCHIVO) {
+                throw new ToonParseException("Bloque JOURNAL sin cerrar", lineaInicio, columnaInicio);
+            }
+            if (token == Token.INICIO_BLOQUE) {
+                omitirBloque();
+            } else if (nombre.equals("ID")) {
+                id = valor;
+            } else if (nombre.equals("BASE")) {
+                base = valor;
+            }
+        }
+        if (id == null || id.isEmpty()) {
+            throw new ToonParseException("Falta el campo ID", lineaInicio, columnaInicio);
+        }
+        handler.journal(id, base == null || base.isEmpty() ? null : base);
+    }
+
+    /**
+     * Lee un bloque cuyo único campo relevante es {@code CANTIDAD}.
+     */
+    private int parseCantidad() throws IOException {
+        int lineaInicio = linea;
+        int columnaInicio = columna;
+        String cantidad = null;
+        while (avanzar() != Token.FIN_BLOQUE) {
+            if (token == Token.FIN_ARCHIVO) {
+                throw new ToonParseException("Bloque sin cerrar", lineaInicio, columnaInicio);
+            }
+            if (token == Token.INICIO_BLOQUE) {
+                omitirBloque();
+            } else if (nombre.equals("CANTIDAD")) {
+                cantidad = valor;
+            }
+        }
+        try {
+            int n = Integer.parseInt(String.valueOf(cantidad));
+            if (n < 0) {
+                throw new NumberFormatException("negativa");
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new ToonParseException("CANTIDAD inválida: " + cantidad, lineaInicio, columnaInicio);
+        }
+    }
+
+    private Lote parseLote() throws IOException {
+        int lineaInicio = linea;
+        int columnaInicio = columna;
+        String id = null;
+        String nombreLote = null;
+        String cultivo = null;
+        String area = null;
+        String fechaSiembra = null;
+        String etapa = null;
+        String notas = null;
+        ArrayList<Sensor> sensores = new ArrayList<>();
+
+        while (avanzar() != Token.FIN_BLOQUE) {
+            if (token == Token.FIN_ARCHIVO) {
+                throw new ToonParseException("Bloque LOTE sin cerrar", lineaInicio, columnaInicio);
+            }
+            if (token == Token.INICIO_BLOQUE) {
+                if (nombre.equals("SENSORES")) {
+                    parseSensores(sensores);
+                } else {
+                    omitirBloque();
+                }
+                continue;
+            }
+            switch (nombre) {
+                case "ID" -> id = valor;
+                case "NOMBRE" -> nombreLote = valor;
+                case "CULTIVO" -> cultivo = valor;
+                case "AREA" -> area = valor;
+                case "FECHA_SIEMBRA" -> fechaSiembra = valor;
+                case "ETAPA" -> etapa = valor;
+                case "NOTAS" -> notas = valor;
+                default -> {
+                    // Campo desconocido: se ignora para mantener compatibilidad
+                }
+            }
+        }
+
+        Lote lote;
+        try {
+            lote = new Lote(id, nombreLote, cultivo, area != null ? Double.parseDouble(area) : 0);
+            if (fechaSiembra != null && !fechaSiembra.isEmpty()) {
+                lote.setFechaSiembra(LocalDate.parse(fechaSiembra));
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new ToonParseException("LOTE inválido: " + e.getMessage(), lineaInicio, columnaInicio);
+        }
+        if (etapa != null && !etapa.isEmpty()) {
+            lote.setEtapaCrecimiento(etapa);
+        }
+        if (notas != null && !notas.isEmpty()) {
+            lote.setNotas(notas);
+        }
+        for (Sensor sensor : sensores) {
+            lote.agregarSensor(sensor);
+        }
+        return lote;
+    }
+
+    private void parseSensores(ArrayList<Sensor> sensores) throws IOException {
+        int lineaInicio = linea;
+        int columnaInicio = columna;
+        while (avanzar() != Token.FIN_BLOQUE) {
+            if (token == Token.FIN_ARCHIVO) {
+                throw new ToonParseException("Bloque SENSORES sin cerrar", lineaInicio, columnaInicio);
+            }
+            if (token != Token.INICIO_BLOQUE) {
+                throw error("Se esperaba un bloque SENSOR");
+            }
+            if (nombre.equals("SENSOR")) {
+                sensores.add(parseSensor());
+            } else {
+                omitirBloque();
+            }
+        }
+    }
+
+    private Sensor parseSensor() throws IOException {
+        int lineaInicio = linea;
+        int columnaInicio = columna;
+        String id = null;
+        String tipo = null;
+        String ubicacion = "";
+
+        while (avanzar() != Token.FIN_BLOQUE) {
+            if (token == Token.FIN_ARCHIVO) {
+                throw new ToonParseException("Bloque SENSOR sin cerrar", lineaInicio, columnaInicio);
+            }
+            if (token == Token.INICIO_BLOQUE) {
+                omitirBloque();
+                continue;
+            }
+            switch (nombre) {
+                case "ID" -> id = valor;
+                case "TIPO" -> tipo = valor;
+                case "UBICACION" -> ubicacion = valor;
+                default -> {
+                }
+            }
+        }
+
+        if (id == null) {
+            throw new ToonParseException("SENSOR sin ID", lineaInicio, columnaInicio);
+        }
+        if ("HUMEDAD".equals(tipo)) {
+            return new SensorHumedad(id, ubicacion);
+        }
+        return new SensorTemperatura(id, ubicacion);
+    }
+
+    private Alerta parseAlerta() throws IOException {
+        int lineaInicio = linea;
+        int columnaInicio = columna;
+        String id = null;
+        String nivel = null;
+        String categoria = null;
+        String mensaje = "";
+        String fecha = null;
+        String loteId = null;
+        String sensorId = null;
+        String ocurrencias = null;
+        String ultimaVez = null;
+
+        while (avanzar() != Token.FIN_BLOQUE) {
+            if (token == Token.FIN_ARCHIVO) {
+                throw new ToonParseException("Bloque ALERTA sin cerrar", lineaInicio, columnaInicio);
+            }
+            if (token == Token.INICIO_BLOQUE) {
+                omitirBloque();
+                continue;
+            }
+            switch (nombre) {
+                case "ID" -> id = valor;
+                case "NIVEL" -> nivel = valor;
+                case "CATEGORIA" -> categoria = valor;
+                case "MENSAJE" -> mensaje = valor;
+                case "FECHA" -> fecha = valor;
+                case "LOTE" -> loteId = valor;
+                case "SENSOR" -> sensorId = valor;
+                case "OCURRENCIAS" -> ocurrencias = valor;
+                case "ULTIMA_VEZ" -> ultimaVez = valor;
+                default -> {
+                }
+            }
+        }
+
+        try {
+            // Las alertas del formato anterior no tienen ID ni ocurrencias
+            return new Alerta(id != null && !id.isEmpty() ? id : UUID.randomUUID().toString(), mensaje,
+                    Alerta.Nivel.valueOf(String.valueOf(nivel)),
+                    categoria != null ? Alerta.Categoria.valueOf(categoria) : Alerta.Categoria.CONDICION, loteId,
+                    sensorId,
+                    LocalDateTime.parse(String.valueOf(fecha)),
+                    ultimaVez != null ? LocalDateTime.parse(ultimaVez) : null,
+                    ocurrencias != null ? Integer.parseInt(ocurrencias) : 1);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new ToonParseException("ALERTA inválida: " + e.getMessage(), lineaInicio, columnaInicio);
+        }
+    }
+
+    /**
+     * Salta el contenido de un bloque cuyo inicio ya fue leído, incluidos sus
+     * bloques anidados.
+     */
+    private void omitirBloque() throws IOException {
+        int lineaInicio = linea;
+        int columnaInicio = columna;
+        int profundidad = 1;
+        while (profundidad > 0) {
+            switch (avanzar()) {
+                case INICIO_BLOQUE -> profundidad++;
+                case FIN_BLOQUE -> profundidad--;
+                case FIN_ARCHIVO -> throw new ToonParseException("Bloque sin cerrar", lineaInicio, columnaInicio);
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * Lee la siguiente línea no vacía y la clasifica como token. Las líneas que
+     * empiezan con '#' son comentarios.
+     */
+    private Token avanzar() throws IOException {
+        String texto;
+        int inicio;
+        do {
+            texto = reader.readLine();
+            if (texto == null) {
+                token = Token.FIN_ARCHIVO;
+                columna = 1;
+                return token;
+            }
+            linea++;
+            inicio = 0;
+            while (inicio < texto.length() && Character.isWhitespace(texto.charAt(inicio))) {
+                inicio++;
+            }
+        } while (inicio == texto.length() || texto.charAt(inicio) == '#');
+
+        int fin = texto.length();
+        while (Character.isWhitespace(texto.charAt(fin - 1))) {
+            fin--;
+        }
+        columna = inicio + 1;
+
+        char ultimo = texto.charAt(fin - 1);
+        if (ultimo == '}' && fin - inicio == 1) {
+            token = Token.FIN_BLOQUE;
+            return token;
+        }
+
+        int dosPuntos = texto.indexOf(':', inicio);
+        if (ultimo == '{' && (dosPuntos < 0 || dosPuntos > fin)) {
+            nombre = identificador(texto, inicio, fin - 1);
+            token = Token.INICIO_BLOQUE;
+            return token;
+        }
+
+        if (dosPuntos < 0) {
+            throw error("Se esperaba 'CLAVE: valor', '{' o '}'");
+        }
+        nombre = identificador(texto, inicio, dosPuntos);
+
+        int desde = dosPuntos + 1;
+        while (desde < fin && Character.isWhitespace(texto.charAt(desde))) {
+            desde++;
+        }
+        int hasta = fin;
+        if (desde < hasta && texto.charAt(desde) == '"') {
+            desde++;
+        }
+        if (desde < hasta && texto.charAt(hasta - 1) == '"') {
+            hasta--;
+        }
+        valor = texto.substring(desde, hasta).trim();
+        token = Token.CAMPO;
+        return token;
+    }
+
+    private String identificador(String texto, int inicio, int fin) throws ToonParseException {
+        while (fin > inicio && Character.isWhitespace(texto.charAt(fin - 1))) {
+            fin--;
+        }
+        if (fin == inicio) {
+            throw error("Falta el nombre del bloque o del campo");
+        }
+        for (int i = inicio; i < fin; i++) {
+            char c = texto.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_')) {
+                throw new ToonParseException("Carácter inesperado '" + c + "'", linea, i + 1);
+            }
+        }
+        return texto.substring(inicio, fin);
+    }
+
+    private ToonParseException error(String mensaje) {
+        return new ToonParseException(mensaje, linea, columna);
+    }
+}
@@ -2,180 +2,901 @@ package com.agrosense.service;
 
 import com.agrosense.model.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
 
+/**
+ * Persistencia en formato TOON basada en un snapshot más un journal de cambios.
+ *
+ * El snapshot ({@code agrosense_data.toon}) contiene el estado completo. Cada
+ * llamada a {@link #exportarDatos} solo agrega al journal
+ * ({@code agrosense_data.journal}) los cambios desde el último guardado: lotes
+ * nuevos o modificados, lotes eliminados, alertas nuevas o actualizadas
+ * (identificadas por ID) y la cantidad de alertas antiguas que salieron del
+ * historial. Los cambios no se calculan comparando todo el estado: se
+ * reescriben los lotes cuya {@link Lote#getVersion() versión} cambió y las
+ * alertas que entrega {@link AlertaService#tomarCambios}, por lo que un
+ * guardado cuesta según lo que cambió. El primer guardado con otro
+ * {@link GestorLotes} o {@link AlertaService} (por ejemplo, tras importar)
+ * reescribe todo una vez. Al importar, el
+ * journal se reaplica sobre el snapshot. Cuando el journal crece demasiado se
+ * rota a {@code agrosense_data.journal.old} y un hilo en segundo plano lo
+ * compacta en un nuevo snapshot.
+ *
+ * Los snapshots se escriben en un archivo temporal con un checksum CRC32C al
+ * final, se sincronizan a disco y se renombran atómicamente. Cada snapshot
+ * nuevo pasa el anterior a {@code agrosense_data.toon.1} (y así hasta
+ * {@code .N}), junto con los journals que llevan de él al nuevo
+ * ({@code agrosense_data.toon.1.journal}). Al importar se usa la generación
+ * más reciente cuyo checksum sea válido, reaplicando sus journals archivados y
+ * los vigentes. Cada journal registra el estado sobre el que se escribió
+ * ({@code BASE}): una generación cuyos journals no empalman no se usa.
+ *
+ * Si ninguna generación sirve, los archivos se apartan con la extensión
+ * {@code .danado} antes de informar el error, para que el próximo guardado no
+ * los sobrescriba; si no se pueden apartar, no se vuelve a guardar.
+ */
 public class ToonPersistenceService {
 
     private static final String DATA_DIR = "data";
-    private static final String DATA_FILE = DATA_DIR + "/agrosense_data.toon";
-
-    public void exportarDatos(GestorLotes gestorLotes, AlertaService alertaService) throws IOException {
-        StringBuilder sb = new StringBuilder();
-
-        // Export Lotes
-        for (Lote lote : gestorLotes.obtenerTodos()) {
-            sb.append("LOTE {\n");
-            sb.append("  ID: ").append(lote.getId()).append("\n");
-            sb.append("  NOMBRE: \"").append(lote.getNombre()).append("\"\n");
-            sb.append("  CULTIVO: \"").append(lote.getTipoCultivo()).append("\"\n");
-            sb.append("  AREA: ").append(lote.getArea()).append("\n");
-
-            // Nuevos campos agrícolas
-            if (lote.getFechaSiembra() != null) {
-                sb.append("  FECHA_SIEMBRA: ").append(lote.getFechaSiembra()).append("\n");
-            }
-            if (lote.getEtapaCrecimiento() != null) {
-                sb.append("  ETAPA: \"").append(lote.getEtapaCrecimiento()).append("\"\n");
-            }
-            if (lote.getNotas() != null && !lote.getNotas().isEmpty()) {
-                sb.append("  NOTAS: \"").append(lote.getNotas()).append("\"\n");
-            }
-
-            if (!lote.getSensores().isEmpty()) {
-                sb.append("  SENSORES {\n");
-                for (Sensor sensor : lote.getSensores()) {
-                    sb.append("    SENSOR {\n");
-                    sb.append("      ID: ").append(sensor.getId()).append("\n");
-                    sb.append("      TIPO: ").append(sensor.getTipo()).append("\n");
-                    sb.append("      UBICACION: \"").append(sensor.getUbicacion()).append("\"\n");
-                    sb.append("    }\n");
+    private static final String DATA_FILE = "agrosense_data.toon";
+    private static final String JOURNAL_FILE = "agrosense_data.journal";
+    private static final String JOURNAL_OLD_FILE = JOURNAL_FILE + ".old";
+
+    // Tamaño a partir del cual el journal se compacta en un nuevo snapshot
+    private static final long UMBRAL_COMPACTACION = 1024 * 1024;
+    // Intervalo mínimo entre fsync del journal (agrupa varios guardados); lo
+    // escrito dentro del intervalo se sincroniza al vencer, aunque no haya más
+    // guardados
+    private static final long INTERVALO_FSYNC_MS = 1000;
+    // Generaciones anteriores del snapshot que se conservan por defecto
+    private static final int GENERACIONES = 3;
+
+    private static final String CABECERA = "# AGROSENSE TOON v2\n";
+    private static final String PREFIJO_CHECKSUM = "# CHECKSUM crc32c=";
+
+    private final Path dataFile;
+    private final Path journalFile;
+    private final Path journalOldFile;
+    private final int generaciones;
+
+    // Último estado persistido, usado para calcular los cambios
+    private boolean hayBase;
+    // ID del estado persistido: el del último journal o el del snapshot
+    private String estado;
+    // Los datos existentes no se pudieron leer ni apartar: no se sobrescriben
+    private boolean bloqueado;
+    // Versión guardada de cada lote (sin copias ni texto de los lotes)
+    private final Map<String, Long> versionesPersistidas = new HashMap<>();
+    // Origen con el que el journal está al día; con otro se reescribe todo
+    private GestorLotes lotesSincronizados;
+    private AlertaService alertasSincronizadas;
+    private long versionGestor;
+    private long versionLotes;
+
+    private FileChannel journal;
+    private long ultimoFsync;
+    private boolean fsyncPendiente;
+    private boolean fsyncProgramado;
+
+    private final Object lockSnapshot = new Object();
+    // Compactaciones y fsync diferidos del journal
+    private ScheduledThreadPoolExecutor segundoPlano;
+
+    public ToonPersistenceService() {
+        this(Paths.get(DATA_DIR));
+    }
+
+    public ToonPersistenceService(Path directorio) {
+        this(directorio, GENERACIONES);
+    }
+
+    /**
+     * @param directorio   carpeta de los archivos de datos
+     * @param generaciones cantidad de snapshots anteriores que se conservan
+     */
+    public ToonPersistenceService(Path directorio, int generaciones) {
+        if (generaciones < 0) {
+            throw new IllegalArgumentException("La cantidad de generaciones no puede ser negativa");
+        }
+        this.generaciones = generaciones;
+        this.dataFile = directorio.resolve(DATA_FILE);
+        this.journalFile = directorio.resolve(JOURNAL_FILE);
+        this.journalOldFile = directorio.resolve(JOURNAL_OLD_FILE);
+    }
+
+    /**
+     * Persiste el estado actual. El primer guardado escribe un snapshot
+     * completo; los siguientes solo agregan los cambios al journal. Lee los
+     * lotes y las alertas directamente de los servicios, sin copiarlos.
+     */
+    public synchronized void exportarDatos(GestorLotes gestorLotes, AlertaService alertaService) throws IOException {
+        if (bloqueado) {
+            throw new IOException("No se guardan los datos: los archivos existentes no se pudieron leer");
+        }
+        // Las versiones se leen antes que los datos: un cambio posterior se
+        // vuelve a escribir en el próximo guardado
+        long versionGestorActual = gestorLotes.getVersion();
+        long versionLotesActual = Lote.getUltimaVersion();
+        boolean completo = !hayBase || gestorLotes != lotesSincronizados || alertaService != alertasSincronizadas;
+        lotesSincronizados = null;
+        alertasSincronizadas = null;
+
+        AlertaService.CambiosAlertas alertas;
+        try {
+            alertas = alertaService.tomarCambios(completo);
+        } catch (IOException e) {
+            // Los cambios ya se tomaron del servicio
+            hayBase = false;
+            throw e;
+        }
+        List<Lote> lotes = completo || versionGestorActual != versionGestor || versionLotesActual != versionLotes
+                ? gestorLotes.obtenerTodos()
+                : null;
+        guardar(lotes, completo, alertas);
+
+        versionGestor = versionGestorActual;
+        versionLotes = versionLotesActual;
+        lotesSincronizados = gestorLotes;
+        alertasSincronizadas = alertaService;
+    }
+
+    /**
+     * Persiste un estado completo ya capturado. Cuesta según el tamaño del
+     * estado; el próximo guardado desde los servicios también reescribe todo.
+     */
+    public synchronized void exportarDatos(AgroSenseData data) throws IOException {
+        if (bloqueado) {
+            throw new IOException("No se guardan los datos: los archivos existentes no se pudieron leer");
+        }
+        lotesSincronizados = null;
+        alertasSincronizadas = null;
+        guardar(data.lotes, true, new AlertaService.CambiosAlertas(data.alertas, true, 0));
+    }
+
+    /**
+     * Escribe un snapshot si no hay estado persistido o agrega los cambios al
+     * journal. Si falla, el próximo guardado empieza con un snapshot nuevo.
+     *
+     * @param lotes    lotes registrados, o null si ninguno cambió
+     * @param completo escribir todos los lotes aunque no hayan cambiado
+     */
+    private void guardar(List<Lote> lotes, boolean completo, AlertaService.CambiosAlertas alertas)
+            throws IOException {
+        try {
+            if (!hayBase) {
+                // Sin estado previo conocido: cualquier journal en disco es obsoleto
+                cerrarJournal();
+                Files.deleteIfExists(journalOldFile);
+                Files.deleteIfExists(journalFile);
+                String nuevo = UUID.randomUUID().toString();
+                escribirSnapshot(lotes, alertas.getAlertas(), List.of(), nuevo, null, 0);
+                establecerBase(lotes);
+                estado = nuevo;
+                return;
+            }
+
+            StringBuilder cambios = new StringBuilder();
+            if (lotes != null) {
+                escribirLotesCambiados(cambios, lotes, completo);
+            }
+            if (alertas.isLimpiado()) {
+                cambios.append("LIMPIAR_ALERTAS {\n}\n");
+            } else if (alertas.getDescartadas() > 0) {
+                // El historial descarta desde el principio: las alertas
+                // persistidas que faltan son las más antiguas
+                cambios.append("DESCARTAR_ALERTAS {\n  CANTIDAD: ").append(alertas.getDescartadas()).append("\n}\n");
+            }
+            for (Alerta alerta : alertas.getAlertas()) {
+                escribirAlerta(cambios, alerta);
+            }
+            if (cambios.length() > 0) {
+                agregarAlJournal(cambios);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Los cambios ya se tomaron de los servicios: solo un estado
+            // completo vuelve a dejar los archivos al día
+            hayBase = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Agrega los lotes nuevos o con otra versión y la eliminación de los que
+     * ya no están.
+     */
+    private void escribirLotesCambiados(StringBuilder cambios, List<Lote> lotes, boolean completo)
+            throws IOException {
+        for (Lote lote : lotes) {
+            long version = lote.getVersion();
+            Long persistida = versionesPersistidas.put(lote.getId(), version);
+            if (completo || persistida == null || persistida != version) {
+                escribirLote(cambios, lote);
+            }
+        }
+        // Los IDs del gestor son únicos: si hay más versiones que lotes, faltan lotes
+        if (versionesPersistidas.size() > lotes.size()) {
+            Set<String> actuales = new HashSet<>(lotes.size() * 2);
+            for (Lote lote : lotes) {
+                actuales.add(lote.getId());
+            }
+            Iterator<String> ids = versionesPersistidas.keySet().iterator();
+            while (ids.hasNext()) {
+                String id = ids.next();
+                if (!actuales.contains(id)) {
+                    ids.remove();
+                    cambios.append("ELIMINAR_LOTE {\n  ID: ").append(id).append("\n}\n");
                 }
-                sb.append("  }\n");
             }
-            sb.append("}\n");
+        }
+    }
+
+    /**
+     * Carga el estado persistido. Si existen datos pero no se pueden
+     * recuperar, se apartan como {@code .danado} (o se bloquean los guardados)
+     * antes de lanzar la excepción.
+     *
+     * @throws FileNotFoundException si no hay datos guardados
+     */
+    public synchronized AgroSenseData importarDatos() throws IOException {
+        if (bloqueado) {
+            throw new IOException("Los archivos existentes no se pudieron leer ni apartar");
+        }
+        if (!hayDatos()) {
+            throw new FileNotFoundException("No se encontró el archivo TOON");
         }
 
-        // Export Alertas
-        for (Alerta alerta : alertaService.getHistorialAlertas()) {
-            sb.append("ALERTA {\n");
-            sb.append("  NIVEL: ").append(alerta.getNivel()).append("\n");
-            sb.append("  MENSAJE: \"").append(alerta.getMensaje()).append("\"\n");
-            sb.append("  FECHA: ").append(alerta.getFechaHora()).append("\n");
-            sb.append("  LOTE: ").append(alerta.getLoteId()).append("\n");
-            sb.append("}\n");
+        boolean journalAntiguo = Files.exists(journalOldFile);
+        Reconstruccion reconstruccion;
+        try {
+            reconstruccion = reconstruir(true);
+        } catch (IOException e) {
+            throw apartarDanados(e);
         }
 
-        Files.createDirectories(Paths.get(DATA_DIR));
-        Files.writeString(Paths.get(DATA_FILE), sb.toString());
+        AgroSenseData data = reconstruccion.resultado();
+        System.out.println("[PARSER] Cargados " + data.lotes.size() + " lotes y " + data.alertas.size() + " alertas");
+
+        establecerBase(data.lotes);
+        lotesSincronizados = null;
+        alertasSincronizadas = null;
+        estado = reconstruccion.estado != null ? reconstruccion.estado : UUID.randomUUID().toString();
+        // Un journal antiguo pendiente, un journal con una cola incompleta
+        // (corte durante la escritura) o un snapshot recuperado de una
+        // generación anterior se consolidan antes de seguir agregando
+        if (journalAntiguo || reconstruccion.journalIncompleto || reconstruccion.generacion > 0) {
+            try {
+                consolidar(data, reconstruccion);
+            } catch (IOException e) {
+                // Los archivos siguen representando el estado cargado
+                System.err.println("[SNAPSHOT] No se pudo consolidar: " + e.getMessage());
+            }
+        }
+        return data;
     }
 
-    public AgroSenseData importarDatos() throws IOException {
-        if (!Files.exists(Paths.get(DATA_FILE))) {
-            throw new FileNotFoundException("No se encontró el archivo TOON");
+    /**
+     * Importa datos TOON desde cualquier fuente de caracteres en una sola pasada.
+     *
+     * @throws ToonParseException si el contenido está mal formado (indica línea y
+     *                            columna)
+     */
+    public AgroSenseData importarDatos(Reader reader) throws IOException {
+        Reconstruccion reconstruccion = new Reconstruccion();
+        new ToonParser(reader).parse(reconstruccion);
+        return reconstruccion.resultado();
+    }
+
+    /**
+     * Fuerza a disco los cambios pendientes del journal y espera a que termine
+     * cualquier compactación en curso.
+     */
+    public void cerrar() throws IOException {
+        ScheduledThreadPoolExecutor pendiente;
+        synchronized (this) {
+            cerrarJournal();
+            pendiente = segundoPlano;
+            segundoPlano = null;
+            fsyncProgramado = false;
+        }
+        if (pendiente != null) {
+            pendiente.shutdown();
+            try {
+                pendiente.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // --- Journal ---
+
+    /**
+     * Reaplica un journal sobre la reconstrucción.
+     *
+     * @return false si el journal terminaba en un registro incompleto
+     */
+    private boolean reaplicarJournal(Path archivo, Reconstruccion reconstruccion) throws IOException {
+        if (!Files.exists(archivo)) {
+            return true;
+        }
+        reconstruccion.iniciarJournal();
+        try (Reader reader = Files.newBufferedReader(archivo)) {
+            new ToonParser(reader).parse(reconstruccion);
+            return true;
+        } catch (ToonParseException e) {
+            System.err.println("[JOURNAL] " + archivo.getFileName() + " incompleto, se descarta el resto: "
+                    + e.getMessage());
+            return false;
+        }
+    }
+
+    private void agregarAlJournal(CharSequence cambios) throws IOException {
+        if (journal == null) {
+            boolean nuevo = !Files.exists(journalFile) || Files.size(journalFile) == 0;
+            Files.createDirectories(journalFile.getParent());
+            journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (nuevo) {
+                String id = UUID.randomUUID().toString();
+                escribirCanal("JOURNAL {\n  ID: " + id + "\n  BASE: " + estado + "\n}\n");
+                estado = id;
+            }
+        }
+        escribirCanal(cambios);
+        fsyncPendiente = true;
+
+        long ahora = System.currentTimeMillis();
+        long espera = ultimoFsync + INTERVALO_FSYNC_MS - ahora;
+        if (espera <= 0) {
+            journal.force(false);
+            fsyncPendiente = false;
+            ultimoFsync = ahora;
+        } else if (!fsyncProgramado) {
+            fsyncProgramado = true;
+            segundoPlano().schedule(this::fsyncDiferido, espera, TimeUnit.MILLISECONDS);
+        }
+
+        if (journal.size() > UMBRAL_COMPACTACION && !Files.exists(journalOldFile)) {
+            rotarJournal();
+            segundoPlano().submit(() -> {
+                try {
+                    compactarJournalAntiguo();
+                } catch (IOException e) {
+                    System.err.println("[JOURNAL] Error al compactar: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /** Sincroniza lo que quedó escrito en el journal desde el último fsync */
+    private synchronized void fsyncDiferido() {
+        fsyncProgramado = false;
+        if (journal == null || !fsyncPendiente) {
+            return;
+        }
+        try {
+            journal.force(false);
+            fsyncPendiente = false;
+            ultimoFsync = System.currentTimeMillis();
+        } catch (IOException e) {
+            System.err.println("[JOURNAL] Error al sincronizar: " + e.getMessage());
+        }
+    }
+
+    private ScheduledThreadPoolExecutor segundoPlano() {
+        if (segundoPlano == null) {
+            segundoPlano = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "toon-segundo-plano");
+                t.setDaemon(true);
+                return t;
+            });
+            // cerrar() sincroniza el journal: los fsync diferidos pendientes sobran
+            segundoPlano.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        return segundoPlano;
+    }
+
+    private void escribirCanal(CharSequence texto) throws IOException {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(texto));
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+    }
+
+    private void cerrarJournal() throws IOException {
+        if (journal != null) {
+            if (fsyncPendiente) {
+                journal.force(false);
+                fsyncPendiente = false;
+            }
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Cierra el journal actual y lo renombra como journal antiguo; los
+     * siguientes cambios van a un journal nuevo.
+     */
+    private void rotarJournal() throws IOException {
+        cerrarJournal();
+        if (Files.exists(journalFile)) {
+            Files.move(journalFile, journalOldFile, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Consolida snapshot + journal antiguo en un nuevo snapshot. El snapshot
+     * registra el ID del journal incluido, de modo que si el proceso muere antes
+     * de borrar el journal antiguo no se vuelve a aplicar.
+     */
+    private void compactarJournalAntiguo() throws IOException {
+        synchronized (lockSnapshot) {
+            if (!Files.exists(journalOldFile)) {
+                return;
+            }
+            Reconstruccion reconstruccion = reconstruir(false);
+
+            // omitir: el snapshot ya incluía el journal antiguo
+            if (!reconstruccion.omitir) {
+                AgroSenseData data = reconstruccion.resultado();
+                escribirSnapshot(data.lotes, data.alertas, reconstruccion.aplicados, reconstruccion.estado,
+                        List.of(journalOldFile), reconstruccion.generacion);
+            }
+            Files.deleteIfExists(journalOldFile);
+            System.out.println("[JOURNAL] Journal compactado en " + dataFile.getFileName());
         }
+    }
 
-        String content = Files.readString(Paths.get(DATA_FILE));
-        AgroSenseData data = new AgroSenseData();
-        data.lotes = new ArrayList<>();
-        data.alertas = new ArrayList<>();
+    /**
+     * Escribe el estado ya reconstruido como snapshot y descarta los journals.
+     * El snapshot registra los IDs de los journals que incluye.
+     */
+    private void consolidar(AgroSenseData data, Reconstruccion reconstruccion) throws IOException {
+        cerrarJournal();
+        escribirSnapshot(data.lotes, data.alertas, reconstruccion.aplicados, estado,
+                List.of(journalOldFile, journalFile), reconstruccion.generacion);
+        Files.deleteIfExists(journalOldFile);
+        Files.deleteIfExists(journalFile);
+    }
 
-        // Parse Lotes - manual parsing to handle nested blocks
-        int pos = 0;
-        while ((pos = content.indexOf("LOTE {", pos)) != -1) {
-            pos += 6; // skip "LOTE {"
+    // --- Snapshot ---
 
-            // Find matching closing brace by counting
-            int braceCount = 1;
-            int endPos = pos;
-            while (braceCount > 0 && endPos < content.length()) {
-                if (content.charAt(endPos) == '{')
-                    braceCount++;
-                else if (content.charAt(endPos) == '}')
-                    braceCount--;
-                endPos++;
+    /**
+     * Reconstruye el estado desde la generación más reciente del snapshot que
+     * tenga un checksum válido, se pueda leer completa y empalme con sus
+     * journals: los archivados con las generaciones posteriores, el journal
+     * antiguo y, si se pide, el actual.
+     *
+     * @throws IOException si hay snapshots o journals pero ninguna combinación
+     *                     reproduce el estado guardado
+     */
+    private Reconstruccion reconstruir(boolean conJournalActual) throws IOException {
+        boolean existeAlguno = false;
+        for (int i = 0; i <= generaciones; i++) {
+            Path candidato = generacion(i);
+            if (!Files.exists(candidato)) {
+                continue;
+            }
+            existeAlguno = true;
+            if (!checksumValido(candidato)) {
+                System.err.println("[SNAPSHOT] " + candidato.getFileName() + " dañado (checksum inválido)");
+                continue;
+            }
+            Reconstruccion reconstruccion = new Reconstruccion();
+            try (Reader reader = Files.newBufferedReader(candidato)) {
+                new ToonParser(reader).parse(reconstruccion);
+            } catch (ToonParseException e) {
+                System.err.println("[SNAPSHOT] " + candidato.getFileName() + " ilegible: " + e.getMessage());
+                continue;
+            }
+            reaplicarJournals(reconstruccion, i, conJournalActual);
+            if (reconstruccion.discontinuo) {
+                System.err.println("[SNAPSHOT] " + candidato.getFileName() + " no empalma con los journals");
+                continue;
             }
+            if (i > 0) {
+                System.err.println("[SNAPSHOT] Usando la generación anterior " + candidato.getFileName());
+            }
+            reconstruccion.generacion = i;
+            return reconstruccion;
+        }
+        if (existeAlguno) {
+            throw new IOException("Ninguna generación del snapshot es válida");
+        }
+        // Sin snapshot: los journals solo valen si no dependen de uno
+        Reconstruccion reconstruccion = new Reconstruccion();
+        reconstruccion.estadoConocido = true;
+        reaplicarJournals(reconstruccion, 0, conJournalActual);
+        if (reconstruccion.discontinuo) {
+            throw new IOException("Los journals no corresponden a ningún snapshot");
+        }
+        return reconstruccion;
+    }
 
-            if (braceCount != 0) {
-                System.err.println("[ERROR] Malformed LOTE block");
-                break;
+    /**
+     * Reaplica, sobre el snapshot de la generación indicada, los journals
+     * archivados desde esa generación hasta la .1 y luego los vigentes.
+     */
+    private void reaplicarJournals(Reconstruccion reconstruccion, int desde, boolean conJournalActual)
+            throws IOException {
+        for (int j = desde; j >= 1; j--) {
+            reaplicarJournal(journalArchivado(j), reconstruccion);
+        }
+        reaplicarJournal(journalOldFile, reconstruccion);
+        if (conJournalActual) {
+            reconstruccion.journalIncompleto = !reaplicarJournal(journalFile, reconstruccion);
+        }
+    }
+
+    private Path generacion(int numero) {
+        return numero == 0 ? dataFile : dataFile.resolveSibling(dataFile.getFileName() + "." + numero);
+    }
+
+    /** Journals que llevan de la generación indicada a la siguiente más nueva */
+    private Path journalArchivado(int generacion) {
+        return dataFile.resolveSibling(dataFile.getFileName() + "." + generacion + ".journal");
+    }
+
+    private boolean hayDatos() {
+        if (Files.exists(journalFile) || Files.exists(journalOldFile)) {
+            return true;
+        }
+        for (int i = 0; i <= generaciones; i++) {
+            if (Files.exists(generacion(i))) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            String loteBlock = content.substring(pos, endPos - 1);
-            String id = extractValue(loteBlock, "ID");
-            String nombre = extractValue(loteBlock, "NOMBRE");
-            String cultivo = extractValue(loteBlock, "CULTIVO");
-            double area = Double.parseDouble(extractValue(loteBlock, "AREA"));
+    /**
+     * Aparta todos los archivos de datos como {@code .danado} para que el
+     * próximo guardado empiece de cero sin sobrescribirlos. Si alguno no se
+     * puede apartar, se bloquean los guardados.
+     *
+     * @return la excepción a informar
+     */
+    private IOException apartarDanados(IOException causa) {
+        List<Path> archivos = new ArrayList<>(List.of(journalFile, journalOldFile, dataFile));
+        for (int i = 1; i <= generaciones; i++) {
+            archivos.add(generacion(i));
+            archivos.add(journalArchivado(i));
+        }
+        for (Path archivo : archivos) {
+            try {
+                if (Files.exists(archivo)) {
+                    Files.move(archivo, danado(archivo), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                bloqueado = true;
+                causa.addSuppressed(e);
+            }
+        }
+        sincronizarDirectorio();
+        if (bloqueado) {
+            return new IOException("No se pudieron recuperar los datos (" + causa.getMessage()
+                    + ") ni apartarlos; no se guardará hasta revisarlos", causa);
+        }
+        return new IOException("No se pudieron recuperar los datos (" + causa.getMessage()
+                + "); se conservan como *.danado", causa);
+    }
 
-            Lote lote = new Lote(id, nombre, cultivo, area);
+    private static Path danado(Path archivo) {
+        return archivo.resolveSibling(archivo.getFileName() + ".danado");
+    }
 
-            // Parsear nuevos campos agrícolas
-            String fechaSiembraStr = extractValue(loteBlock, "FECHA_SIEMBRA");
-            if (!fechaSiembraStr.isEmpty()) {
-                lote.setFechaSiembra(LocalDate.parse(fechaSiembraStr));
+    /**
+     * Verifica el checksum escrito al final del snapshot. Los archivos sin
+     * cabecera (formato anterior) no tienen checksum y se aceptan tal cual.
+     */
+    private boolean checksumValido(Path archivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            byte[] cabecera = CABECERA.getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer inicio = ByteBuffer.allocate(cabecera.length);
+            canal.read(inicio, 0);
+            if (inicio.position() < cabecera.length || !Arrays.equals(inicio.array(), cabecera)) {
+                return true;
             }
 
-            String etapa = extractValue(loteBlock, "ETAPA");
-            if (!etapa.isEmpty()) {
-                lote.setEtapaCrecimiento(etapa);
+            int largoCola = (int) Math.min(tamano, 64);
+            ByteBuffer cola = ByteBuffer.allocate(largoCola);
+            canal.read(cola, tamano - largoCola);
+            String textoCola = new String(cola.array(), 0, cola.position(), StandardCharsets.US_ASCII);
+            int posicion = textoCola.lastIndexOf("\n" + PREFIJO_CHECKSUM);
+            if (posicion < 0) {
+                return false;
             }
+            long fin = tamano - largoCola + posicion + 1;
+            String hex = textoCola.substring(posicion + 1 + PREFIJO_CHECKSUM.length()).trim();
 
-            String notas = extractValue(loteBlock, "NOTAS");
-            if (!notas.isEmpty()) {
-                lote.setNotas(notas);
+            CRC32C crc = new CRC32C();
+            for (long desde = 0; desde < fin; desde += Integer.MAX_VALUE) {
+                long largo = Math.min(Integer.MAX_VALUE, fin - desde);
+                crc.update(canal.map(FileChannel.MapMode.READ_ONLY, desde, largo));
             }
+            return hex.equalsIgnoreCase(String.format("%08x", crc.getValue()));
+        }
+    }
 
-            // Parse Sensors within Lote
-            Pattern sensorPattern = Pattern.compile("SENSOR \\{(.*?)\\}", Pattern.DOTALL);
-            Matcher sensorMatcher = sensorPattern.matcher(loteBlock);
+    /**
+     * Escribe el snapshot en un archivo temporal con checksum, lo sincroniza a
+     * disco, rota las generaciones anteriores y lo renombra atómicamente.
+     *
+     * @param estado         ID del estado que representa el snapshot
+     * @param delta          journals que llevan del snapshot actual al nuevo, o
+     *                       null si el nuevo no deriva de él
+     * @param generacionBase generación desde la que se reconstruyó el estado;
+     *                       si no es 0, el snapshot actual está dañado
+     */
+    private void escribirSnapshot(List<Lote> lotes, List<Alerta> alertas, List<String> journalsIncluidos,
+            String estado, List<Path> delta, int generacionBase) throws IOException {
+        synchronized (lockSnapshot) {
+            Files.createDirectories(dataFile.getParent());
+            Path temporal = dataFile.resolveSibling(dataFile.getFileName() + ".tmp");
+            CRC32C crc = new CRC32C();
+            try (FileOutputStream archivo = new FileOutputStream(temporal.toFile());
+                    Writer out = new BufferedWriter(new OutputStreamWriter(
+                            new CheckedOutputStream(new BufferedOutputStream(archivo), crc), StandardCharsets.UTF_8))) {
+                out.append(CABECERA);
+                for (String id : journalsIncluidos) {
+                    out.append("JOURNAL {\n  ID: ").append(id).append("\n}\n");
+                }
+                out.append("SNAPSHOT {\n  ID: ").append(estado).append("\n}\n");
+                for (Lote lote : lotes) {
+                    escribirLote(out, lote);
+                }
+                for (Alerta alerta : alertas) {
+                    escribirAlerta(out, alerta);
+                }
+                out.flush();
+                archivo.write(String.format("%s%08x\n", PREFIJO_CHECKSUM, crc.getValue())
+                        .getBytes(StandardCharsets.US_ASCII));
+                archivo.getFD().sync();
+            }
 
-            int sensorCount = 0;
-            while (sensorMatcher.find()) {
-                String sensorBlock = sensorMatcher.group(1);
-                String sId = extractValue(sensorBlock, "ID");
-                String sTipo = extractValue(sensorBlock, "TIPO");
-                String sUbicacion = extractValue(sensorBlock, "UBICACION");
+            if (generaciones > 0 && generacionBase == 0) {
+                rotarGeneraciones(delta);
+            } else if (generaciones > 0) {
+                // El snapshot actual está dañado: se aparta, y los journals que
+                // siguen a .1 se extienden con el delta para llegar al nuevo
+                if (Files.exists(dataFile)) {
+                    Files.move(dataFile, danado(dataFile), StandardCopyOption.REPLACE_EXISTING);
+                }
+                List<Path> partes = new ArrayList<>();
+                partes.add(journalArchivado(1));
+                partes.addAll(delta);
+                concatenar(partes, journalArchivado(1));
+            }
+            Files.move(temporal, dataFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            sincronizarDirectorio();
+        }
+    }
 
-                System.out.println("[PARSER] Encontrado sensor: ID=" + sId + ", TIPO=" + sTipo + ", LOC=" + sUbicacion);
+    /**
+     * Desplaza las generaciones anteriores (.1 -> .2, ...) con sus journals
+     * archivados y pasa el snapshot actual a .1, archivando con él el delta.
+     * Un corte a mitad de camino deja los journals vigentes en su lugar, y un
+     * par generación/journal desparejo no empalma y no se usa.
+     */
+    private void rotarGeneraciones(List<Path> delta) throws IOException {
+        if (!Files.exists(dataFile)) {
+            return;
+        }
+        for (int i = generaciones - 1; i >= 1; i--) {
+            moverOBorrar(journalArchivado(i), journalArchivado(i + 1));
+            moverOBorrar(generacion(i), generacion(i + 1));
+        }
+        Files.deleteIfExists(journalArchivado(1));
+        Files.move(dataFile, generacion(1), StandardCopyOption.REPLACE_EXISTING);
+        if (delta != null) {
+            concatenar(delta, journalArchivado(1));
+        }
+    }
 
-                if ("HUMEDAD".equals(sTipo)) {
-                    lote.agregarSensor(new SensorHumedad(sId, sUbicacion));
-                } else {
-                    lote.agregarSensor(new SensorTemperatura(sId, sUbicacion));
+    private static void moverOBorrar(Path origen, Path destino) throws IOException {
+        if (Files.exists(origen)) {
+            Files.move(origen, destino, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(destino);
+        }
+    }
+
+    /**
+     * Escribe en {@code destino} los archivos existentes de {@code partes}, uno
+     * tras otro, de forma atómica. {@code destino} puede ser una de las partes.
+     */
+    private static void concatenar(List<Path> partes, Path destino) throws IOException {
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporal.toFile())) {
+            for (Path parte : partes) {
+                if (Files.exists(parte)) {
+                    Files.copy(parte, out);
                 }
-                sensorCount++;
             }
-            System.out.println("[PARSER] Lote " + id + " cargó " + sensorCount + " sensores");
-            data.lotes.add(lote);
+            out.getFD().sync();
+        }
+        Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
 
-            pos = endPos;
+    private void sincronizarDirectorio() {
+        try (FileChannel canal = FileChannel.open(dataFile.getParent(), StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // Algunos sistemas (Windows) no permiten sincronizar directorios
         }
+    }
 
-        // Parse Alertas
-        Pattern alertaPattern = Pattern.compile("ALERTA \\{(.*?)\\}", Pattern.DOTALL);
-        Matcher alertaMatcher = alertaPattern.matcher(content);
+    private void establecerBase(List<Lote> lotes) {
+        versionesPersistidas.clear();
+        for (Lote lote : lotes) {
+            versionesPersistidas.put(lote.getId(), lote.getVersion());
+        }
+        hayBase = true;
+    }
 
-        while (alertaMatcher.find()) {
-            String alertaBlock = alertaMatcher.group(1);
-            String nivelStr = extractValue(alertaBlock, "NIVEL");
-            String mensaje = extractValue(alertaBlock, "MENSAJE");
-            String fechaStr = extractValue(alertaBlock, "FECHA");
-            String loteId = extractValue(alertaBlock, "LOTE");
+    private static void escribirLote(Appendable sb, Lote lote) throws IOException {
+        sb.append("LOTE {\n");
+        sb.append("  ID: ").append(lote.getId()).append("\n");
+        sb.append("  NOMBRE: \"").append(lote.getNombre()).append("\"\n");
+        sb.append("  CULTIVO: \"").append(lote.getTipoCultivo()).append("\"\n");
+        sb.append("  AREA: ").append(String.valueOf(lote.getArea())).append("\n");
 
-            Alerta.Nivel nivel = Alerta.Nivel.valueOf(nivelStr);
-            LocalDateTime fecha = LocalDateTime.parse(fechaStr);
+        // Nuevos campos agrícolas
+        if (lote.getFechaSiembra() != null) {
+            sb.append("  FECHA_SIEMBRA: ").append(lote.getFechaSiembra().toString()).append("\n");
+        }
+        if (lote.getEtapaCrecimiento() != null) {
+            sb.append("  ETAPA: \"").append(lote.getEtapaCrecimiento()).append("\"\n");
+        }
+        if (lote.getNotas() != null && !lote.getNotas().isEmpty()) {
+            sb.append("  NOTAS: \"").append(lote.getNotas()).append("\"\n");
+        }
 
-            data.alertas.add(new Alerta(mensaje, nivel, loteId, fecha));
-            // Note: Alerta constructor sets date to now, we might need a setter or
-            // constructor that accepts date
-            // For now, we accept the new date or modify Alerta class.
-            // Let's assume for this exercise we just load them as new alerts or modify
-            // Alerta later if needed.
+        if (!lote.getSensores().isEmpty()) {
+            sb.append("  SENSORES {\n");
+            for (Sensor sensor : lote.getSensores()) {
+                sb.append("    SENSOR {\n");
+                sb.append("      ID: ").append(sensor.getId()).append("\n");
+                sb.append("      TIPO: ").append(sensor.getTipo()).append("\n");
+                sb.append("      UBICACION: \"").append(sensor.getUbicacion()).append("\"\n");
+                sb.append("    }\n");
+            }
+            sb.append("  }\n");
         }
+        sb.append("}\n");
+    }
 
-        return data;
+    static void escribirAlerta(Appendable sb, Alerta alerta) throws IOException {
+        sb.append("ALERTA {\n");
+        sb.append("  ID: ").append(alerta.getId()).append("\n");
+        sb.append("  NIVEL: ").append(alerta.getNivel().name()).append("\n");
+        if (alerta.getCategoria() != Alerta.Categoria.CONDICION) {
+            sb.append("  CATEGORIA: ").append(alerta.getCategoria().name()).append("\n");
+        }
+        sb.append("  MENSAJE: \"").append(alerta.getMensaje()).append("\"\n");
+        sb.append("  FECHA: ").append(alerta.getFechaHora().toString()).append("\n");
+        sb.append("  LOTE: ").append(alerta.getLoteId()).append("\n");
+        if (alerta.getSensorId() != null) {
+            sb.append("  SENSOR: ").append(alerta.getSensorId()).append("\n");
+        }
+        if (alerta.getOcurrencias() > 1) {
+            sb.append("  OCURRENCIAS: ").append(String.valueOf(alerta.getOcurrencias())).append("\n");
+            sb.append("  ULTIMA_VEZ: ").append(alerta.getUltimaVez().toString()).append("\n");
+        }
+        sb.append("}\n");
     }
 
-    private String extractValue(String block, String key) {
-        Pattern p = Pattern.compile(key + ":\\s*\"?(.*?)\"?\\s*(\\n|$|\\r)");
-        Matcher m = p.matcher(block);
-        if (m.find()) {
-            return m.group(1).trim();
+    /**
+     * Aplica en orden los bloques del snapshot y de los journals. Los lotes se
+     * indexan por ID para que un LOTE del journal reemplace al anterior; las
+     * alertas también, conservando su posición en el historial.
+     */
+    private static class Reconstruccion implements ToonParser.Handler {
+        private final Map<String, Lote> lotes = new LinkedHashMap<>();
+        private final Map<String, Alerta> alertas = new LinkedHashMap<>();
+        // Journals ya incluidos en el snapshot
+        private final Set<String> incluidos = new HashSet<>();
+        // Journals reaplicados sobre el snapshot
+        private final List<String> aplicados = new ArrayList<>();
+        private boolean enJournal;
+        private boolean omitir;
+        // Estado alcanzado; sin el bloque SNAPSHOT (formato anterior) no se
+        // conoce y se acepta cualquier journal
+        private String estado;
+        private boolean estadoConocido;
+        // Un journal no se escribió sobre el estado alcanzado: se ignora el resto
+        private boolean discontinuo;
+        private boolean journalIncompleto;
+        // Generación del snapshot usada
+        private int generacion;
+
+        void iniciarJournal() {
+            enJournal = true;
+            omitir = discontinuo;
+        }
+
+        @Override
+        public void snapshot(String id) {
+            if (!enJournal) {
+                estado = id;
+                estadoConocido = true;
+            }
+        }
+
+        @Override
+        public void journal(String id, String base) {
+            if (!enJournal) {
+                incluidos.add(id);
+            } else if (discontinuo || incluidos.contains(id) || aplicados.contains(id)) {
+                omitir = true;
+            } else if (estadoConocido && base != null && !base.equals(estado)) {
+                discontinuo = true;
+                omitir = true;
+            } else {
+                omitir = false;
+                aplicados.add(id);
+                estado = id;
+                estadoConocido = true;
+            }
+        }
+
+        @Override
+        public void lote(Lote lote) {
+            if (!omitir) {
+                lotes.put(lote.getId(), lote);
+            }
+        }
+
+        @Override
+        public void alerta(Alerta alerta) {
+            if (!omitir) {
+                alertas.put(alerta.getId(), alerta);
+            }
+        }
+
+        @Override
+        public void eliminarLote(String id) {
+            if (!omitir) {
+                lotes.remove(id);
+            }
+        }
+
+        @Override
+        public void limpiarAlertas() {
+            if (!omitir) {
+                alertas.clear();
+            }
+        }
+
+        @Override
+        public void descartarAlertas(int cantidad) {
+            if (!omitir) {
+                Iterator<Alerta> it = alertas.values().iterator();
+                for (int i = 0; i < cantidad && it.hasNext(); i++) {
+                    it.next();
+                    it.remove();
+                }
+            }
+        }
+
+        AgroSenseData resultado() {
+            AgroSenseData data = new AgroSenseData();
+            data.lotes = new ArrayList<>(lotes.values());
+            data.alertas = new ArrayList<>(alertas.values());
+            return data;
         }
-        return "";
     }
 
     // Data container class
@@ -0,0 +1,75 @@
+package com.agrosense.service;
+
+/**
+ * Ventana de los últimos N valores de una serie sobre un {@code double[]} de
+ * tamaño fijo. Agregar un valor no reserva memoria: al llenarse se sobrescribe
+ * el más antiguo. La suma de la ventana se mantiene al agregar, por lo que el
+ * promedio se obtiene en O(1).
+ */
+class VentanaCircular {
+    private final double[] valores;
+    private int inicio;
+    private int tamano;
+    private double suma;
+    // Agregados desde el último recálculo exacto de la suma
+    private int agregadosDesdeRecalculo;
+
+    VentanaCircular(int capacidad) {
+        if (capacidad <= 0) {
+            throw new IllegalArgumentException("La ventana debe tener al menos un valor");
+        }
+        this.valores = new double[capacidad];
+    }
+
+    void agregar(double valor) {
+        if (tamano < valores.length) {
+            valores[(inicio + tamano) % valores.length] = valor;
+            tamano++;
+            suma += valor;
+        } else {
+            suma += valor - valores[inicio];
+            valores[inicio] = valor;
+            inicio = (inicio + 1) % valores.length;
+        }
+        // Restar los valores que salen acumula error de redondeo: se recalcula
+        // la suma exacta una vez por vuelta completa (costo amortizado O(1))
+        if (++agregadosDesdeRecalculo >= valores.length) {
+            double exacta = 0;
+            for (int i = 0; i < tamano; i++) {
+                exacta += valores[i];
+            }
+            suma = exacta;
+            agregadosDesdeRecalculo = 0;
+        }
+    }
+
+    /** Valor en la posición indicada, donde 0 es el más antiguo */
+    double get(int indice) {
+        if (indice < 0 || indice >= tamano) {
+            throw new IndexOutOfBoundsException(indice);
+        }
+        return valores[(inicio + indice) % valores.length];
+    }
+
+    /** Valor más reciente menos {@code atras} posiciones (0 = el último) */
+    double ultimo(int atras) {
+        return get(tamano - 1 - atras);
+    }
+
+    int tamano() {
+        return tamano;
+    }
+
+    double suma() {
+        return suma;
+    }
+
+    /** Copia de los valores del más antiguo al más reciente */
+    double[] copiar() {
+        double[] copia = new double[tamano];
+        int primeraParte = Math.min(tamano, valores.length - inicio);
+        System.arraycopy(valores, inicio, copia, 0, primeraParte);
+        System.arraycopy(valores, 0, copia, primeraParte, tamano - primeraParte);
+        return copia;
+    }
+}
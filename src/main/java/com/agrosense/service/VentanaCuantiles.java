@@ -0,0 +1,56 @@
+package com.agrosense.service;
+
+/**
+ * Bocetos de cuantiles de una serie por hora, para las últimas N horas. Un
+ * rango de tiempo se responde fusionando los bocetos de las horas que cubre.
+ */
+class VentanaCuantiles {
+    private static final long HORA_MS = 3_600_000L;
+
+    private final long[] horas; // hora (desde epoch) de cada posición
+    private final BocetoCuantiles[] bocetos;
+    private long horaMasReciente;
+    private boolean vacia = true;
+
+    VentanaCuantiles(int cantidadHoras) {
+        this.horas = new long[cantidadHoras];
+        this.bocetos = new BocetoCuantiles[cantidadHoras];
+    }
+
+    void agregar(long epochMillis, double valor) {
+        long hora = Math.floorDiv(epochMillis, HORA_MS);
+        if (vacia) {
+            horaMasReciente = hora;
+            vacia = false;
+        } else if (hora <= horaMasReciente - horas.length) {
+            return; // fuera de la ventana
+        }
+        horaMasReciente = Math.max(horaMasReciente, hora);
+        int posicion = (int) Math.floorMod(hora, (long) horas.length);
+        if (bocetos[posicion] == null) {
+            bocetos[posicion] = new BocetoCuantiles();
+            horas[posicion] = hora;
+        } else if (horas[posicion] != hora) {
+            // La hora anterior de la posición ya salió de la ventana: se
+            // reutiliza su boceto para no reservar memoria cada hora
+            bocetos[posicion].limpiar();
+            horas[posicion] = hora;
+        }
+        bocetos[posicion].agregar(valor);
+    }
+
+    /**
+     * Fusiona en {@code destino} los bocetos de las horas que se superponen con
+     * [desde, hasta].
+     */
+    void fusionarEn(BocetoCuantiles destino, long desde, long hasta) {
+        long horaDesde = Math.floorDiv(desde, HORA_MS);
+        long horaHasta = Math.floorDiv(hasta, HORA_MS);
+        for (int i = 0; i < bocetos.length; i++) {
+            if (bocetos[i] != null && horas[i] >= horaDesde && horas[i] <= horaHasta
+                    && horas[i] > horaMasReciente - horas.length) {
+                destino.fusionar(bocetos[i]);
+            }
+        }
+    }
+}
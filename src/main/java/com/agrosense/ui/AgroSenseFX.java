@@ -3,6 +3,7 @@ package com.agrosense.ui;
 import com.agrosense.model.*;
 import com.agrosense.service.*;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -17,16 +18,39 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.OptionalDouble;
+import java.util.concurrent.TimeUnit;
 
 public class AgroSenseFX extends Application {
 
     // Services
     private GestorLotes gestorLotes = new GestorLotes();
     private SensorService sensorService = new SensorService();
-    private AlertaService alertaService = new AlertaService();
+    // Las mediciones (manuales y programadas) pasan por la cola de ingesta:
+    // alertas e histórico las procesan en sus propios hilos
+    private ColaIngesta colaIngesta = new ColaIngesta(ColaIngesta.Politica.BLOQUEAR);
+    private MonitoreoService monitoreoService = new MonitoreoService(sensorService,
+            (loteId, sensor, medicion) -> colaIngesta.publicar(loteId, medicion));
+    // Gateways de campo; solo escucha si se define -Dagrosense.red.puerto
+    private ServidorIngesta servidorIngesta = new ServidorIngesta(gestorLotes, colaIngesta::publicar);
+    private ArchivoAlertas archivoAlertas = new ArchivoAlertas();
+    private AlertaService alertaService = new AlertaService(AlertaService.CAPACIDAD_POR_DEFECTO,
+            Duration.ofDays(90), archivoAlertas);
     private RecomendacionService recomendacionService = new RecomendacionService();
     private ToonPersistenceService toonService = new ToonPersistenceService();
+    private AutoGuardadoService autoGuardado = new AutoGuardadoService(toonService, 500);
+    private SeriesTemporalesService seriesService = new SeriesTemporalesService();
+    private AgregadosTemporalesService agregadosService = new AgregadosTemporalesService();
+    // Histórico crudo que se conserva; lo anterior queda en los agregados
+    private static final Duration RETENCION_HISTORICO_CRUDO = Duration.ofDays(30);
+    private static final long INTERVALO_GUARDADO_INGESTA_MS = 2_000;
+    private volatile long ultimoGuardadoIngesta;
 
     // UI Components
     private TableView<Lote> tableLotes;
@@ -57,6 +81,8 @@ public class AgroSenseFX extends Application {
     public void start(Stage primaryStage) {
         // Auto-load data BEFORE creating UI (don't update tables yet)
         cargarDatosAutomaticamente();
+        cargarHistorico();
+        iniciarIngesta();
 
         BorderPane root = new BorderPane();
         root.getStylesheets().add(getClass().getResource("/styles.css").toExternalForm());
@@ -95,7 +121,26 @@ public class AgroSenseFX extends Application {
 
     @Override
     public void stop() {
+        servidorIngesta.detener();
+        monitoreoService.detener();
+        sensorService.cerrar();
+        if (!colaIngesta.detener(10, TimeUnit.SECONDS)) {
+            System.err.println("Quedaron mediciones sin procesar: " + colaIngesta.getEstadoEtapas());
+        }
         guardarDatosAutomaticamente();
+        autoGuardado.cerrar();
+        seriesService.cerrar();
+        try {
+            agregadosService.cerrar();
+        } catch (IOException e) {
+            System.err.println("Error al guardar los agregados: " + e.getMessage());
+        }
+        archivoAlertas.cerrar();
+        try {
+            toonService.cerrar();
+        } catch (Exception e) {
+            System.err.println("Error al cerrar la persistencia: " + e.getMessage());
+        }
     }
 
     private HBox createHeader() {
@@ -295,15 +340,14 @@ public class AgroSenseFX extends Application {
         dialog.setResultConverter(dialogButton -> {
             if (dialogButton == guardarButtonType) {
                 try {
-                    // Remover y crear nuevo lote con datos actualizados
-                    gestorLotes.eliminarLote(lote.getId());
+                    // Reemplazar el lote con los datos actualizados
                     Lote loteActualizado = new Lote(lote.getId(), txtNombre.getText(),
                             txtCultivo.getText(), Double.parseDouble(txtArea.getText()));
                     // Restaurar sensores
                     for (Sensor s : lote.getSensores()) {
                         loteActualizado.agregarSensor(s);
                     }
-                    gestorLotes.registrarLote(loteActualizado);
+                    gestorLotes.actualizarLote(loteActualizado);
                     return loteActualizado;
                 } catch (NumberFormatException e) {
                     showAlert("Error", "El área debe ser un número válido", Alert.AlertType.ERROR);
@@ -469,11 +513,10 @@ public class AgroSenseFX extends Application {
             var loteOpt = gestorLotes.buscarPorId(loteId);
 
             if (loteOpt.isPresent()) {
-                Lote lote = loteOpt.get();
-                // Verificar si ya existe
-                boolean existe = lote.getSensores().stream().anyMatch(s -> s.getId().equals(txtId.getText()));
+                // Verificar si ya existe (los IDs de sensor son únicos en todos los lotes)
+                boolean existe = gestorLotes.buscarLotePorSensor(txtId.getText()).isPresent();
                 if (existe) {
-                    showAlert("Error", "Ya existe un sensor con este ID en el lote", Alert.AlertType.ERROR);
+                    showAlert("Error", "Ya existe un sensor con este ID", Alert.AlertType.ERROR);
                     return;
                 }
 
@@ -481,7 +524,7 @@ public class AgroSenseFX extends Application {
                         ? new SensorHumedad(txtId.getText(), txtUbicacion.getText())
                         : new SensorTemperatura(txtId.getText(), txtUbicacion.getText());
 
-                lote.agregarSensor(sensor);
+                gestorLotes.agregarSensor(loteId, sensor);
                 guardarDatosAutomaticamente();
                 actualizarTablaSensores();
                 txtId.clear();
@@ -535,8 +578,13 @@ public class AgroSenseFX extends Application {
                 }
 
                 // Actualizar el sensor
-                sensor.setId(nuevoId);
-                sensor.setUbicacion(nuevaUbicacion);
+                try {
+                    gestorLotes.cambiarIdSensor(sensor, nuevoId);
+                } catch (IllegalArgumentException e) {
+                    showAlert("Error", e.getMessage(), Alert.AlertType.ERROR);
+                    return;
+                }
+                gestorLotes.cambiarUbicacionSensor(sensor, nuevaUbicacion);
                 guardarDatosAutomaticamente();
                 actualizarTablaSensores();
                 showAlert("Éxito", "Sensor actualizado correctamente", Alert.AlertType.INFORMATION);
@@ -553,9 +601,7 @@ public class AgroSenseFX extends Application {
 
         alert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.YES) {
-                var loteOpt = gestorLotes.buscarPorId(loteId);
-                if (loteOpt.isPresent()) {
-                    loteOpt.get().getSensores().remove(sensor);
+                if (gestorLotes.eliminarSensor(sensor.getId())) {
                     guardarDatosAutomaticamente();
                     actualizarTablaSensores();
                     showAlert("Éxito", "Sensor eliminado correctamente", Alert.AlertType.INFORMATION);
@@ -575,6 +621,22 @@ public class AgroSenseFX extends Application {
         btnSimular.setMaxWidth(Double.MAX_VALUE);
         btnSimular.setOnAction(e -> simularMonitoreo());
 
+        Button btnContinuo = createStyledButton("⏯️ Iniciar Monitoreo Continuo");
+        btnContinuo.setStyle(
+                "-fx-background-color: #00897B; -fx-text-fill: white; -fx-font-weight: bold; -fx-font-size: 14px;");
+        btnContinuo.setMaxWidth(Double.MAX_VALUE);
+        btnContinuo.setOnAction(e -> {
+            if (monitoreoService.getEstado() == MonitoreoService.Estado.DETENIDO) {
+                // Se programan los sensores actuales; los que se agreguen después, al reiniciar
+                monitoreoService.programarLotes(gestorLotes);
+                monitoreoService.iniciar();
+                btnContinuo.setText("⏹️ Detener Monitoreo Continuo");
+            } else {
+                monitoreoService.detener();
+                btnContinuo.setText("⏯️ Iniciar Monitoreo Continuo");
+            }
+        });
+
         VBox tableCard = createCard("📊 Lecturas en Tiempo Real");
         tableMonitoreo = new TableView<>();
 
@@ -621,7 +683,7 @@ public class AgroSenseFX extends Application {
         tableCard.getChildren().add(tableMonitoreo);
         VBox.setVgrow(tableCard, Priority.ALWAYS);
 
-        layout.getChildren().addAll(btnSimular, tableCard);
+        layout.getChildren().addAll(btnSimular, btnContinuo, tableCard);
         return layout;
     }
 
@@ -656,7 +718,13 @@ public class AgroSenseFX extends Application {
         colMensaje.setPrefWidth(450);
         colMensaje.setMinWidth(350);
 
-        tableAlertas.getColumns().addAll(colFecha, colNivel, colLote, colMensaje);
+        TableColumn<Alerta, String> colVeces = new TableColumn<>("Veces");
+        colVeces.setCellValueFactory(
+                cellData -> new SimpleStringProperty(String.valueOf(cellData.getValue().getOcurrencias())));
+        colVeces.setPrefWidth(80);
+        colVeces.setMinWidth(60);
+
+        tableAlertas.getColumns().addAll(colFecha, colNivel, colLote, colMensaje, colVeces);
         // Use UNCONSTRAINED to show full text
         // Use CONSTRAINED to adapt to screen size
         tableAlertas.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
@@ -680,7 +748,7 @@ public class AgroSenseFX extends Application {
             confirmacion.setHeaderText(null);
             confirmacion.showAndWait().ifPresent(response -> {
                 if (response == ButtonType.YES) {
-                    alertaService.getHistorialAlertas().clear();
+                    alertaService.limpiarHistorial();
                     guardarDatosAutomaticamente();
                     actualizarAlertas();
                     showAlert("Éxito", "Todas las alertas han sido eliminadas", Alert.AlertType.INFORMATION);
@@ -806,13 +874,44 @@ public class AgroSenseFX extends Application {
     }
 
     private void simularMonitoreo() {
+        // Lectura en paralelo fuera del hilo de la interfaz; solo la tabla se actualiza en él
+        List<Lote> lotes = gestorLotes.obtenerTodos();
+        List<Sensor> sensores = new ArrayList<>();
+        for (Lote lote : lotes) {
+            sensores.addAll(lote.getSensores());
+        }
+        // Async: si las lecturas ya terminaron, thenAccept correría en el hilo de la interfaz
+        sensorService.leerSensores(sensores).thenAcceptAsync(lecturas -> {
+            publicarLecturas(lotes, lecturas);
+            Platform.runLater(() -> mostrarLecturas(lotes, lecturas));
+        });
+    }
+
+    /** Con la cola llena, publicar bloquea: no se llama desde el hilo de la interfaz */
+    private void publicarLecturas(List<Lote> lotes, ResultadoLecturas lecturas) {
+        for (Lote lote : lotes) {
+            for (Sensor sensor : lote.getSensores()) {
+                OptionalDouble lectura = lecturas.getLectura(sensor);
+                if (lectura.isPresent()) {
+                    colaIngesta.publicar(lote.getId(), new Medicion(lectura.getAsDouble(), sensor.getId(),
+                            sensor.getTipo()));
+                }
+            }
+        }
+    }
+
+    private void mostrarLecturas(List<Lote> lotes, ResultadoLecturas lecturas) {
         ObservableList<MedicionViewModel> data = FXCollections.observableArrayList();
 
-        for (Lote lote : gestorLotes.obtenerTodos()) {
+        for (Lote lote : lotes) {
             for (Sensor sensor : lote.getSensores()) {
-                double valor = sensorService.leerSensor(sensor);
-                Medicion medicion = new Medicion(valor, sensor.getId(), sensor.getTipo());
-                alertaService.verificarMedicion(medicion, lote.getId());
+                OptionalDouble lectura = lecturas.getLectura(sensor);
+                if (lectura.isEmpty()) {
+                    data.add(new MedicionViewModel(lote.getNombre(), sensor.getId(), sensor.getTipo(),
+                            lote.getTipoCultivo(), "-", "❔ Sin lectura"));
+                    continue;
+                }
+                double valor = lectura.getAsDouble();
 
                 String estado = "✅ Normal";
                 if (sensor.getTipo().equals("HUMEDAD")) {
@@ -839,6 +938,48 @@ public class AgroSenseFX extends Application {
         }
     }
 
+    private void iniciarIngesta() {
+        colaIngesta.agregarEtapa("alertas", (loteId, medicion) -> {
+            alertaService.verificarMedicion(medicion, loteId);
+            refrescarTrasIngesta();
+        });
+        colaIngesta.agregarEtapa("historico", this::registrarEnHistorico);
+        colaIngesta.iniciar();
+
+        Integer puerto = Integer.getInteger("agrosense.red.puerto");
+        if (puerto != null) {
+            try {
+                servidorIngesta.iniciar(new InetSocketAddress(puerto), new InetSocketAddress(puerto));
+            } catch (IOException e) {
+                System.err.println("No se pudo abrir el puerto " + puerto + " para los gateways: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Actualiza las alertas y guarda, como mucho una vez por intervalo: cada
+     * guardado copia todo el estado. Se llama desde el hilo de la etapa.
+     */
+    private void refrescarTrasIngesta() {
+        long ahora = System.currentTimeMillis();
+        if (ahora - ultimoGuardadoIngesta >= INTERVALO_GUARDADO_INGESTA_MS) {
+            ultimoGuardadoIngesta = ahora;
+            Platform.runLater(() -> {
+                actualizarAlertas();
+                guardarDatosAutomaticamente();
+            });
+        }
+    }
+
+    private void registrarEnHistorico(String loteId, Medicion medicion) {
+        agregadosService.registrar(loteId, medicion);
+        try {
+            seriesService.registrar(medicion);
+        } catch (IOException e) {
+            System.err.println("Error al registrar la medición en el histórico: " + e.getMessage());
+        }
+    }
+
     private void actualizarAlertas() {
         List<Alerta> alertas = alertaService.getHistorialAlertas();
         tableAlertas.setItems(FXCollections.observableArrayList(alertas));
@@ -858,20 +999,41 @@ public class AgroSenseFX extends Application {
         txtRecomendaciones.setText(sb.toString());
     }
 
+    private void cargarHistorico() {
+        try {
+            agregadosService.cargar();
+            int borrados = agregadosService.depurarHistoricoCrudo(seriesService, RETENCION_HISTORICO_CRUDO);
+            if (borrados > 0) {
+                System.out.println("[SERIES] " + borrados + " segmentos antiguos depurados");
+            }
+        } catch (IOException e) {
+            System.err.println("Error al cargar el histórico: " + e.getMessage());
+        }
+        agregadosService.iniciarGuardadoPeriodico(AgregadosTemporalesService.GUARDADO_PERIODICO_POR_DEFECTO,
+                seriesService, RETENCION_HISTORICO_CRUDO);
+    }
+
     private void cargarDatosAutomaticamente() {
         try {
             var data = toonService.importarDatos();
             System.out.println(
                     "✓ Archivo TOON encontrado. Lotes: " + data.lotes.size() + ", Alertas: " + data.alertas.size());
-            for (Lote lote : data.lotes)
-                gestorLotes.registrarLote(lote);
+            for (Lote lote : data.lotes) {
+                try {
+                    gestorLotes.registrarLote(lote);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Lote " + lote.getId() + " omitido: " + e.getMessage());
+                }
+            }
             for (Alerta alerta : data.alertas)
-                alertaService.getHistorialAlertas().add(alerta);
+                alertaService.agregarAlerta(alerta);
             // Don't update tables here - they don't exist yet!
             System.out.println("Datos cargados automáticamente desde TOON");
+        } catch (FileNotFoundException e) {
+            System.out.println("Iniciando con datos vacíos (TOON no encontrado)");
         } catch (Exception e) {
-            System.out.println("Iniciando con datos vacíos (TOON no encontrado o error)");
-            System.out.println("Error: " + e.getMessage());
+            // Los archivos dañados quedan apartados: el próximo guardado no los pisa
+            System.err.println("Iniciando con datos vacíos: " + e.getMessage());
             e.printStackTrace();
         }
     }
@@ -881,18 +1043,8 @@ public class AgroSenseFX extends Application {
             System.out.println("[SKIP] Guardado omitido - aplicación aún inicializando");
             return;
         }
-        try {
-            System.out.println("[DEBUG] Guardando datos...");
-            System.out.println("[DEBUG] Total de lotes: " + gestorLotes.obtenerTodos().size());
-            for (Lote lote : gestorLotes.obtenerTodos()) {
-                System.out
-                        .println("[DEBUG] Lote " + lote.getId() + " tiene " + lote.getSensores().size() + " sensores");
-            }
-            toonService.exportarDatos(gestorLotes, alertaService);
-            System.out.println("Datos guardados automáticamente en TOON");
-        } catch (Exception e) {
-            System.err.println("Error al guardar datos automáticamente: " + e.getMessage());
-        }
+        // La escritura a disco ocurre en el hilo de autoguardado
+        autoGuardado.solicitarGuardado(gestorLotes, alertaService);
     }
 
     // ViewModel for Monitoring Table
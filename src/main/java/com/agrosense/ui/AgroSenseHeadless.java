@@ -0,0 +1,240 @@
+package com.agrosense.ui;
+
+import com.agrosense.model.Alerta;
+import com.agrosense.model.Lote;
+import com.agrosense.model.Medicion;
+import com.agrosense.service.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Modo servidor sin interfaz para equipos de campo: ingesta, alertas y
+ * persistencia como demonio, sin cargar ninguna clase de JavaFX.
+ *
+ * Las mediciones llegan por la red ({@link ServidorIngesta}) y, si hay
+ * sensores, por el monitoreo programado ({@link MonitoreoService}); una
+ * {@link ColaIngesta} las reparte a alertas, estadísticas e histórico. Al
+ * recibir SIGTERM o Ctrl+C se detiene la ingesta, se procesa lo encolado y se
+ * guarda todo antes de salir.
+ *
+ * Propiedades: {@code agrosense.red.puerto} (por defecto
+ * {@link ServidorIngesta#PUERTO_POR_DEFECTO}), {@code agrosense.monitoreo}
+ * ({@code false} para no leer los sensores locales) y
+ * {@code agrosense.datos}: un archivo TOON (el mismo formato que se guarda)
+ * con los lotes y sensores de la finca. Sus lotes se agregan al iniciar si no
+ * estaban ya guardados, así que puede quedar fijo en la configuración; sus
+ * alertas se ignoran. Sin sensores registrados, la red rechaza toda medición.
+ */
+public class AgroSenseHeadless {
+    private static final long INTERVALO_GUARDADO_MS = 2_000;
+    private static final long INTERVALO_ESTADO_MINUTOS = 5;
+    private static final Duration RETENCION_HISTORICO_CRUDO = Duration.ofDays(30);
+
+    private final GestorLotes gestorLotes = new GestorLotes();
+    private final SensorService sensorService = new SensorService();
+    private final ColaIngesta colaIngesta = new ColaIngesta(ColaIngesta.Politica.BLOQUEAR);
+    private final MonitoreoService monitoreoService = new MonitoreoService(sensorService,
+            (loteId, sensor, medicion) -> colaIngesta.publicar(loteId, sensor.getIndiceEstadisticas(), medicion));
+    private final ServidorIngesta servidorIngesta = new ServidorIngesta(gestorLotes, colaIngesta::publicar);
+    private final ArchivoAlertas archivoAlertas = new ArchivoAlertas();
+    private final AlertaService alertaService = new AlertaService(AlertaService.CAPACIDAD_POR_DEFECTO,
+            Duration.ofDays(90), archivoAlertas);
+    private final EstadisticasService estadisticas = new EstadisticasService();
+    private final ToonPersistenceService toonService = new ToonPersistenceService();
+    private final AutoGuardadoService autoGuardado = new AutoGuardadoService(toonService, 500);
+    private final SeriesTemporalesService seriesService = new SeriesTemporalesService();
+    private final AgregadosTemporalesService agregadosService = new AgregadosTemporalesService();
+    private final CountDownLatch apagado = new CountDownLatch(1);
+    private volatile long ultimoGuardado;
+
+    public static void main(String[] args) throws InterruptedException {
+        long inicio = System.nanoTime();
+        AgroSenseHeadless servidor = new AgroSenseHeadless();
+        try {
+            servidor.iniciar();
+        } catch (IOException e) {
+            System.err.println("[HEADLESS] No se pudo iniciar: " + e.getMessage());
+            servidor.detener();
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(servidor::detener, "agrosense-apagado"));
+        System.out.printf("[HEADLESS] Listo en %d ms%n", (System.nanoTime() - inicio) / 1_000_000);
+        servidor.esperar();
+    }
+
+    public void iniciar() throws IOException {
+        cargarDatos();
+        cargarSemilla(System.getProperty("agrosense.datos"));
+        avisarSiNoHaySensores();
+        cargarHistorico();
+
+        colaIngesta.agregarEtapa("alertas", (loteId, medicion) -> {
+            alertaService.verificarMedicion(medicion, loteId);
+            guardarCadaTanto();
+        });
+        colaIngesta.agregarEtapa("estadisticas",
+                (loteId, indiceSensor, medicion) -> estadisticas.registrarMedicion(loteId, indiceSensor, medicion));
+        colaIngesta.agregarEtapa("historico", this::registrarEnHistorico);
+        colaIngesta.iniciar();
+
+        int puerto = Integer.getInteger("agrosense.red.puerto", ServidorIngesta.PUERTO_POR_DEFECTO);
+        servidorIngesta.iniciar(new InetSocketAddress(puerto), new InetSocketAddress(puerto));
+
+        if (!"false".equalsIgnoreCase(System.getProperty("agrosense.monitoreo"))) {
+            monitoreoService.programarLotes(gestorLotes);
+            if (monitoreoService.getProgramados() > 0) {
+                monitoreoService.iniciar();
+            }
+        }
+    }
+
+    /**
+     * Bloquea hasta el apagado, informando el estado cada tanto.
+     */
+    public void esperar() throws InterruptedException {
+        while (!apagado.await(INTERVALO_ESTADO_MINUTOS, TimeUnit.MINUTES)) {
+            System.out.println("[HEADLESS] Red: " + servidorIngesta.getRecibidas() + " mediciones, "
+                    + servidorIngesta.getConexiones() + " conexiones; alertas: "
+                    + alertaService.getAlertasGeneradas() + "; etapas: " + colaIngesta.getEstadoEtapas());
+        }
+    }
+
+    /**
+     * Detiene la ingesta, procesa lo que quedó en la cola y guarda todo. Se
+     * puede llamar más de una vez.
+     */
+    public synchronized void detener() {
+        if (apagado.getCount() == 0) {
+            return;
+        }
+        System.out.println("[HEADLESS] Deteniendo...");
+        servidorIngesta.detener();
+        monitoreoService.detener();
+        sensorService.cerrar();
+        if (!colaIngesta.detener(10, TimeUnit.SECONDS)) {
+            System.err.println("[HEADLESS] Quedaron mediciones sin procesar: " + colaIngesta.getEstadoEtapas());
+        }
+        autoGuardado.solicitarGuardado(gestorLotes, alertaService);
+        autoGuardado.cerrar();
+        seriesService.cerrar();
+        try {
+            agregadosService.cerrar();
+        } catch (IOException e) {
+            System.err.println("[HEADLESS] Error al guardar los agregados: " + e.getMessage());
+        }
+        archivoAlertas.cerrar();
+        try {
+            toonService.cerrar();
+        } catch (IOException e) {
+            System.err.println("[HEADLESS] Error al cerrar la persistencia: " + e.getMessage());
+        }
+        apagado.countDown();
+        System.out.println("[HEADLESS] Detenido");
+    }
+
+    private void cargarDatos() {
+        try {
+            var data = toonService.importarDatos();
+            for (Lote lote : data.lotes) {
+                registrarLote(lote);
+            }
+            for (Alerta alerta : data.alertas) {
+                alertaService.agregarAlerta(alerta);
+            }
+            System.out.println("[HEADLESS] " + data.lotes.size() + " lotes y " + data.alertas.size()
+                    + " alertas cargados");
+        } catch (FileNotFoundException e) {
+            System.out.println("[HEADLESS] Iniciando con datos vacíos: " + e.getMessage());
+        } catch (IOException e) {
+            // Los archivos dañados quedan apartados: el próximo guardado no los pisa
+            System.err.println("[HEADLESS] Iniciando con datos vacíos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Agrega los lotes del archivo semilla que todavía no existen: lo ya
+     * guardado (por ejemplo, cambios hechos después) no se pisa.
+     */
+    private void cargarSemilla(String ruta) {
+        if (ruta == null || ruta.isBlank()) {
+            return;
+        }
+        try (Reader lector = Files.newBufferedReader(Paths.get(ruta), StandardCharsets.UTF_8)) {
+            var data = toonService.importarDatos(lector);
+            int agregados = 0;
+            for (Lote lote : data.lotes) {
+                if (gestorLotes.buscarPorId(lote.getId()).isEmpty() && registrarLote(lote)) {
+                    agregados++;
+                }
+            }
+            System.out.println("[HEADLESS] " + ruta + ": " + agregados + " lotes agregados de " + data.lotes.size());
+            if (agregados > 0) {
+                autoGuardado.solicitarGuardado(gestorLotes, alertaService);
+            }
+        } catch (IOException e) {
+            System.err.println("[HEADLESS] No se pudieron cargar los lotes de " + ruta + ": " + e.getMessage());
+        }
+    }
+
+    private boolean registrarLote(Lote lote) {
+        try {
+            gestorLotes.registrarLote(lote);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[HEADLESS] Lote " + lote.getId() + " omitido: " + e.getMessage());
+            return false;
+        }
+        lote.getSensores().forEach(sensor -> estadisticas.registrarSensor(lote.getId(), sensor));
+        return true;
+    }
+
+    private void avisarSiNoHaySensores() {
+        for (Lote lote : gestorLotes.obtenerTodos()) {
+            if (!lote.getSensores().isEmpty()) {
+                return;
+            }
+        }
+        System.err.println("[HEADLESS] AVISO: no hay sensores registrados; se rechazarán todas las mediciones."
+                + " Indique los lotes y sensores con -Dagrosense.datos=<archivo.toon>");
+    }
+
+    private void cargarHistorico() {
+        try {
+            agregadosService.cargar();
+            int borrados = agregadosService.depurarHistoricoCrudo(seriesService, RETENCION_HISTORICO_CRUDO);
+            if (borrados > 0) {
+                System.out.println("[SERIES] " + borrados + " segmentos antiguos depurados");
+            }
+        } catch (IOException e) {
+            System.err.println("[HEADLESS] Error al cargar el histórico: " + e.getMessage());
+        }
+        agregadosService.iniciarGuardadoPeriodico(AgregadosTemporalesService.GUARDADO_PERIODICO_POR_DEFECTO,
+                seriesService, RETENCION_HISTORICO_CRUDO);
+    }
+
+    /** Cada guardado copia todo el estado: se pide como mucho uno por intervalo */
+    private void guardarCadaTanto() {
+        long ahora = System.currentTimeMillis();
+        if (ahora - ultimoGuardado >= INTERVALO_GUARDADO_MS) {
+            ultimoGuardado = ahora;
+            autoGuardado.solicitarGuardado(gestorLotes, alertaService);
+        }
+    }
+
+    private void registrarEnHistorico(String loteId, Medicion medicion) {
+        agregadosService.registrar(loteId, medicion);
+        try {
+            seriesService.registrar(medicion);
+        } catch (IOException e) {
+            System.err.println("[HEADLESS] Error al registrar la medición en el histórico: " + e.getMessage());
+        }
+    }
+}
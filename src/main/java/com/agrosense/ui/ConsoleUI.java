@@ -3,7 +3,10 @@ package com.agrosense.ui;
 import com.agrosense.model.*;
 import com.agrosense.service.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.OptionalDouble;
 import java.util.Scanner;
 
 public class ConsoleUI {
@@ -11,6 +14,8 @@ public class ConsoleUI {
     private SensorService sensorService;
     private AlertaService alertaService;
     private RecomendacionService recomendacionService;
+    private SeriesTemporalesService seriesService;
+    private AgregadosTemporalesService agregadosService;
     private Scanner scanner;
 
     public ConsoleUI() {
@@ -18,7 +23,18 @@ public class ConsoleUI {
         this.sensorService = new SensorService();
         this.alertaService = new AlertaService();
         this.recomendacionService = new RecomendacionService();
+        this.seriesService = new SeriesTemporalesService();
+        this.agregadosService = new AgregadosTemporalesService();
         this.scanner = new Scanner(System.in);
+        cargarAgregados();
+    }
+
+    private void cargarAgregados() {
+        try {
+            agregadosService.cargar();
+        } catch (IOException e) {
+            System.out.println("No se pudieron cargar los agregados: " + e.getMessage());
+        }
     }
 
     public void iniciar() {
@@ -64,6 +80,13 @@ public class ConsoleUI {
                 break;
             case 6:
                 System.out.println("Saliendo del sistema...");
+                sensorService.cerrar();
+                seriesService.cerrar();
+                try {
+                    agregadosService.cerrar();
+                } catch (IOException e) {
+                    System.out.println("No se pudieron guardar los agregados: " + e.getMessage());
+                }
                 break;
             default:
                 System.out.println("Opción inválida.");
@@ -111,8 +134,12 @@ public class ConsoleUI {
                 return;
             }
 
-            lote.agregarSensor(sensor);
-            System.out.println("Sensor agregado al lote " + lote.getNombre());
+            try {
+                gestorLotes.agregarSensor(loteId, sensor);
+                System.out.println("Sensor agregado al lote " + lote.getNombre());
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
         } else {
             System.out.println("Lote no encontrado.");
         }
@@ -126,11 +153,22 @@ public class ConsoleUI {
             return;
         }
 
+        // Todas las lecturas se piden juntas y se leen en paralelo
+        List<Sensor> sensores = new ArrayList<>();
+        for (Lote lote : lotes) {
+            sensores.addAll(lote.getSensores());
+        }
+        ResultadoLecturas lecturas = sensorService.leerSensores(sensores).join();
+
         for (Lote lote : lotes) {
             System.out.println("Monitoreando Lote: " + lote.getNombre());
             for (Sensor sensor : lote.getSensores()) {
-                // Usamos el servicio para leer (que usa su propia lógica o la del sensor)
-                double valor = sensorService.leerSensor(sensor);
+                OptionalDouble lectura = lecturas.getLectura(sensor);
+                if (lectura.isEmpty()) {
+                    System.out.println(" -> Sensor " + sensor.getTipo() + " (" + sensor.getId() + "): sin lectura");
+                    continue;
+                }
+                double valor = lectura.getAsDouble();
                 Medicion medicion = new Medicion(valor, sensor.getId(), sensor.getTipo());
 
                 System.out.println(" -> Sensor " + sensor.getTipo() + " (" + sensor.getId() + "): "
@@ -138,9 +176,17 @@ public class ConsoleUI {
 
                 // Verificar alertas
                 alertaService.verificarMedicion(medicion, lote.getId());
+
+                // Guardar en el histórico
+                agregadosService.registrar(lote.getId(), medicion);
+                try {
+                    seriesService.registrar(medicion);
+                } catch (IOException e) {
+                    System.out.println("No se pudo guardar la medición: " + e.getMessage());
+                }
             }
         }
-        System.out.println("Monitoreo finalizado.");
+        System.out.println("Monitoreo finalizado: " + lecturas);
     }
 
     private void verAlertas() {
@@ -1,7 +1,14 @@
 package com.agrosense.ui;
 
+import java.util.Arrays;
+
 public class Launcher {
-    public static void main(String[] args) {
-        AgroSenseFX.main(args);
+    public static void main(String[] args) throws InterruptedException {
+        // Sin interfaz no se toca AgroSenseFX, así que no se carga JavaFX
+        if (args.length > 0 && args[0].equals("--headless")) {
+            AgroSenseHeadless.main(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            AgroSenseFX.main(args);
+        }
     }
 }
@@ -0,0 +1,119 @@
+package com.agrosense.service;
+
+import com.agrosense.model.Lote;
+import com.agrosense.model.Sensor;
+import com.agrosense.model.SensorHumedad;
+import com.agrosense.model.SensorTemperatura;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Escrituras concurrentes sobre {@link GestorLotes} mientras otros hilos
+ * recorren las instantáneas: no se pierden actualizaciones y el índice
+ * sensor -> lote queda sincronizado.
+ */
+class GestorLotesConcurrenciaTest {
+    private static final int ESCRITORES = 8;
+    private static final int LECTORES = 3;
+    private static final int LOTES_POR_ESCRITOR = 2000;
+    // Se elimina uno de cada tantos lotes
+    private static final int CADA_ELIMINADO = 3;
+
+    @Test
+    void noSePierdenActualizacionesConcurrentes() throws Exception {
+        GestorLotes gestor = new GestorLotes();
+        ExecutorService hilos = Executors.newFixedThreadPool(ESCRITORES + LECTORES);
+        CountDownLatch largada = new CountDownLatch(1);
+        AtomicBoolean escribiendo = new AtomicBoolean(true);
+        try {
+            List<Future<?>> escritores = new ArrayList<>();
+            for (int e = 0; e < ESCRITORES; e++) {
+                int escritor = e;
+                escritores.add(hilos.submit((Callable<Void>) () -> {
+                    largada.await();
+                    for (int i = 0; i < LOTES_POR_ESCRITOR; i++) {
+                        String id = idLote(escritor, i);
+                        Lote lote = new Lote(id, "Lote " + id, "MAIZ", 1.0);
+                        lote.agregarSensor(new SensorHumedad(id + "-H0", "Norte"));
+                        gestor.registrarLote(lote);
+                        gestor.agregarSensor(id, new SensorHumedad(id + "-H1", "Sur"));
+                        gestor.agregarSensor(id, new SensorTemperatura(id + "-T0", "Centro"));
+                        if (i % CADA_ELIMINADO == 0) {
+                            assertTrue(gestor.eliminarLote(id));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            List<Future<Integer>> lectores = new ArrayList<>();
+            for (int l = 0; l < LECTORES; l++) {
+                lectores.add(hilos.submit(() -> {
+                    largada.await();
+                    int recorridas = 0;
+                    do {
+                        Set<String> ids = new HashSet<>();
+                        for (Lote lote : gestor.obtenerTodos()) {
+                            assertTrue(ids.add(lote.getId()), "Lote repetido en la instantánea: " + lote.getId());
+                            for (Sensor sensor : lote.getSensores()) {
+                                assertTrue(sensor.getId().startsWith(lote.getId() + "-"));
+                            }
+                        }
+                        recorridas++;
+                    } while (escribiendo.get());
+                    return recorridas;
+                }));
+            }
+
+            largada.countDown();
+            for (Future<?> escritor : escritores) {
+                escritor.get(60, TimeUnit.SECONDS);
+            }
+            escribiendo.set(false);
+            for (Future<Integer> lector : lectores) {
+                assertTrue(lector.get(60, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            escribiendo.set(false);
+            hilos.shutdownNow();
+        }
+
+        int eliminadosPorEscritor = (LOTES_POR_ESCRITOR + CADA_ELIMINADO - 1) / CADA_ELIMINADO;
+        List<Lote> todos = gestor.obtenerTodos();
+        assertEquals(ESCRITORES * (LOTES_POR_ESCRITOR - eliminadosPorEscritor), todos.size());
+
+        for (int e = 0; e < ESCRITORES; e++) {
+            for (int i = 0; i < LOTES_POR_ESCRITOR; i++) {
+                String id = idLote(e, i);
+                boolean eliminado = i % CADA_ELIMINADO == 0;
+                assertEquals(!eliminado, gestor.buscarPorId(id).isPresent(), id);
+                for (String sensorId : List.of(id + "-H0", id + "-H1", id + "-T0")) {
+                    if (eliminado) {
+                        assertTrue(gestor.buscarLotePorSensor(sensorId).isEmpty(), sensorId);
+                    } else {
+                        Lote lote = gestor.buscarPorId(id).orElseThrow();
+                        assertSame(lote, gestor.buscarLotePorSensor(sensorId).orElseThrow(), sensorId);
+                        assertEquals(sensorId, gestor.buscarSensor(sensorId).orElseThrow().getId());
+                    }
+                }
+                gestor.buscarPorId(id).ifPresent(lote -> assertEquals(3, lote.getSensores().size(), id));
+            }
+        }
+    }
+
+    private static String idLote(int escritor, int indice) {
+        return "L" + escritor + "-" + indice;
+    }
+}